@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service;
+
+import java.util.Locale;
+
+/**
+ * Aggregate function of a property, computed by the database.
+ * 
+ * The value of the aggregate is found in the result tuples by its alias, 
+ * the function and the property, like "sum(price)".
+ * 
+ * @author Antonio Rabelo
+ */
+public final class Aggregate {
+
+	/**
+	 * Aggregate functions.
+	 */
+	public enum Function {
+		COUNT, SUM, AVG, MIN, MAX
+	}
+
+	/**
+	 * Aggregate function.
+	 */
+	private final Function function;
+
+	/**
+	 * Aggregated property.
+	 */
+	private final String property;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param function Aggregate function.
+	 * @param property Aggregated property.
+	 */
+	public Aggregate(Function function, String property) {
+		if (function == null || property == null) {
+			throw new IllegalArgumentException("Must define the function and the property.");
+		}
+		this.function = function;
+		this.property = property;
+	}
+
+	/**
+	 * Number of entities with a non null property.
+	 * 
+	 * @param property Aggregated property.
+	 * @return         Aggregate.
+	 */
+	public static Aggregate count(String property) {
+		return new Aggregate(Function.COUNT, property);
+	}
+
+	/**
+	 * Sum of a numeric property.
+	 * 
+	 * @param property Aggregated property.
+	 * @return         Aggregate.
+	 */
+	public static Aggregate sum(String property) {
+		return new Aggregate(Function.SUM, property);
+	}
+
+	/**
+	 * Average of a numeric property.
+	 * 
+	 * @param property Aggregated property.
+	 * @return         Aggregate.
+	 */
+	public static Aggregate avg(String property) {
+		return new Aggregate(Function.AVG, property);
+	}
+
+	/**
+	 * Least value of a property.
+	 * 
+	 * @param property Aggregated property.
+	 * @return         Aggregate.
+	 */
+	public static Aggregate min(String property) {
+		return new Aggregate(Function.MIN, property);
+	}
+
+	/**
+	 * Greatest value of a property.
+	 * 
+	 * @param property Aggregated property.
+	 * @return         Aggregate.
+	 */
+	public static Aggregate max(String property) {
+		return new Aggregate(Function.MAX, property);
+	}
+
+	/**
+	 * Returns the aggregate function.
+	 * 
+	 * @return Aggregate function.
+	 */
+	public Function getFunction() {
+		return this.function;
+	}
+
+	/**
+	 * Returns the aggregated property.
+	 * 
+	 * @return Aggregated property.
+	 */
+	public String getProperty() {
+		return this.property;
+	}
+
+	/**
+	 * Returns the alias of the aggregate in the result tuples.
+	 * 
+	 * @return Alias, like "sum(price)".
+	 */
+	public String getAlias() {
+		return this.function.name().toLowerCase(Locale.ROOT) + '(' + this.property + ')';
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Aggregate)) {
+			return false;
+		}
+		Aggregate other = (Aggregate)obj;
+		return this.function == other.function && this.property.equals(other.property);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return 31 * this.function.hashCode() + this.property.hashCode();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return getAlias();
+	}
+}
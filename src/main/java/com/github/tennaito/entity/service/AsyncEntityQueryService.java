@@ -0,0 +1,224 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.persistence.Tuple;
+
+import com.github.tennaito.entity.service.data.EntityState;
+import com.github.tennaito.entity.service.data.KeysetPage;
+import com.github.tennaito.entity.service.data.PageResult;
+
+/**
+ * Interface for querying purposes that runs every query asynchronously, 
+ * so independent queries can run concurrently.
+ * 
+ * Mirrors the EntityQueryService, each future completes with the result 
+ * of the same synchronous operation or exceptionally with its exception.
+ * 
+ * @author Antonio Rabelo
+ *
+ * @param <T>
+ */
+public interface AsyncEntityQueryService<T> {
+
+	/**
+	 * Count entities.
+	 * 
+	 * @see EntityQueryService#count(Class)
+	 */
+	public CompletableFuture<Long> count(Class<T> entity);
+
+	/**
+	 * Count entities with where condition (rsql).
+	 * 
+	 * @see EssentialEntityQueryService#countWhere(Class, String)
+	 */
+	public CompletableFuture<Long> countWhere(Class<T> entity, String rsql);
+
+	/**
+	 * Count entities with where condition (rsql) and a count strategy.
+	 * 
+	 * @see EssentialEntityQueryService#countWhere(Class, String, CountStrategy)
+	 */
+	public CompletableFuture<Long> countWhere(Class<T> entity, String rsql, CountStrategy strategy);
+
+	/**
+	 * Count entities for many conditions at once.
+	 * 
+	 * @see EssentialEntityQueryService#countWhereMulti(Class, List)
+	 */
+	public CompletableFuture<List<Long>> countWhereMulti(Class<T> entity, List<String> rsqls);
+
+	/**
+	 * Count the entities that meet a condition for each value of a property.
+	 * 
+	 * @see EssentialEntityQueryService#facetWhere(Class, String, String, Integer)
+	 */
+	public CompletableFuture<Map<Object, Long>> facetWhere(Class<T> entity, String rsql, String property, Integer limit);
+
+	/**
+	 * Count the entities that meet a condition for each value of some properties.
+	 * 
+	 * @see EntityQueryService#facetWhere(Class, String, List, Integer)
+	 */
+	public CompletableFuture<Map<String, Map<Object, Long>>> facetWhere(Class<T> entity, String rsql, List<String> properties, Integer limit);
+
+	/**
+	 * Verifies if there is an entity that meets the condition.
+	 * 
+	 * @see EssentialEntityQueryService#existsWhere(Class, String)
+	 */
+	public CompletableFuture<Boolean> existsWhere(Class<T> entity, String rsql);
+
+	/**
+	 * Query and return a single result.
+	 * 
+	 * @see EntityQueryService#querySingle(Class)
+	 */
+	public CompletableFuture<T> querySingle(Class<T> entity);
+
+	/**
+	 * Query a single result with where condition (rsql).
+	 * 
+	 * @see EntityQueryService#querySingle(Class, String)
+	 */
+	public CompletableFuture<T> querySingle(Class<T> entity, String rsql);
+
+	/**
+	 * Query a single with a partial result.
+	 * 
+	 * @see EntityQueryService#querySingle(Class, List)
+	 */
+	public CompletableFuture<T> querySingle(Class<T> entity, List<String> properties);
+
+	/**
+	 * Query a single with a partial result with a where (rsql) condition.
+	 * 
+	 * @see EssentialEntityQueryService#querySingle(Class, List, String)
+	 */
+	public CompletableFuture<T> querySingle(Class<T> entity, List<String> properties, String rsql);
+
+	/**
+	 * List of Entities with a partial result.
+	 * 
+	 * @see EntityQueryService#queryPartial(Class, List)
+	 */
+	public CompletableFuture<List<T>> queryPartial(Class<T> entity, List<String> properties);
+
+	/**
+	 * List of Entities with a partial result paginated.
+	 * 
+	 * @see EntityQueryService#queryPartial(Class, List, Integer, Integer)
+	 */
+	public CompletableFuture<List<T>> queryPartial(Class<T> entity, List<String> properties, Integer page, Integer pageSize);
+
+	/**
+	 * List of All Entities.
+	 * 
+	 * @see EntityQueryService#queryAll(Class)
+	 */
+	public CompletableFuture<List<T>> queryAll(Class<T> entity);
+
+	/**
+	 * List of All Entities paginated.
+	 * 
+	 * @see EntityQueryService#queryAll(Class, Integer, Integer)
+	 */
+	public CompletableFuture<List<T>> queryAll(Class<T> entity, Integer page, Integer pageSize);
+
+	/**
+	 * List of entities with a where condition.
+	 * 
+	 * @see EntityQueryService#queryWhere(Class, String)
+	 */
+	public CompletableFuture<List<T>> queryWhere(Class<T> entity, String rsql);
+
+	/**
+	 * List of entities with a where condition with partial result.
+	 * 
+	 * @see EntityQueryService#queryWhere(Class, List, String)
+	 */
+	public CompletableFuture<List<T>> queryWhere(Class<T> entity, List<String> properties, String rsql);
+
+	/**
+	 * Query a entity with Where (rsql) condition and paginated.
+	 * 
+	 * @see EntityQueryService#queryWhere(Class, String, Integer, Integer)
+	 */
+	public CompletableFuture<List<T>> queryWhere(Class<T> entity, String rsql, Integer page, Integer pageSize);
+
+	/**
+	 * Query a entity with where (rsql) condition and paginated some properties filled.
+	 * 
+	 * @see EssentialEntityQueryService#queryWhere(Class, List, String, Integer, Integer)
+	 */
+	public CompletableFuture<List<T>> queryWhere(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize);
+
+	/**
+	 * Query the state of the entities with where (rsql) condition, paginated.
+	 * 
+	 * @see EssentialEntityQueryService#queryStates(Class, List, String, Integer, Integer)
+	 */
+	public CompletableFuture<List<EntityState>> queryStates(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize);
+
+	/**
+	 * Find entities by their identifiers, the managed ones without querying the database.
+	 * 
+	 * @see EssentialEntityQueryService#findAllByIds(Class, Collection, List)
+	 */
+	public CompletableFuture<List<T>> findAllByIds(Class<T> entity, Collection<?> ids, List<String> properties);
+
+	/**
+	 * Query a entity with where (rsql) condition and keyset (seek) pagination.
+	 * 
+	 * @see EssentialEntityQueryService#queryWhere(Class, List, String, String, String, Integer)
+	 */
+	public CompletableFuture<KeysetPage<T>> queryWhere(Class<T> entity, List<String> properties, String rsql, String sortKey, String continuationToken, Integer pageSize);
+
+	/**
+	 * Query a page of entities with Where (rsql) condition and the total.
+	 * 
+	 * @see EntityQueryService#queryPage(Class, String, Integer, Integer)
+	 */
+	public CompletableFuture<PageResult<T>> queryPage(Class<T> entity, String rsql, Integer page, Integer pageSize);
+
+	/**
+	 * Query a page of entities with where (rsql) condition, some properties filled and the total.
+	 * 
+	 * @see EssentialEntityQueryService#queryPage(Class, List, String, Integer, Integer, boolean)
+	 */
+	public CompletableFuture<PageResult<T>> queryPage(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize, boolean countTotal);
+
+	/**
+	 * Aggregate the entities that meet a where (rsql) condition in the database.
+	 * 
+	 * @see EssentialEntityQueryService#aggregateWhere(Class, String, List, List)
+	 */
+	public CompletableFuture<List<Tuple>> aggregateWhere(Class<T> entity, String rsql, List<String> groupBy, List<Aggregate> aggregates);
+}
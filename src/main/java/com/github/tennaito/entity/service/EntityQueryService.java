@@ -24,9 +24,12 @@
 package com.github.tennaito.entity.service;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.NonUniqueResultException;
 
+import com.github.tennaito.entity.service.data.PageResult;
+
 /**
  * Interface for querying purposes.
  * 
@@ -143,4 +146,43 @@ public interface EntityQueryService<T> extends EssentialEntityQueryService<T> {
 	 * @return	       A page of All Entities that meets that condition with partial result.
 	 */
 	public List<T> queryWhere(Class<T> entity, String rsql, Integer page, Integer pageSize);
+	
+	/**
+	 * Query a page of entities with Where (rsql) condition and the total of 
+	 * entities that meet it.
+	 * 
+	 * @param entity   Type of the Entity.
+	 * @param rsql     RSQL string.
+	 * @param page     Page number (starts with 1)
+	 * @param pageSize Page Size (starts with 1)
+	 * @return	       A page of the Entities that meets that condition with the total.
+	 */
+	public PageResult<T> queryPage(Class<T> entity, String rsql, Integer page, Integer pageSize);
+
+	/**
+	 * Count the entities that meet a condition for each value of some properties.
+	 * 
+	 * @param entity     Type of the Entity.
+	 * @param rsql       RSQL string.
+	 * @param properties Properties of the facets.
+	 * @param limit      Max number of values of each facet (starts with 1), null for all.
+	 * @return           The counts of each facet by property, in the order of the properties.
+	 */
+	public Map<String, Map<Object, Long>> facetWhere(Class<T> entity, String rsql, List<String> properties, Integer limit);
+
+	/**
+	 * Iterator over the entities with a where condition with partial result 
+	 * fetched lazily in chunks, for results that do not fit in memory.
+	 * 
+	 * The chunks are fetched by an EntityManager dedicated to the iteration,
+	 * so the entities of a chunk are detached when the next one is fetched
+	 * and the ones of the caller are never detached. The iterator must be 
+	 * closed after use (it is closed when it reaches the end).
+	 * 
+	 * @param entity     Type of the Entity.
+	 * @param properties List of the properties (data) to be returned.
+	 * @param rsql       RSQL string.
+	 * @return           Iterator of All Entities that meets that condition with partial result.
+	 */
+	public EntityIterator<T> streamWhere(Class<T> entity, List<String> properties, String rsql);
 }
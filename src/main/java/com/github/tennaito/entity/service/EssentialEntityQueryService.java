@@ -23,9 +23,16 @@
  */
 package com.github.tennaito.entity.service;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.NonUniqueResultException;
+import javax.persistence.Tuple;
+
+import com.github.tennaito.entity.service.data.EntityState;
+import com.github.tennaito.entity.service.data.KeysetPage;
+import com.github.tennaito.entity.service.data.PageResult;
 
 /**
  * Interface with essential querying purposes.
@@ -45,6 +52,45 @@ public interface EssentialEntityQueryService<T> {
 	 */
 	public long countWhere(Class<T> entity, String rsql);
 	
+	/**
+	 * Count entities with a count strategy.
+	 * 
+	 * @param entity   Type of the Entity.
+	 * @param rsql	   RSQL string.
+	 * @param strategy Count strategy, null for the one configured in the service.
+	 * @return         The count (exact, cached or estimated) of Entities the meet the rsql condition.
+	 */
+	public long countWhere(Class<T> entity, String rsql, CountStrategy strategy);
+	
+	/**
+	 * Count entities for many conditions at once, with a single query.
+	 * 
+	 * @param entity   Type of the Entity.
+	 * @param rsqls    RSQL strings (at least one), a null one counts all the entities.
+	 * @return         The count of Entities that meet each rsql condition, in the same order.
+	 */
+	public List<Long> countWhereMulti(Class<T> entity, List<String> rsqls);
+	
+	/**
+	 * Count the entities that meet a condition for each value of a property.
+	 * 
+	 * @param entity   Type of the Entity.
+	 * @param rsql	   RSQL string.
+	 * @param property Property of the facet.
+	 * @param limit    Max number of values (starts with 1), null for all.
+	 * @return         The count of each value, the values with more Entities first.
+	 */
+	public Map<Object, Long> facetWhere(Class<T> entity, String rsql, String property, Integer limit);
+	
+	/**
+	 * Verifies if there is an entity that meets the condition, without counting them.
+	 * 
+	 * @param entity   Type of the Entity.
+	 * @param rsql	   RSQL string.
+	 * @return         true when at least one Entity meets the rsql condition.
+	 */
+	public boolean existsWhere(Class<T> entity, String rsql);
+	
 	/**
 	 * Query a single with a partial result with a where (rsql) condition.
 	 * 
@@ -69,4 +115,79 @@ public interface EssentialEntityQueryService<T> {
 	 * @return	         A page of All Entities that meets that condition with partial result.
 	 */
 	public List<T> queryWhere(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize);
+
+	/**
+	 * Query the state of the entities with where (rsql) condition, paginated. 
+	 * The properties are projected straight into the states, without entities.
+	 * Dotted properties (like "items.price") are joined in the same query and 
+	 * fill nested states. Pages of joined collections count the entities, so 
+	 * their identifiers are queried first.
+	 * 
+	 * @param entity     Type of the Entity.
+	 * @param properties List of the properties (data) to be returned, null for all the single valued ones.
+	 * @param rsql       RSQL string.
+	 * @param page       Page number (starts with 1)
+	 * @param pageSize   Page Size (starts with 1)
+	 * @return           A page of states (with the properties only) of the Entities that meets that condition.
+	 */
+	public List<EntityState> queryStates(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize);
+
+	/**
+	 * Find entities by their identifiers. The entities already managed by the 
+	 * EntityManager are returned without querying the database and the others 
+	 * are queried in batches of identifiers. With partial properties every 
+	 * entity is queried, so all of them are partial.
+	 * 
+	 * @param entity     Type of the Entity.
+	 * @param ids        Identifiers of the Entities.
+	 * @param properties List of the properties (data) to be returned of the queried Entities.
+	 * @return           The Entities in the order of the identifiers, the ones not found are omitted.
+	 */
+	public List<T> findAllByIds(Class<T> entity, Collection<?> ids, List<String> properties);
+
+	/**
+	 * Query a entity with where (rsql) condition and keyset (seek) pagination.
+	 * 
+	 * Pages are sorted by the sort key and then by the identifier, and each 
+	 * page seeks past the last row of the previous one instead of skipping rows.
+	 * 
+	 * @param entity            Type of the Entity.
+	 * @param properties        List of the properties (data) to be returned, must contain the sort key and the identifier.
+	 * @param rsql              RSQL string.
+	 * @param sortKey           Property used to sort the pages.
+	 * @param continuationToken Token returned with the previous page, null for the first page.
+	 * @param pageSize          Page Size (starts with 1)
+	 * @return                  A page of the Entities that meets that condition and the token of the next page.
+	 */
+	public KeysetPage<T> queryWhere(Class<T> entity, List<String> properties, String rsql, String sortKey, String continuationToken, Integer pageSize);
+
+	/**
+	 * Query a page of entities with where (rsql) condition and some properties 
+	 * filled, with the total of entities that meet the condition.
+	 * 
+	 * The condition is parsed once for both queries and the count is skipped 
+	 * when the page alone tells the total. Without total the query fetches 
+	 * one more entity to tell if there is a next page and never counts.
+	 * 
+	 * @param entity     Type of the Entity.
+	 * @param properties List of the properties (data) to be returned.
+	 * @param rsql       RSQL string.
+	 * @param page       Page number (starts with 1)
+	 * @param pageSize   Page Size (starts with 1)
+	 * @param countTotal When false only tells if there is a next page.
+	 * @return           A page of the Entities that meets that condition with the total.
+	 */
+	public PageResult<T> queryPage(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize, boolean countTotal);
+
+	/**
+	 * Aggregate the entities that meet a where (rsql) condition in the database.
+	 * 
+	 * @param entity     Type of the Entity.
+	 * @param rsql       RSQL string.
+	 * @param groupBy    Group by properties, null or empty for a single group.
+	 * @param aggregates Aggregates of each group (at least one).
+	 * @return           A tuple for each group, with the group by properties (aliased by 
+	 *                   their names) and the aggregates (aliased as "sum(price)").
+	 */
+	public List<Tuple> aggregateWhere(Class<T> entity, String rsql, List<String> groupBy, List<Aggregate> aggregates);
 }
@@ -0,0 +1,67 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service;
+
+import java.util.List;
+
+import javax.persistence.NonUniqueResultException;
+
+/**
+ * Query of an entity that is built once and executed many times.
+ * 
+ * Every execution receives a RSQL string with the same shape of the prepared 
+ * one as written (same selectors, operators and number of values) and only 
+ * binds the new values and the pagination. The shape is not optimized, so 
+ * values that would collapse the rsql (like repeated ones) can be bound.
+ * 
+ * @author Antonio Rabelo
+ *
+ * @param <T>
+ */
+public interface PreparedEntityQuery<T> {
+
+	/**
+	 * Query a single result.
+	 * 
+	 * @param rsql     RSQL string with the same shape of the prepared one.
+	 * @return 		   A single result of the Entity.
+	 * @throws NonUniqueResultException 
+	 * 				   When there are more than one Entity.
+	 * @throws IllegalArgumentException
+	 * 				   When the rsql does not have the same shape of the prepared one.
+	 */
+	public T querySingle(String rsql);
+
+	/**
+	 * Query a page of entities.
+	 * 
+	 * @param rsql     RSQL string with the same shape of the prepared one.
+	 * @param page     Page number (starts with 1)
+	 * @param pageSize Page Size (starts with 1)
+	 * @return	       A page of All Entities that meets that condition.
+	 * @throws IllegalArgumentException
+	 * 				   When the rsql does not have the same shape of the prepared one.
+	 */
+	public List<T> queryWhere(String rsql, Integer page, Integer pageSize);
+}
@@ -0,0 +1,269 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LruCache.
+ * 
+ * Thread-safe, size-bounded cache that evicts the least recently used entry
+ * when it is full. Entries may also expire after a time to live. Keeps hit, 
+ * miss and eviction counters.
+ * 
+ * @author Antonio Rabelo
+ *
+ * @param <K> Key type.
+ * @param <V> Value type.
+ */
+public class LruCache<K, V> {
+
+	/**
+	 * Max number of entries.
+	 */
+	private final int maxSize;
+
+	/**
+	 * Time to live of the entries in nanoseconds, zero when they never expire.
+	 */
+	private final long timeToLive;
+
+	/**
+	 * Entries in access order (eldest first).
+	 */
+	private final Map<K, Entry<V>> entries;
+
+	/**
+	 * Hit counter.
+	 */
+	private final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * Miss counter.
+	 */
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Eviction counter.
+	 */
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param maxSize Max number of entries (starts with 1).
+	 */
+	public LruCache(int maxSize) {
+		this(maxSize, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param maxSize    Max number of entries (starts with 1).
+	 * @param timeToLive Time to live of the entries, zero when they never expire.
+	 * @param unit       Unit of the time to live.
+	 */
+	public LruCache(int maxSize, long timeToLive, TimeUnit unit) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Cache size must be a non-zero positive integer.");
+		}
+		if (timeToLive < 0) {
+			throw new IllegalArgumentException("Time to live must not be negative.");
+		}
+		this.maxSize = maxSize;
+		this.timeToLive = unit.toNanos(timeToLive);
+		this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+				boolean evict = size() > LruCache.this.maxSize;
+				if (evict) {
+					evictions.incrementAndGet();
+				}
+				return evict;
+			}
+		};
+	}
+
+	/**
+	 * Get a cached value.
+	 * 
+	 * @param key Key of the entry.
+	 * @return    The cached value or null if there is none.
+	 */
+	public V get(K key) {
+		V value = null;
+		synchronized (this.entries) {
+			Entry<V> entry = this.entries.get(key);
+			if (entry != null) {
+				if (entry.isExpired(System.nanoTime())) {
+					this.entries.remove(key);
+				} else {
+					value = entry.value;
+				}
+			}
+		}
+		if (value == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return value;
+	}
+
+	/**
+	 * Put a value into the cache, evicting the least recently used entry if needed.
+	 * 
+	 * @param key   Key of the entry.
+	 * @param value Value of the entry (not null).
+	 */
+	public void put(K key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Cannot cache null values.");
+		}
+		long expiration = (this.timeToLive == 0) ? 0 : System.nanoTime() + this.timeToLive;
+		synchronized (this.entries) {
+			this.entries.put(key, new Entry<V>(value, expiration));
+		}
+	}
+
+	/**
+	 * Remove an entry.
+	 * 
+	 * @param key Key of the entry.
+	 */
+	public void remove(K key) {
+		synchronized (this.entries) {
+			this.entries.remove(key);
+		}
+	}
+
+	/**
+	 * Remove all entries. Counters are kept.
+	 */
+	public void clear() {
+		synchronized (this.entries) {
+			this.entries.clear();
+		}
+	}
+
+	/**
+	 * Current number of entries.
+	 * 
+	 * @return Number of entries.
+	 */
+	public int size() {
+		synchronized (this.entries) {
+			return this.entries.size();
+		}
+	}
+
+	/**
+	 * Max number of entries.
+	 * 
+	 * @return Max size.
+	 */
+	public int getMaxSize() {
+		return this.maxSize;
+	}
+
+	/**
+	 * Time to live of the entries.
+	 * 
+	 * @param unit Unit of the time to live.
+	 * @return     Time to live, zero when the entries never expire.
+	 */
+	public long getTimeToLive(TimeUnit unit) {
+		return unit.convert(this.timeToLive, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Number of lookups that found a value.
+	 * 
+	 * @return Hit count.
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Number of lookups that did not find a value.
+	 * 
+	 * @return Miss count.
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Number of entries removed because the cache was full.
+	 * 
+	 * @return Eviction count.
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * Cached value and its expiration.
+	 */
+	private static final class Entry<V> {
+
+		/**
+		 * Cached value.
+		 */
+		private final V value;
+
+		/**
+		 * Expiration in System.nanoTime() terms, zero when it never expires.
+		 */
+		private final long expiration;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param value      Cached value.
+		 * @param expiration Expiration, zero when it never expires.
+		 */
+		private Entry(V value, long expiration) {
+			this.value = value;
+			this.expiration = expiration;
+		}
+
+		/**
+		 * Verifies if the entry is expired.
+		 * 
+		 * @param now Current System.nanoTime().
+		 * @return    true when expired.
+		 */
+		private boolean isExpired(long now) {
+			return this.expiration != 0 && now - this.expiration >= 0;
+		}
+	}
+}
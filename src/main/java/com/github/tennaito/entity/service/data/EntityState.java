@@ -87,6 +87,17 @@ public class EntityState implements Serializable {
 		return (T)properties.get(name);
 	}
 	
+	/**
+	 * Verifies if the state has a property, a projected state only has the 
+	 * selected properties.
+	 * 
+	 * @param name  Name of the property.
+	 * @return      true when the property is defined.
+	 */
+	public boolean contains(String name) {
+		return properties.containsKey(name);
+	}
+	
 	/**
 	 * Gets the original class type.
 	 * 
@@ -69,7 +69,8 @@ public class EntityStrategy<T> extends DefaultTransformation<T, EntityState> imp
 		Object     result = to;
 		BeanInfo info = Introspector.getBeanInfo(result.getClass());
         for (PropertyDescriptor pd : info.getPropertyDescriptors()) {
-        	if (pd.getWriteMethod() != null) {
+        	// properties out of a projected state are left unset
+        	if (pd.getWriteMethod() != null && state.contains(pd.getName())) {
         		pd.getWriteMethod().invoke(result, parseSiblings(state.get(pd.getName()), cache));
         	}
         }
@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.data;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * KeysetPage.
+ * 
+ * A page of a keyset (seek) pagination and the token to fetch the next one.
+ * 
+ * @author Antonio Rabelo
+ *
+ * @param <T> Entity type.
+ */
+public class KeysetPage<T> implements Serializable {
+
+	/**
+	 * SERIAL UID
+	 */
+	private static final long serialVersionUID = -4170417622618393214L;
+
+	/**
+	 * Items of the page.
+	 */
+	private final List<T> items;
+
+	/**
+	 * Opaque token of the next page, null when this is the last page.
+	 */
+	private final String continuationToken;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param items             Items of the page.
+	 * @param continuationToken Token of the next page, null when this is the last page.
+	 */
+	public KeysetPage(List<T> items, String continuationToken) {
+		this.items = items;
+		this.continuationToken = continuationToken;
+	}
+
+	/**
+	 * Items of the page.
+	 * 
+	 * @return Items of the page.
+	 */
+	public List<T> getItems() {
+		return this.items;
+	}
+
+	/**
+	 * Opaque token to be sent back to fetch the next page.
+	 * 
+	 * @return Token of the next page, null when this is the last page.
+	 */
+	public String getContinuationToken() {
+		return this.continuationToken;
+	}
+
+	/**
+	 * Verifies if there is a next page.
+	 * 
+	 * @return true if there is a next page.
+	 */
+	public boolean hasNext() {
+		return this.continuationToken != null;
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.data;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * PageResult.
+ * 
+ * A page of entities with the total of entities that meet the condition.
+ * 
+ * @author Antonio Rabelo
+ *
+ * @param <T> Entity type.
+ */
+public class PageResult<T> implements Serializable {
+
+	/**
+	 * SERIAL UID
+	 */
+	private static final long serialVersionUID = 2893476102318542519L;
+
+	/**
+	 * Items of the page.
+	 */
+	private final List<T> items;
+
+	/**
+	 * Total of entities, null when not counted.
+	 */
+	private final Long total;
+
+	/**
+	 * True when there is a next page.
+	 */
+	private final boolean next;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param items Items of the page.
+	 * @param total Total of entities, null when not counted.
+	 * @param next  True when there is a next page.
+	 */
+	public PageResult(List<T> items, Long total, boolean next) {
+		this.items = items;
+		this.total = total;
+		this.next = next;
+	}
+
+	/**
+	 * Items of the page.
+	 * 
+	 * @return Items of the page.
+	 */
+	public List<T> getItems() {
+		return this.items;
+	}
+
+	/**
+	 * Total of entities that meet the condition.
+	 * 
+	 * @return Total of entities, null when it was not counted.
+	 */
+	public Long getTotal() {
+		return this.total;
+	}
+
+	/**
+	 * Verifies if there is a next page.
+	 * 
+	 * @return true if there is a next page.
+	 */
+	public boolean hasNext() {
+		return this.next;
+	}
+}
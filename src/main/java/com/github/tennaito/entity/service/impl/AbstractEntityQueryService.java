@@ -23,11 +23,25 @@
  */
 package com.github.tennaito.entity.service.impl;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.EntityType;
 
+import com.github.tennaito.entity.service.CountStrategy;
+import com.github.tennaito.entity.service.EntityIterator;
 import com.github.tennaito.entity.service.EntityQueryService;
+import com.github.tennaito.entity.service.EssentialEntityQueryService;
+import com.github.tennaito.entity.service.cache.LruCache;
+import com.github.tennaito.entity.service.data.PageResult;
+import com.github.tennaito.entity.service.snippet.CriteriaSnippetFetchGraphDecorator;
 
 /**
  * AbstractEntityQueryService.
@@ -38,6 +52,32 @@ import com.github.tennaito.entity.service.EntityQueryService;
  */
 public abstract class AbstractEntityQueryService<T> implements EntityQueryService<T> {
 
+	/**
+	 * Default number of entities fetched by each chunk of a stream.
+	 */
+	public static final int DEFAULT_STREAM_CHUNK_SIZE = 500;
+	
+	/**
+	 * Default number of identifiers of each IN batch of a lookup by identifiers.
+	 */
+	public static final int DEFAULT_ID_BATCH_SIZE = 500;
+	
+	/**
+	 * Default size of the count cache of each EntityManagerFactory.
+	 */
+	public static final int DEFAULT_COUNT_CACHE_SIZE = 512;
+	
+	/**
+	 * Default time to live (seconds) of the count cache of each EntityManagerFactory.
+	 */
+	public static final long DEFAULT_COUNT_CACHE_TIME_TO_LIVE = 60;
+	
+	/**
+	 * Cached counts of each EntityManagerFactory, keyed by entity and normalized rsql.
+	 */
+	private static final Map<EntityManagerFactory, LruCache<String, Long>> FACTORY_COUNT_CACHES 
+		= Collections.synchronizedMap(new WeakHashMap<EntityManagerFactory, LruCache<String, Long>>());
+
 	/**
 	 * EntityManager instance.
 	 */
@@ -47,6 +87,51 @@ public abstract class AbstractEntityQueryService<T> implements EntityQueryServic
 	 * QueryConfiguration instance.
 	 */
 	private QueryConfiguration queryConfiguration;
+	
+	/**
+	 * When true the RSQL values are sent as bind parameters.
+	 */
+	private boolean bindParameters;
+	
+	/**
+	 * Number of entities fetched by each chunk of a stream.
+	 */
+	private int streamChunkSize = DEFAULT_STREAM_CHUNK_SIZE;
+	
+	/**
+	 * Cache of the CACHED counts, null for the cache of the EntityManagerFactory.
+	 */
+	private LruCache<String, Long> countCache;
+	
+	/**
+	 * Estimator of the ESTIMATED counts.
+	 */
+	private CountEstimator countEstimator;
+	
+	/**
+	 * Number of identifiers of each IN batch of a lookup by identifiers.
+	 */
+	private int idBatchSize = DEFAULT_ID_BATCH_SIZE;
+	
+	/**
+	 * Lookup of the entities already managed by the EntityManager.
+	 */
+	private ManagedEntityLookup managedEntityLookup = new DefaultManagedEntityLookup();
+	
+	/**
+	 * Hint of the fetch graph of the entity queries, null without graph.
+	 */
+	private String fetchGraphHint;
+	
+	/**
+	 * Depth limit of the fetch graph of the entity queries.
+	 */
+	private int fetchGraphDepth;
+	
+	/**
+	 * Instrumentation of the latency of each query phase.
+	 */
+	private QueryInstrumentation instrumentation = QueryInstrumentation.NONE;
 
 	/**
 	 * Constructor.
@@ -60,6 +145,14 @@ public abstract class AbstractEntityQueryService<T> implements EntityQueryServic
 		this.manager = manager;
 	}
 	
+	/**
+	 * Constructor for services that override getEntityManager() to provide 
+	 * the EntityManager of each call.
+	 */
+	protected AbstractEntityQueryService() {
+		this.manager = null;
+	}
+	
 	/**
 	 * Configure the EntityQueryService with some query configuration logic. 
 	 * 
@@ -71,6 +164,134 @@ public abstract class AbstractEntityQueryService<T> implements EntityQueryServic
 		return this;
 	}
 	
+	/**
+	 * Send the RSQL values as bind parameters instead of literals, so all the
+	 * filters with the same shape share one SQL statement (and execution plan).
+	 * 
+	 * @param bindParameters true to bind the RSQL values as parameters.
+	 * @return the owner object.
+	 */
+	public AbstractEntityQueryService<T> bindParameters(boolean bindParameters) {
+		this.bindParameters = bindParameters;
+		return this;
+	}
+	
+	/**
+	 * Number of entities fetched by each chunk of a stream.
+	 * 
+	 * @param streamChunkSize Chunk size (starts with 1).
+	 * @return the owner object.
+	 */
+	public AbstractEntityQueryService<T> streamChunkSize(int streamChunkSize) {
+		if (streamChunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be a non-zero positive integer.");
+		}
+		this.streamChunkSize = streamChunkSize;
+		return this;
+	}
+	
+	/**
+	 * Cache used by the CACHED counts, by default each EntityManagerFactory 
+	 * (persistence unit) has its own cache. Services of different factories 
+	 * only share a cache when it is given to all of them.
+	 * 
+	 * @param countCache Cache of the counts.
+	 * @return the owner object.
+	 */
+	public AbstractEntityQueryService<T> countCache(LruCache<String, Long> countCache) {
+		if (countCache == null) {
+			throw new IllegalArgumentException("Must define the count cache.");
+		}
+		this.countCache = countCache;
+		return this;
+	}
+	
+	/**
+	 * Estimator used by the ESTIMATED counts, without estimator they are exact.
+	 * 
+	 * @param countEstimator Count estimator.
+	 * @return the owner object.
+	 */
+	public AbstractEntityQueryService<T> countEstimator(CountEstimator countEstimator) {
+		this.countEstimator = countEstimator;
+		return this;
+	}
+	
+	/**
+	 * Number of identifiers of each IN batch of a lookup by identifiers.
+	 * 
+	 * @param idBatchSize Batch size (starts with 1).
+	 * @return the owner object.
+	 */
+	public AbstractEntityQueryService<T> idBatchSize(int idBatchSize) {
+		if (idBatchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be a non-zero positive integer.");
+		}
+		this.idBatchSize = idBatchSize;
+		return this;
+	}
+	
+	/**
+	 * Lookup of the entities already managed by the EntityManager, without 
+	 * lookup every entity of a lookup by identifiers is queried.
+	 * 
+	 * @param managedEntityLookup Managed entity lookup.
+	 * @return the owner object.
+	 */
+	public AbstractEntityQueryService<T> managedEntityLookup(ManagedEntityLookup managedEntityLookup) {
+		this.managedEntityLookup = managedEntityLookup;
+		return this;
+	}
+	
+	/**
+	 * Fetch the associations of the queried entities (without partial 
+	 * properties) up to a depth with an EntityGraph, usually the max depth 
+	 * of the converter of the results.
+	 * 
+	 * @param hint     CriteriaSnippetFetchGraphDecorator.FETCH_GRAPH or LOAD_GRAPH, null without graph.
+	 * @param maxDepth Depth limit (1 is the entity alone), 0 until an entity type repeats.
+	 * @return the owner object.
+	 */
+	public AbstractEntityQueryService<T> fetchGraph(String hint, int maxDepth) {
+		if (hint != null && !CriteriaSnippetFetchGraphDecorator.FETCH_GRAPH.equals(hint) && !CriteriaSnippetFetchGraphDecorator.LOAD_GRAPH.equals(hint)) {
+			throw new IllegalArgumentException("Hint must be " + CriteriaSnippetFetchGraphDecorator.FETCH_GRAPH + " or " + CriteriaSnippetFetchGraphDecorator.LOAD_GRAPH + ".");
+		}
+		if (maxDepth < 0) {
+			throw new IllegalArgumentException("Depth cannot be negative. Zero (0) means infinite, positive value means limitation.");
+		}
+		this.fetchGraphHint = hint;
+		this.fetchGraphDepth = maxDepth;
+		return this;
+	}
+	
+	/**
+	 * Defines the instrumentation of the latency of each query phase.
+	 * 
+	 * @param instrumentation Query instrumentation, null for none.
+	 * @return                This service.
+	 */
+	public AbstractEntityQueryService<T> instrumentation(QueryInstrumentation instrumentation) {
+		this.instrumentation = (instrumentation == null) ? QueryInstrumentation.NONE : instrumentation;
+		return this;
+	}
+	
+	/**
+	 * Returns the cache of counts used by default by the services of an EntityManagerFactory.
+	 * 
+	 * @param factory EntityManagerFactory as returned by the EntityManager of the services.
+	 * @return        Count cache of the factory.
+	 */
+	public static LruCache<String, Long> getCountCache(EntityManagerFactory factory) {
+		synchronized (FACTORY_COUNT_CACHES) {
+			LruCache<String, Long> cache = FACTORY_COUNT_CACHES.get(factory);
+			if (cache == null) {
+				cache = new LruCache<String, Long>(DEFAULT_COUNT_CACHE_SIZE, DEFAULT_COUNT_CACHE_TIME_TO_LIVE, TimeUnit.SECONDS);
+				FACTORY_COUNT_CACHES.put(factory, cache);
+			}
+			return cache;
+		}
+	}
+	
 	/**
 	 * Returns an instance of the EntityManager.
 	 * 
@@ -89,6 +310,104 @@ public abstract class AbstractEntityQueryService<T> implements EntityQueryServic
 		return this.queryConfiguration;
 	}
 	
+	/**
+	 * Returns if the RSQL values are sent as bind parameters.
+	 * 
+	 * @return true when the RSQL values are bind parameters.
+	 */
+	protected boolean isBindParameters() {
+		return this.bindParameters;
+	}
+	
+	/**
+	 * Returns the number of entities fetched by each chunk of a stream.
+	 * 
+	 * @return Chunk size.
+	 */
+	protected int getStreamChunkSize() {
+		return this.streamChunkSize;
+	}
+	
+	/**
+	 * Returns the cache of the CACHED counts.
+	 * 
+	 * @return Count cache.
+	 */
+	protected LruCache<String, Long> getCountCache() {
+		if (this.countCache == null) {
+			return getCountCache(getEntityManager().getEntityManagerFactory());
+		}
+		return this.countCache;
+	}
+	
+	/**
+	 * Returns the estimator of the ESTIMATED counts.
+	 * 
+	 * @return Count estimator, null when there is none.
+	 */
+	protected CountEstimator getCountEstimator() {
+		return this.countEstimator;
+	}
+	
+	/**
+	 * Returns the number of identifiers of each IN batch of a lookup by identifiers.
+	 * 
+	 * @return Batch size.
+	 */
+	protected int getIdBatchSize() {
+		return this.idBatchSize;
+	}
+	
+	/**
+	 * Returns the lookup of the entities already managed by the EntityManager.
+	 * 
+	 * @return Managed entity lookup, null when there is none.
+	 */
+	protected ManagedEntityLookup getManagedEntityLookup() {
+		return this.managedEntityLookup;
+	}
+	
+	/**
+	 * Returns the hint of the fetch graph of the entity queries.
+	 * 
+	 * @return Hint, null without graph.
+	 */
+	protected String getFetchGraphHint() {
+		return this.fetchGraphHint;
+	}
+	
+	/**
+	 * Returns the depth limit of the fetch graph of the entity queries.
+	 * 
+	 * @return Depth limit, 0 until an entity type repeats.
+	 */
+	protected int getFetchGraphDepth() {
+		return this.fetchGraphDepth;
+	}
+	
+	/**
+	 * Returns the instrumentation of the latency of each query phase.
+	 * 
+	 * @return Query instrumentation, QueryInstrumentation.NONE when not defined.
+	 */
+	protected QueryInstrumentation getInstrumentation() {
+		return this.instrumentation;
+	}
+	
+	/**
+	 * Returns the strategy of the counts without explicit strategy, chosen by 
+	 * a CountConfiguration or EXACT.
+	 * 
+	 * @return Count strategy.
+	 */
+	protected CountStrategy getCountStrategy() {
+		CountStrategy strategy = null;
+		if (this.queryConfiguration instanceof CountConfiguration) {
+			strategy = ((CountConfiguration)this.queryConfiguration).getCountStrategy();
+		}
+		return (strategy == null) ? CountStrategy.EXACT : strategy;
+	}
+	
 	/* (non-Javadoc)
 	 * @see com.github.tennaito.entity.service.EntityQueryService#querySingle(java.lang.Class)
 	 */
@@ -165,4 +484,113 @@ public abstract class AbstractEntityQueryService<T> implements EntityQueryServic
 	public List<T> queryWhere(Class<T> entity, String rsql, Integer page, Integer pageSize) {
 		return queryWhere(entity, null, rsql, page, pageSize);
 	}
+	
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EntityQueryService#queryPage(java.lang.Class, java.lang.String, java.lang.Integer, java.lang.Integer)
+	 */
+	public PageResult<T> queryPage(Class<T> entity, String rsql, Integer page, Integer pageSize) {
+		return queryPage(entity, null, rsql, page, pageSize, true);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EntityQueryService#facetWhere(java.lang.Class, java.lang.String, java.util.List, java.lang.Integer)
+	 */
+	public Map<String, Map<Object, Long>> facetWhere(Class<T> entity, String rsql, List<String> properties, Integer limit) {
+		return facets(this, entity, rsql, properties, limit);
+	}
+
+	/**
+	 * Count the facets of each property, one after the other.
+	 * 
+	 * @param service    Service that counts the facets of a property.
+	 * @param entity     Entity class type.
+	 * @param rsql       RSQL string.
+	 * @param properties Properties of the facets.
+	 * @param limit      Max number of values of each facet, null for all.
+	 * @return           Facets keyed by the properties, in their order.
+	 */
+	static <T> Map<String, Map<Object, Long>> facets(EssentialEntityQueryService<T> service, Class<T> entity, String rsql, List<String> properties, Integer limit) {
+		if (properties == null) {
+			throw new IllegalArgumentException("Must define the properties of the facets.");
+		}
+		Map<String, Map<Object, Long>> facets = new LinkedHashMap<String, Map<Object, Long>>();
+		for (String property : properties) {
+			facets.put(property, service.facetWhere(entity, rsql, property, limit));
+		}
+		return facets;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EntityQueryService#streamWhere(java.lang.Class, java.util.List, java.lang.String)
+	 */
+	public EntityIterator<T> streamWhere(Class<T> entity, List<String> properties, String rsql) {
+		if (entity == null) {
+			throw new IllegalArgumentException("Entity must be defined.");
+		}
+		String idProperty = getIdProperty(entity);
+		List<String> selection = properties;
+		if (properties != null && !properties.contains(idProperty)) {
+			// chunks are sought by identifier, so it must be selected
+			selection = new ArrayList<String>(properties);
+			selection.add(idProperty);
+		}
+		EntityManager manager = createStreamEntityManager();
+		EssentialEntityQueryService<T> service = (manager == null) ? this : createService(manager);
+		return new ChunkedEntityIterator<T>(service, manager, entity, selection, rsql, idProperty, getStreamChunkSize());
+	}
+	
+	/**
+	 * Returns the identifier property of an entity.
+	 * 
+	 * @param entity Entity class type.
+	 * @return       Name of the identifier property.
+	 */
+	protected String getIdProperty(Class<T> entity) {
+		EntityType<T> type = getEntityManager().getMetamodel().entity(entity);
+		return type.getId(type.getIdType().getJavaType()).getName();
+	}
+	
+	/**
+	 * Creates the EntityManager dedicated to a stream, so clearing it never 
+	 * detaches the entities loaded by the caller.
+	 * 
+	 * @return EntityManager instance, null when each chunk is fetched by its own EntityManager.
+	 */
+	protected EntityManager createStreamEntityManager() {
+		return getEntityManager().getEntityManagerFactory().createEntityManager();
+	}
+	
+	/**
+	 * Creates a service with the settings of this one bound to another 
+	 * EntityManager. Services that stream on a dedicated EntityManager 
+	 * (see createStreamEntityManager) must implement it.
+	 * 
+	 * @param manager An instance of the EntityManager.
+	 * @return        Service bound to the EntityManager.
+	 * @throws IllegalStateException 
+	 *                When the service cannot be bound to another EntityManager.
+	 */
+	protected AbstractEntityQueryService<T> createService(EntityManager manager) {
+		throw new IllegalStateException(getClass().getName() + " cannot be bound to another EntityManager, it must implement createService.");
+	}
+	
+	/**
+	 * Copy the settings of this service into another one.
+	 * 
+	 * @param service Service that receives the settings.
+	 * @return        The service.
+	 */
+	protected AbstractEntityQueryService<T> copySettings(AbstractEntityQueryService<T> service) {
+		service.queryConfiguration = this.queryConfiguration;
+		service.bindParameters = this.bindParameters;
+		service.streamChunkSize = this.streamChunkSize;
+		service.countCache = this.countCache;
+		service.countEstimator = this.countEstimator;
+		service.idBatchSize = this.idBatchSize;
+		service.managedEntityLookup = this.managedEntityLookup;
+		service.fetchGraphHint = this.fetchGraphHint;
+		service.fetchGraphDepth = this.fetchGraphDepth;
+		service.instrumentation = this.instrumentation;
+		return service;
+	}
 }
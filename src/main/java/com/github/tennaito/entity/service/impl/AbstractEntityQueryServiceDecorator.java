@@ -0,0 +1,310 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.Tuple;
+
+import com.github.tennaito.entity.service.Aggregate;
+import com.github.tennaito.entity.service.CountStrategy;
+import com.github.tennaito.entity.service.EntityIterator;
+import com.github.tennaito.entity.service.EntityQueryService;
+import com.github.tennaito.entity.service.data.EntityState;
+import com.github.tennaito.entity.service.data.KeysetPage;
+import com.github.tennaito.entity.service.data.PageResult;
+import com.github.tennaito.entity.service.rsql.RsqlCanonicalizer;
+import com.github.tennaito.entity.service.snippet.CriteriaSnippetWhereRsqlDecorator;
+
+import cz.jirutka.rsql.parser.ast.Node;
+
+/**
+ * AbstractEntityQueryServiceDecorator.
+ * 
+ * Template of the services that add behavior to another service. The 
+ * essential operations are delegated and all the derived operations are 
+ * routed to the essential operations of the decorator, so overriding an 
+ * essential operation decorates all its derived ones.
+ * 
+ * @author Antonio Rabelo
+ */
+public abstract class AbstractEntityQueryServiceDecorator<T> implements EntityQueryService<T> {
+
+	/**
+	 * Decorated service.
+	 */
+	private final EntityQueryService<T> service;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param service Service to be decorated.
+	 */
+	public AbstractEntityQueryServiceDecorator(EntityQueryService<T> service) {
+		if (service == null) {
+			throw new IllegalArgumentException("Must define the decorated service.");
+		}
+		this.service = service;
+	}
+
+	/**
+	 * Returns the decorated service.
+	 * 
+	 * @return Decorated service.
+	 */
+	protected EntityQueryService<T> getService() {
+		return this.service;
+	}
+
+	/**
+	 * Key of a call, the operation and all its arguments.
+	 * 
+	 * @param operation Operation name.
+	 * @param entity    Entity class type.
+	 * @param arguments Arguments of the operation.
+	 * @return          Key of the call.
+	 */
+	protected String key(String operation, Class<T> entity, Object... arguments) {
+		StringBuilder key = new StringBuilder(operation).append('|').append((entity == null) ? null : entity.getName());
+		for (Object argument : arguments) {
+			// length prefixed, so no argument can forge the key of another
+			String value = String.valueOf(argument);
+			key.append('|').append(value.length()).append(':').append(value);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Canonical form of a rsql, the same for equivalent spellings.
+	 * 
+	 * @param rsql RSQL string.
+	 * @return     Canonical RSQL, null when there is no condition.
+	 */
+	protected String canonical(String rsql) {
+		Node node = new CriteriaSnippetWhereRsqlDecorator<T, T>(rsql, null).getNode();
+		return (node == null) ? null : RsqlCanonicalizer.toRsql(node);
+	}
+
+	/**
+	 * Canonical form of a list of rsql.
+	 * 
+	 * @param rsqls RSQL strings.
+	 * @return      Canonical RSQL strings, null when there is no list.
+	 */
+	protected List<String> canonical(List<String> rsqls) {
+		if (rsqls == null) {
+			return null;
+		}
+		List<String> canonical = new ArrayList<String>(rsqls.size());
+		for (String rsql : rsqls) {
+			canonical.add(canonical(rsql));
+		}
+		return canonical;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#countWhere(java.lang.Class, java.lang.String)
+	 */
+	public long countWhere(Class<T> entity, String rsql) {
+		return countWhere(entity, rsql, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#countWhere(java.lang.Class, java.lang.String, com.github.tennaito.entity.service.CountStrategy)
+	 */
+	public long countWhere(Class<T> entity, String rsql, CountStrategy strategy) {
+		return this.service.countWhere(entity, rsql, strategy);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#countWhereMulti(java.lang.Class, java.util.List)
+	 */
+	public List<Long> countWhereMulti(Class<T> entity, List<String> rsqls) {
+		return this.service.countWhereMulti(entity, rsqls);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#facetWhere(java.lang.Class, java.lang.String, java.lang.String, java.lang.Integer)
+	 */
+	public Map<Object, Long> facetWhere(Class<T> entity, String rsql, String property, Integer limit) {
+		return this.service.facetWhere(entity, rsql, property, limit);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#existsWhere(java.lang.Class, java.lang.String)
+	 */
+	public boolean existsWhere(Class<T> entity, String rsql) {
+		return this.service.existsWhere(entity, rsql);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#querySingle(java.lang.Class, java.util.List, java.lang.String)
+	 */
+	public T querySingle(Class<T> entity, List<String> properties, String rsql) {
+		return this.service.querySingle(entity, properties, rsql);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#queryWhere(java.lang.Class, java.util.List, java.lang.String, java.lang.Integer, java.lang.Integer)
+	 */
+	public List<T> queryWhere(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize) {
+		return this.service.queryWhere(entity, properties, rsql, page, pageSize);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#queryStates(java.lang.Class, java.util.List, java.lang.String, java.lang.Integer, java.lang.Integer)
+	 */
+	public List<EntityState> queryStates(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize) {
+		return this.service.queryStates(entity, properties, rsql, page, pageSize);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#findAllByIds(java.lang.Class, java.util.Collection, java.util.List)
+	 */
+	public List<T> findAllByIds(Class<T> entity, Collection<?> ids, List<String> properties) {
+		return this.service.findAllByIds(entity, ids, properties);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#queryWhere(java.lang.Class, java.util.List, java.lang.String, java.lang.String, java.lang.String, java.lang.Integer)
+	 */
+	public KeysetPage<T> queryWhere(Class<T> entity, List<String> properties, String rsql, String sortKey, String continuationToken, Integer pageSize) {
+		return this.service.queryWhere(entity, properties, rsql, sortKey, continuationToken, pageSize);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#queryPage(java.lang.Class, java.util.List, java.lang.String, java.lang.Integer, java.lang.Integer, boolean)
+	 */
+	public PageResult<T> queryPage(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize, boolean countTotal) {
+		return this.service.queryPage(entity, properties, rsql, page, pageSize, countTotal);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#aggregateWhere(java.lang.Class, java.lang.String, java.util.List, java.util.List)
+	 */
+	public List<Tuple> aggregateWhere(Class<T> entity, String rsql, List<String> groupBy, List<Aggregate> aggregates) {
+		return this.service.aggregateWhere(entity, rsql, groupBy, aggregates);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EntityQueryService#streamWhere(java.lang.Class, java.util.List, java.lang.String)
+	 */
+	public EntityIterator<T> streamWhere(Class<T> entity, List<String> properties, String rsql) {
+		return this.service.streamWhere(entity, properties, rsql);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EntityQueryService#count(java.lang.Class)
+	 */
+	public long count(Class<T> entity) {
+		return countWhere(entity, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EntityQueryService#querySingle(java.lang.Class)
+	 */
+	public T querySingle(Class<T> entity) {
+		return querySingle(entity, null, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EntityQueryService#querySingle(java.lang.Class, java.lang.String)
+	 */
+	public T querySingle(Class<T> entity, String rsql) {
+		return querySingle(entity, null, rsql);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EntityQueryService#querySingle(java.lang.Class, java.util.List)
+	 */
+	public T querySingle(Class<T> entity, List<String> properties) {
+		return querySingle(entity, properties, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EntityQueryService#queryPartial(java.lang.Class, java.util.List)
+	 */
+	public List<T> queryPartial(Class<T> entity, List<String> properties) {
+		return queryWhere(entity, properties, null, null, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EntityQueryService#queryPartial(java.lang.Class, java.util.List, java.lang.Integer, java.lang.Integer)
+	 */
+	public List<T> queryPartial(Class<T> entity, List<String> properties, Integer page, Integer pageSize) {
+		return queryWhere(entity, properties, null, page, pageSize);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EntityQueryService#queryAll(java.lang.Class)
+	 */
+	public List<T> queryAll(Class<T> entity) {
+		return queryWhere(entity, null, null, null, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EntityQueryService#queryAll(java.lang.Class, java.lang.Integer, java.lang.Integer)
+	 */
+	public List<T> queryAll(Class<T> entity, Integer page, Integer pageSize) {
+		return queryWhere(entity, null, null, page, pageSize);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EntityQueryService#queryWhere(java.lang.Class, java.lang.String)
+	 */
+	public List<T> queryWhere(Class<T> entity, String rsql) {
+		return queryWhere(entity, null, rsql, null, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EntityQueryService#queryWhere(java.lang.Class, java.util.List, java.lang.String)
+	 */
+	public List<T> queryWhere(Class<T> entity, List<String> properties, String rsql) {
+		return queryWhere(entity, properties, rsql, null, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EntityQueryService#queryWhere(java.lang.Class, java.lang.String, java.lang.Integer, java.lang.Integer)
+	 */
+	public List<T> queryWhere(Class<T> entity, String rsql, Integer page, Integer pageSize) {
+		return queryWhere(entity, null, rsql, page, pageSize);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EntityQueryService#queryPage(java.lang.Class, java.lang.String, java.lang.Integer, java.lang.Integer)
+	 */
+	public PageResult<T> queryPage(Class<T> entity, String rsql, Integer page, Integer pageSize) {
+		return queryPage(entity, null, rsql, page, pageSize, true);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EntityQueryService#facetWhere(java.lang.Class, java.lang.String, java.util.List, java.lang.Integer)
+	 */
+	public Map<String, Map<Object, Long>> facetWhere(Class<T> entity, String rsql, List<String> properties, Integer limit) {
+		return AbstractEntityQueryService.facets(this, entity, rsql, properties, limit);
+	}
+}
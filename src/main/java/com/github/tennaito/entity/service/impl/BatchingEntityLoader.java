@@ -0,0 +1,303 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.github.tennaito.entity.service.EssentialEntityQueryService;
+
+/**
+ * BatchingEntityLoader.
+ * 
+ * Loads single entities by identifier in batches: the lookups issued before 
+ * a dispatch are sent as one IN query (findAllByIds) and each caller gets 
+ * its own entity, so resolving N parents costs one query instead of N. The 
+ * batch is dispatched by an explicit dispatch() (the end of a tick), when 
+ * it reaches the max batch size or, with a window, when the window of its 
+ * first lookup elapses.
+ * 
+ * Every identifier is loaded once (memoized) for the life of the loader, 
+ * so a loader must live no longer than a request. A batch runs in the 
+ * thread that dispatches it, windowed batches need a thread-safe service 
+ * (like the ConcurrentEntityQueryService).
+ * 
+ * @author Antonio Rabelo
+ */
+public class BatchingEntityLoader<T> {
+
+	/**
+	 * Default max number of identifiers of a batch.
+	 */
+	public static final int DEFAULT_MAX_BATCH_SIZE = 500;
+
+	/**
+	 * Service that executes the batch queries.
+	 */
+	private final EssentialEntityQueryService<T> service;
+
+	/**
+	 * Type of the Entity.
+	 */
+	private final Class<T> entity;
+
+	/**
+	 * Reads the identifier of a loaded entity.
+	 */
+	private final Function<T, ?> identifier;
+
+	/**
+	 * List of the properties (data) to be returned, null for all.
+	 */
+	private List<String> properties;
+
+	/**
+	 * Max number of identifiers of a batch.
+	 */
+	private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+	/**
+	 * Scheduler of the windowed dispatches, null without window.
+	 */
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Window (milliseconds) of a batch.
+	 */
+	private long window;
+
+	/**
+	 * Loads by identifier, memoized.
+	 */
+	private final Map<String, CompletableFuture<T>> loads = new HashMap<String, CompletableFuture<T>>();
+
+	/**
+	 * Identifiers waiting for the next dispatch, by their text.
+	 */
+	private Map<String, Object> pending = new LinkedHashMap<String, Object>();
+
+	/**
+	 * Number of batches dispatched.
+	 */
+	private long batches;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param service    Service that executes the batch queries.
+	 * @param entity     Type of the Entity.
+	 * @param identifier Reads the identifier of a loaded entity (like Item::getId).
+	 */
+	public BatchingEntityLoader(EssentialEntityQueryService<T> service, Class<T> entity, Function<T, ?> identifier) {
+		if (service == null || entity == null || identifier == null) {
+			throw new IllegalArgumentException("Must define the service, the entity and its identifier.");
+		}
+		this.service = service;
+		this.entity = entity;
+		this.identifier = identifier;
+	}
+
+	/**
+	 * Properties (data) of the loaded entities, must contain the identifier.
+	 * 
+	 * @param properties List of the properties, null for all.
+	 * @return the owner object.
+	 */
+	public BatchingEntityLoader<T> properties(List<String> properties) {
+		this.properties = properties;
+		return this;
+	}
+
+	/**
+	 * Max number of identifiers of a batch, a full batch is dispatched at once.
+	 * 
+	 * @param maxBatchSize Batch size (starts with 1).
+	 * @return the owner object.
+	 */
+	public BatchingEntityLoader<T> maxBatchSize(int maxBatchSize) {
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be a non-zero positive integer.");
+		}
+		this.maxBatchSize = maxBatchSize;
+		return this;
+	}
+
+	/**
+	 * Dispatch each batch when a window elapses after its first lookup.
+	 * 
+	 * @param window    Window (starts with 1).
+	 * @param unit      Unit of the window.
+	 * @param scheduler Scheduler of the dispatches.
+	 * @return the owner object.
+	 */
+	public BatchingEntityLoader<T> window(long window, TimeUnit unit, ScheduledExecutorService scheduler) {
+		if (window < 1 || unit == null || scheduler == null) {
+			throw new IllegalArgumentException("Must define a non-zero positive window and its scheduler.");
+		}
+		this.window = unit.toMillis(window);
+		this.scheduler = scheduler;
+		return this;
+	}
+
+	/**
+	 * Load an entity by identifier.
+	 * 
+	 * @param id Identifier of the entity.
+	 * @return   Entity loaded by the next dispatch, completed with null when it is not found.
+	 */
+	public CompletableFuture<T> load(Object id) {
+		if (id == null) {
+			throw new IllegalArgumentException("Identifier must not be null.");
+		}
+		String key = String.valueOf(id);
+		CompletableFuture<T> load;
+		boolean full = false;
+		boolean first = false;
+		synchronized (this) {
+			load = this.loads.get(key);
+			if (load == null) {
+				load = new CompletableFuture<T>();
+				this.loads.put(key, load);
+				first = this.pending.isEmpty();
+				this.pending.put(key, id);
+				full = this.pending.size() >= this.maxBatchSize;
+			}
+		}
+		if (full) {
+			dispatch();
+		} else if (first && this.scheduler != null) {
+			this.scheduler.schedule(() -> dispatch(), this.window, TimeUnit.MILLISECONDS);
+		}
+		return load;
+	}
+
+	/**
+	 * Load many entities by identifier.
+	 * 
+	 * @param ids Identifiers of the entities.
+	 * @return    Entities in the order of the identifiers, null for the ones not found.
+	 */
+	public CompletableFuture<List<T>> loadMany(Collection<?> ids) {
+		if (ids == null) {
+			throw new IllegalArgumentException("Must define the identifiers.");
+		}
+		List<CompletableFuture<T>> loads = new ArrayList<CompletableFuture<T>>(ids.size());
+		for (Object id : ids) {
+			loads.add(load(id));
+		}
+		return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[loads.size()])).thenApply(done -> {
+			List<T> results = new ArrayList<T>(loads.size());
+			for (CompletableFuture<T> load : loads) {
+				results.add(load.join());
+			}
+			return results;
+		});
+	}
+
+	/**
+	 * Send the waiting lookups as batches of IN queries and complete them.
+	 */
+	public void dispatch() {
+		List<Object> ids;
+		List<CompletableFuture<T>> loads = new ArrayList<CompletableFuture<T>>();
+		synchronized (this) {
+			ids = new ArrayList<Object>(this.pending.values());
+			for (String key : this.pending.keySet()) {
+				loads.add(this.loads.get(key));
+			}
+			this.pending = new LinkedHashMap<String, Object>();
+		}
+		for (int from = 0; from < ids.size(); from += this.maxBatchSize) {
+			int to = Math.min(from + this.maxBatchSize, ids.size());
+			execute(ids.subList(from, to), loads.subList(from, to));
+		}
+	}
+
+	/**
+	 * Forget a loaded entity, the next lookup queries it again.
+	 * 
+	 * @param id Identifier of the entity.
+	 */
+	public synchronized void clear(Object id) {
+		String key = String.valueOf(id);
+		if (!this.pending.containsKey(key)) {
+			this.loads.remove(key);
+		}
+	}
+
+	/**
+	 * Forget all the loaded entities.
+	 */
+	public synchronized void clearAll() {
+		this.loads.keySet().retainAll(this.pending.keySet());
+	}
+
+	/**
+	 * Number of batches (queries) dispatched.
+	 * 
+	 * @return Batch count.
+	 */
+	public synchronized long getBatchCount() {
+		return this.batches;
+	}
+
+	/**
+	 * Query a batch and complete its lookups.
+	 * 
+	 * @param ids   Identifiers of the batch.
+	 * @param loads Lookups of each identifier.
+	 */
+	private void execute(List<Object> ids, List<CompletableFuture<T>> loads) {
+		synchronized (this) {
+			this.batches++;
+		}
+		try {
+			Map<String, T> found = new HashMap<String, T>();
+			for (T result : this.service.findAllByIds(this.entity, ids, this.properties)) {
+				found.put(String.valueOf(this.identifier.apply(result)), result);
+			}
+			for (int i = 0; i < ids.size(); i++) {
+				loads.get(i).complete(found.get(String.valueOf(ids.get(i))));
+			}
+		} catch (RuntimeException e) {
+			synchronized (this) {
+				// failed lookups are not memoized, so they can be retried
+				for (int i = 0; i < ids.size(); i++) {
+					this.loads.remove(String.valueOf(ids.get(i)), loads.get(i));
+				}
+			}
+			for (CompletableFuture<T> load : loads) {
+				load.completeExceptionally(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,334 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.Tuple;
+
+import com.github.tennaito.entity.service.Aggregate;
+import com.github.tennaito.entity.service.CountStrategy;
+import com.github.tennaito.entity.service.EntityQueryService;
+import com.github.tennaito.entity.service.cache.LruCache;
+import com.github.tennaito.entity.service.data.DefaultEntityStateConverter;
+import com.github.tennaito.entity.service.data.EntityState;
+import com.github.tennaito.entity.service.data.EntityStateConverter;
+import com.github.tennaito.entity.service.data.PageResult;
+
+/**
+ * CachingEntityQueryService.
+ * 
+ * Result cache in front of another service for entities that rarely change. 
+ * Results are kept as EntityState snapshots and every read gets new entity 
+ * instances, so callers cannot change the cached data. Entries are evicted 
+ * by size (least recently used) and time to live, and all the entries of an 
+ * entity class are dropped by invalidate.
+ * 
+ * Keyset pages and streams are not cached.
+ * 
+ * @author Antonio Rabelo
+ */
+public class CachingEntityQueryService<T> extends AbstractEntityQueryServiceDecorator<T> {
+
+	/**
+	 * Cached results.
+	 */
+	private final LruCache<String, Object> cache;
+
+	/**
+	 * Max depth of the snapshots (zero means infinite).
+	 */
+	private final int maxDepth;
+
+	/**
+	 * Generation of the entries of each entity class, invalidation starts a new one.
+	 */
+	private final Map<Class<?>, AtomicLong> generations = new ConcurrentHashMap<Class<?>, AtomicLong>();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param service    Service to be decorated.
+	 * @param maxSize    Max number of cached results (starts with 1).
+	 * @param timeToLive Time to live of the cached results, zero when they never expire.
+	 * @param unit       Unit of the time to live.
+	 */
+	public CachingEntityQueryService(EntityQueryService<T> service, int maxSize, long timeToLive, TimeUnit unit) {
+		this(service, new LruCache<String, Object>(maxSize, timeToLive, unit), 0);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param service  Service to be decorated.
+	 * @param cache    Cache of the results.
+	 * @param maxDepth Max depth of the snapshots of the entity graph (zero means infinite).
+	 */
+	public CachingEntityQueryService(EntityQueryService<T> service, LruCache<String, Object> cache, int maxDepth) {
+		super(service);
+		if (cache == null) {
+			throw new IllegalArgumentException("Must define the result cache.");
+		}
+		if (maxDepth < 0) {
+			throw new IllegalArgumentException("Snapshot depth cannot be negative.");
+		}
+		this.cache = cache;
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Returns the cache of the results.
+	 * 
+	 * @return Result cache.
+	 */
+	public LruCache<String, Object> getCache() {
+		return this.cache;
+	}
+
+	/**
+	 * Drop all the cached results of an entity class.
+	 * 
+	 * @param entity Entity class type.
+	 */
+	public void invalidate(Class<?> entity) {
+		// the old entries are unreachable and leave the cache by size or time
+		generation(entity).incrementAndGet();
+	}
+
+	/**
+	 * Drop all the cached results.
+	 */
+	public void invalidateAll() {
+		this.cache.clear();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#countWhere(java.lang.Class, java.lang.String, com.github.tennaito.entity.service.CountStrategy)
+	 */
+	@Override
+	public long countWhere(Class<T> entity, String rsql, CountStrategy strategy) {
+		String key = resultKey("countWhere", entity, null, rsql, strategy);
+		Long count = (Long)this.cache.get(key);
+		if (count == null) {
+			count = super.countWhere(entity, rsql, strategy);
+			this.cache.put(key, count);
+		}
+		return count;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#countWhereMulti(java.lang.Class, java.util.List)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Long> countWhereMulti(Class<T> entity, List<String> rsqls) {
+		String key = resultKey("countWhereMulti", entity, null, null, canonical(rsqls));
+		List<Long> counts = (List<Long>)this.cache.get(key);
+		if (counts == null) {
+			counts = new ArrayList<Long>(super.countWhereMulti(entity, rsqls));
+			this.cache.put(key, counts);
+		}
+		return new ArrayList<Long>(counts);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#facetWhere(java.lang.Class, java.lang.String, java.lang.String, java.lang.Integer)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public Map<Object, Long> facetWhere(Class<T> entity, String rsql, String property, Integer limit) {
+		String key = resultKey("facetWhere", entity, null, rsql, property, limit);
+		Map<Object, Long> counts = (Map<Object, Long>)this.cache.get(key);
+		if (counts == null) {
+			counts = new LinkedHashMap<Object, Long>(super.facetWhere(entity, rsql, property, limit));
+			this.cache.put(key, counts);
+		}
+		return new LinkedHashMap<Object, Long>(counts);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#existsWhere(java.lang.Class, java.lang.String)
+	 */
+	@Override
+	public boolean existsWhere(Class<T> entity, String rsql) {
+		String key = resultKey("existsWhere", entity, null, rsql);
+		Boolean exists = (Boolean)this.cache.get(key);
+		if (exists == null) {
+			exists = super.existsWhere(entity, rsql);
+			this.cache.put(key, exists);
+		}
+		return exists;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#querySingle(java.lang.Class, java.util.List, java.lang.String)
+	 */
+	@Override
+	public T querySingle(Class<T> entity, List<String> properties, String rsql) {
+		String key = resultKey("querySingle", entity, properties, rsql);
+		EntityState state = (EntityState)this.cache.get(key);
+		if (state == null) {
+			T result = super.querySingle(entity, properties, rsql);
+			state = createConverter().createState(result);
+			this.cache.put(key, state);
+		}
+		return createConverter().createEntity(state);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#queryWhere(java.lang.Class, java.util.List, java.lang.String, java.lang.Integer, java.lang.Integer)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<T> queryWhere(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize) {
+		String key = resultKey("queryWhere", entity, properties, rsql, page, pageSize);
+		List<EntityState> states = (List<EntityState>)this.cache.get(key);
+		if (states == null) {
+			states = snapshot(super.queryWhere(entity, properties, rsql, page, pageSize));
+			this.cache.put(key, states);
+		}
+		return restore(states);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#findAllByIds(java.lang.Class, java.util.Collection, java.util.List)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<T> findAllByIds(Class<T> entity, Collection<?> ids, List<String> properties) {
+		String key = resultKey("findAllByIds", entity, properties, null, ids);
+		List<EntityState> states = (List<EntityState>)this.cache.get(key);
+		if (states == null) {
+			states = snapshot(super.findAllByIds(entity, ids, properties));
+			this.cache.put(key, states);
+		}
+		return restore(states);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#queryPage(java.lang.Class, java.util.List, java.lang.String, java.lang.Integer, java.lang.Integer, boolean)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public PageResult<T> queryPage(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize, boolean countTotal) {
+		String key = resultKey("queryPage", entity, properties, rsql, page, pageSize, countTotal);
+		PageResult<EntityState> states = (PageResult<EntityState>)this.cache.get(key);
+		if (states == null) {
+			PageResult<T> result = super.queryPage(entity, properties, rsql, page, pageSize, countTotal);
+			states = new PageResult<EntityState>(snapshot(result.getItems()), result.getTotal(), result.hasNext());
+			this.cache.put(key, states);
+		}
+		return new PageResult<T>(restore(states.getItems()), states.getTotal(), states.hasNext());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#aggregateWhere(java.lang.Class, java.lang.String, java.util.List, java.util.List)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Tuple> aggregateWhere(Class<T> entity, String rsql, List<String> groupBy, List<Aggregate> aggregates) {
+		String key = resultKey("aggregateWhere", entity, null, rsql, groupBy, aggregates);
+		List<Tuple> tuples = (List<Tuple>)this.cache.get(key);
+		if (tuples == null) {
+			// tuples hold values, not entities, and are shared as they are
+			tuples = new ArrayList<Tuple>(super.aggregateWhere(entity, rsql, groupBy, aggregates));
+			this.cache.put(key, tuples);
+		}
+		return new ArrayList<Tuple>(tuples);
+	}
+
+	/**
+	 * Create the converter of the snapshots, the transformations keep state 
+	 * and each conversion has its own converter.
+	 * 
+	 * @return Snapshot converter.
+	 */
+	protected EntityStateConverter<T> createConverter() {
+		return new DefaultEntityStateConverter<T>(this.maxDepth);
+	}
+
+	/**
+	 * Key of a result: operation, entity generation, properties, canonical rsql and arguments.
+	 * 
+	 * @param operation  Operation name.
+	 * @param entity     Entity class type.
+	 * @param properties List of the properties (data) returned.
+	 * @param rsql       RSQL string.
+	 * @param arguments  Other arguments of the operation.
+	 * @return           Key of the result.
+	 */
+	protected String resultKey(String operation, Class<T> entity, List<String> properties, String rsql, Object... arguments) {
+		if (entity == null) {
+			throw new IllegalArgumentException("Entity must be defined.");
+		}
+		Object[] values = new Object[arguments.length + 3];
+		values[0] = generation(entity).get();
+		values[1] = properties;
+		values[2] = canonical(rsql);
+		System.arraycopy(arguments, 0, values, 3, arguments.length);
+		return key(operation, entity, values);
+	}
+
+	/**
+	 * Generation of the entries of an entity class.
+	 * 
+	 * @param entity Entity class type.
+	 * @return       Current generation.
+	 */
+	private AtomicLong generation(Class<?> entity) {
+		AtomicLong generation = this.generations.get(entity);
+		if (generation == null) {
+			this.generations.putIfAbsent(entity, new AtomicLong());
+			generation = this.generations.get(entity);
+		}
+		return generation;
+	}
+
+	/**
+	 * Snapshot of a list of entities.
+	 * 
+	 * @param entities List of entities.
+	 * @return         List of snapshots.
+	 */
+	private List<EntityState> snapshot(List<T> entities) {
+		return new ArrayList<EntityState>(createConverter().createStateList(entities));
+	}
+
+	/**
+	 * New entities from a list of snapshots.
+	 * 
+	 * @param states List of snapshots.
+	 * @return       List of new entities.
+	 */
+	private List<T> restore(List<EntityState> states) {
+		return new ArrayList<T>(createConverter().createEntityList(states));
+	}
+}
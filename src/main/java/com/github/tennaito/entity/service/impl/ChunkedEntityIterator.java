@@ -0,0 +1,201 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.impl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.persistence.EntityManager;
+
+import com.github.tennaito.entity.service.EntityIterator;
+import com.github.tennaito.entity.service.EssentialEntityQueryService;
+import com.github.tennaito.entity.service.data.KeysetPage;
+
+/**
+ * ChunkedEntityIterator.
+ * 
+ * Fetches the entities in chunks with keyset pagination by identifier, so 
+ * every chunk costs the same. The chunks are fetched by an EntityManager 
+ * dedicated to the iteration, cleared before each chunk and closed with 
+ * the iterator, so the entities the caller loaded in its own EntityManager 
+ * are never detached. Only one chunk is referenced at a time and the heap 
+ * stays flat for any number of rows.
+ * 
+ * @author Antonio Rabelo
+ */
+public class ChunkedEntityIterator<T> implements EntityIterator<T> {
+
+	/**
+	 * Service that executes the chunk queries.
+	 */
+	private final EssentialEntityQueryService<T> service;
+
+	/**
+	 * EntityManager dedicated to the iteration, null when the chunks are already detached.
+	 */
+	private final EntityManager manager;
+
+	/**
+	 * Type of the Entity.
+	 */
+	private final Class<T> entity;
+
+	/**
+	 * List of the properties (data) to be returned.
+	 */
+	private final List<String> properties;
+
+	/**
+	 * RSQL string.
+	 */
+	private final String rsql;
+
+	/**
+	 * Identifier property used as sort key of the chunks.
+	 */
+	private final String idProperty;
+
+	/**
+	 * Chunk size.
+	 */
+	private final int chunkSize;
+
+	/**
+	 * Current chunk.
+	 */
+	private List<T> chunk = Collections.emptyList();
+
+	/**
+	 * Position of the next entity in the current chunk.
+	 */
+	private int position;
+
+	/**
+	 * Continuation token of the next chunk.
+	 */
+	private String token;
+
+	/**
+	 * True when there is no chunk left to fetch.
+	 */
+	private boolean exhausted;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param service    Service that executes the chunk queries.
+	 * @param manager    EntityManager dedicated to the iteration (used by the service 
+	 *                   and closed with the iterator), null when every chunk is 
+	 *                   fetched by an EntityManager closed after it.
+	 * @param entity     Type of the Entity.
+	 * @param properties List of the properties (data) to be returned, must contain the identifier.
+	 * @param rsql       RSQL string.
+	 * @param idProperty Identifier property.
+	 * @param chunkSize  Chunk size (starts with 1).
+	 */
+	public ChunkedEntityIterator(EssentialEntityQueryService<T> service, EntityManager manager, Class<T> entity, 
+			List<String> properties, String rsql, String idProperty, int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be a non-zero positive integer.");
+		}
+		this.service = service;
+		this.manager = manager;
+		this.entity = entity;
+		this.properties = properties;
+		this.rsql = rsql;
+		this.idProperty = idProperty;
+		this.chunkSize = chunkSize;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#hasNext()
+	 */
+	public boolean hasNext() {
+		if (this.position >= this.chunk.size() && !this.exhausted) {
+			release();
+			KeysetPage<T> page = this.service.queryWhere(this.entity, this.properties, this.rsql, this.idProperty, this.token, this.chunkSize);
+			this.chunk = page.getItems();
+			this.position = 0;
+			this.token = page.getContinuationToken();
+			this.exhausted = !page.hasNext();
+		}
+		boolean next = this.position < this.chunk.size();
+		if (!next) {
+			close();
+		}
+		return next;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#next()
+	 */
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return this.chunk.get(this.position++);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#remove()
+	 */
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EntityIterator#stream()
+	 */
+	public Stream<T> stream() {
+		Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+		return StreamSupport.stream(spliterator, false).onClose(this::close);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EntityIterator#close()
+	 */
+	public void close() {
+		this.chunk = Collections.emptyList();
+		this.position = 0;
+		this.exhausted = true;
+		if (this.manager != null && this.manager.isOpen()) {
+			this.manager.close();
+		}
+	}
+
+	/**
+	 * Release the entities of the current chunk before fetching the next one.
+	 */
+	private void release() {
+		this.chunk = Collections.emptyList();
+		if (this.manager != null) {
+			this.manager.clear();
+		}
+	}
+}
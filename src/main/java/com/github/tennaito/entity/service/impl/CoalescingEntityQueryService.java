@@ -0,0 +1,316 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.persistence.PersistenceException;
+import javax.persistence.QueryTimeoutException;
+import javax.persistence.Tuple;
+
+import com.github.tennaito.entity.service.Aggregate;
+import com.github.tennaito.entity.service.CountStrategy;
+import com.github.tennaito.entity.service.EntityQueryService;
+import com.github.tennaito.entity.service.data.PageResult;
+
+/**
+ * CoalescingEntityQueryService.
+ * 
+ * Single-flight layer in front of a thread-safe service (like the 
+ * ConcurrentEntityQueryService): concurrent identical queries wait for 
+ * the one in flight and share its result instead of hitting the database. 
+ * A waiting call gives up with a QueryTimeoutException after the timeout 
+ * of its entity.
+ * 
+ * Shared entities must be treated as read only. Each waiting call gets its 
+ * own copy of the result list.
+ * 
+ * @author Antonio Rabelo
+ */
+public class CoalescingEntityQueryService<T> extends AbstractEntityQueryServiceDecorator<T> {
+
+	/**
+	 * Default time (milliseconds) a call waits for the query in flight.
+	 */
+	public static final long DEFAULT_TIMEOUT = 30000;
+
+	/**
+	 * Queries in flight by key.
+	 */
+	private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<String, CompletableFuture<Object>>();
+
+	/**
+	 * Wait timeout (milliseconds) by entity.
+	 */
+	private final Map<Class<?>, Long> timeouts = new ConcurrentHashMap<Class<?>, Long>();
+
+	/**
+	 * Default wait timeout (milliseconds).
+	 */
+	private volatile long timeout = DEFAULT_TIMEOUT;
+
+	/**
+	 * Number of queries executed.
+	 */
+	private final AtomicLong executions = new AtomicLong();
+
+	/**
+	 * Number of calls that shared a query in flight.
+	 */
+	private final AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * Number of calls that gave up waiting.
+	 */
+	private final AtomicLong timedOut = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param service Thread-safe service to be decorated.
+	 */
+	public CoalescingEntityQueryService(EntityQueryService<T> service) {
+		super(service);
+	}
+
+	/**
+	 * Time a call waits for the query in flight.
+	 * 
+	 * @param timeout Timeout (starts with 1).
+	 * @param unit    Unit of the timeout.
+	 * @return the owner object.
+	 */
+	public CoalescingEntityQueryService<T> timeout(long timeout, TimeUnit unit) {
+		this.timeout = toMillis(timeout, unit);
+		return this;
+	}
+
+	/**
+	 * Time a call waits for the query in flight of an entity.
+	 * 
+	 * @param entity  Entity class type.
+	 * @param timeout Timeout (starts with 1).
+	 * @param unit    Unit of the timeout.
+	 * @return the owner object.
+	 */
+	public CoalescingEntityQueryService<T> timeout(Class<T> entity, long timeout, TimeUnit unit) {
+		this.timeouts.put(entity, toMillis(timeout, unit));
+		return this;
+	}
+
+	/**
+	 * Number of queries executed by this layer.
+	 * 
+	 * @return Execution count.
+	 */
+	public long getExecutionCount() {
+		return this.executions.get();
+	}
+
+	/**
+	 * Number of calls that shared the result of a query in flight.
+	 * 
+	 * @return Coalesced count.
+	 */
+	public long getCoalescedCount() {
+		return this.coalesced.get();
+	}
+
+	/**
+	 * Number of calls that gave up waiting for a query in flight.
+	 * 
+	 * @return Timeout count.
+	 */
+	public long getTimeoutCount() {
+		return this.timedOut.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#countWhere(java.lang.Class, java.lang.String, com.github.tennaito.entity.service.CountStrategy)
+	 */
+	@Override
+	public long countWhere(Class<T> entity, String rsql, CountStrategy strategy) {
+		String key = key("countWhere", entity, canonical(rsql), strategy);
+		return this.<Long>coalesce(key, entity, () -> super.countWhere(entity, rsql, strategy));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#countWhereMulti(java.lang.Class, java.util.List)
+	 */
+	@Override
+	public List<Long> countWhereMulti(Class<T> entity, List<String> rsqls) {
+		String key = key("countWhereMulti", entity, canonical(rsqls));
+		List<Long> result = this.<List<Long>>coalesce(key, entity, () -> super.countWhereMulti(entity, rsqls));
+		return new ArrayList<Long>(result);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#facetWhere(java.lang.Class, java.lang.String, java.lang.String, java.lang.Integer)
+	 */
+	@Override
+	public Map<Object, Long> facetWhere(Class<T> entity, String rsql, String property, Integer limit) {
+		String key = key("facetWhere", entity, canonical(rsql), property, limit);
+		Map<Object, Long> result = this.<Map<Object, Long>>coalesce(key, entity, () -> super.facetWhere(entity, rsql, property, limit));
+		return new LinkedHashMap<Object, Long>(result);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#existsWhere(java.lang.Class, java.lang.String)
+	 */
+	@Override
+	public boolean existsWhere(Class<T> entity, String rsql) {
+		String key = key("existsWhere", entity, canonical(rsql));
+		return this.<Boolean>coalesce(key, entity, () -> super.existsWhere(entity, rsql));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#querySingle(java.lang.Class, java.util.List, java.lang.String)
+	 */
+	@Override
+	public T querySingle(Class<T> entity, List<String> properties, String rsql) {
+		String key = key("querySingle", entity, properties, canonical(rsql));
+		return this.<T>coalesce(key, entity, () -> super.querySingle(entity, properties, rsql));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#queryWhere(java.lang.Class, java.util.List, java.lang.String, java.lang.Integer, java.lang.Integer)
+	 */
+	@Override
+	public List<T> queryWhere(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize) {
+		String key = key("queryWhere", entity, properties, canonical(rsql), page, pageSize);
+		List<T> result = this.<List<T>>coalesce(key, entity, () -> super.queryWhere(entity, properties, rsql, page, pageSize));
+		return new ArrayList<T>(result);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#findAllByIds(java.lang.Class, java.util.Collection, java.util.List)
+	 */
+	@Override
+	public List<T> findAllByIds(Class<T> entity, Collection<?> ids, List<String> properties) {
+		String key = key("findAllByIds", entity, ids, properties);
+		List<T> result = this.<List<T>>coalesce(key, entity, () -> super.findAllByIds(entity, ids, properties));
+		return new ArrayList<T>(result);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#queryPage(java.lang.Class, java.util.List, java.lang.String, java.lang.Integer, java.lang.Integer, boolean)
+	 */
+	@Override
+	public PageResult<T> queryPage(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize, boolean countTotal) {
+		String key = key("queryPage", entity, properties, canonical(rsql), page, pageSize, countTotal);
+		PageResult<T> result = this.<PageResult<T>>coalesce(key, entity, () -> super.queryPage(entity, properties, rsql, page, pageSize, countTotal));
+		return new PageResult<T>(new ArrayList<T>(result.getItems()), result.getTotal(), result.hasNext());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#aggregateWhere(java.lang.Class, java.lang.String, java.util.List, java.util.List)
+	 */
+	@Override
+	public List<Tuple> aggregateWhere(Class<T> entity, String rsql, List<String> groupBy, List<Aggregate> aggregates) {
+		String key = key("aggregateWhere", entity, canonical(rsql), groupBy, aggregates);
+		List<Tuple> result = this.<List<Tuple>>coalesce(key, entity, () -> super.aggregateWhere(entity, rsql, groupBy, aggregates));
+		return new ArrayList<Tuple>(result);
+	}
+
+	/**
+	 * Execute the query or wait for the identical query in flight.
+	 * 
+	 * @param key    Key of the query.
+	 * @param entity Entity class type.
+	 * @param query  Query execution.
+	 * @return       Result of the query.
+	 */
+	@SuppressWarnings("unchecked")
+	protected <R> R coalesce(String key, Class<T> entity, Supplier<R> query) {
+		CompletableFuture<Object> future = new CompletableFuture<Object>();
+		CompletableFuture<Object> running = this.inFlight.putIfAbsent(key, future);
+		if (running == null) {
+			this.executions.incrementAndGet();
+			try {
+				R result = query.get();
+				future.complete(result);
+				return result;
+			} catch (RuntimeException e) {
+				future.completeExceptionally(e);
+				throw e;
+			} catch (Error e) {
+				future.completeExceptionally(e);
+				throw e;
+			} finally {
+				this.inFlight.remove(key, future);
+			}
+		}
+		this.coalesced.incrementAndGet();
+		try {
+			return (R)running.get(getTimeout(entity), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			this.timedOut.incrementAndGet();
+			throw new QueryTimeoutException("Timed out waiting for the query in flight: " + key);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PersistenceException("Interrupted waiting for the query in flight: " + key, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			throw new PersistenceException(e.getCause());
+		}
+	}
+
+	/**
+	 * Time a call waits for the query in flight of the entity.
+	 * 
+	 * @param entity Entity class type.
+	 * @return       Timeout (milliseconds).
+	 */
+	protected long getTimeout(Class<T> entity) {
+		Long value = (entity == null) ? null : this.timeouts.get(entity);
+		return (value == null) ? this.timeout : value;
+	}
+
+	/**
+	 * Converts a timeout to milliseconds.
+	 * 
+	 * @param timeout Timeout (starts with 1).
+	 * @param unit    Unit of the timeout.
+	 * @return        Timeout (milliseconds).
+	 */
+	private static long toMillis(long timeout, TimeUnit unit) {
+		if (timeout < 1) {
+			throw new IllegalArgumentException("Timeout must be a non-zero positive integer.");
+		}
+		return unit.toMillis(timeout);
+	}
+}
@@ -0,0 +1,491 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Tuple;
+
+import com.github.tennaito.entity.service.Aggregate;
+import com.github.tennaito.entity.service.CountStrategy;
+import com.github.tennaito.entity.service.EntityIterator;
+import com.github.tennaito.entity.service.PreparedEntityQuery;
+import com.github.tennaito.entity.service.data.EntityState;
+import com.github.tennaito.entity.service.data.KeysetPage;
+import com.github.tennaito.entity.service.data.PageResult;
+import com.github.tennaito.entity.service.rsql.RsqlPartitioner;
+import com.github.tennaito.entity.service.rsql.RsqlSelectorTypes;
+import com.github.tennaito.entity.service.snippet.CriteriaSnippetWhereRsqlDecorator;
+
+import cz.jirutka.rsql.parser.ast.Node;
+
+/**
+ * ConcurrentEntityQueryService.
+ * 
+ * Thread-safe query service backed by an EntityManagerFactory, to be used 
+ * as a singleton. Each call leases a short-lived EntityManager of the 
+ * calling thread that is closed when the call ends, so the entities 
+ * returned are detached. The parsed RSQL and count caches are shared by 
+ * all threads.
+ * 
+ * Conditions with a =in= list larger than the in list chunk size (when 
+ * defined) are split into partitions that run in parallel on the executor 
+ * (or one after the other without it), each one with its own 
+ * EntityManager, and the results are merged in the order of the 
+ * partitions. The partitions are queried with their parsed trees, so they 
+ * do not go through the shared parsed RSQL cache. Counts and unpaged lists 
+ * are split; pages (by offset or keyset), single results and streams are 
+ * not, so the database still pages them in one query instead of each 
+ * partition reading all the entities before the page.
+ * 
+ * The service must be configured before it is shared between threads.
+ * 
+ * @author Antonio Rabelo
+ */
+public class ConcurrentEntityQueryService<T> extends DefaultEntityQueryService<T> {
+
+	/**
+	 * Factory of the leased EntityManagers.
+	 */
+	private final EntityManagerFactory factory;
+
+	/**
+	 * EntityManager leased by the current thread.
+	 */
+	private final ThreadLocal<EntityManager> lease = new ThreadLocal<EntityManager>();
+
+	/**
+	 * Max number of values of a =in= list in one query, zero when lists are not split.
+	 */
+	private int inListChunkSize;
+
+	/**
+	 * Executor of the partitions and facets, null to run them one after the other.
+	 */
+	private Executor executor;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param factory Factory of the leased EntityManagers.
+	 */
+	public ConcurrentEntityQueryService(EntityManagerFactory factory) {
+		super();
+		if (factory == null) {
+			throw new IllegalArgumentException("Must define EntityManagerFactory instance");
+		}
+		this.factory = factory;
+	}
+
+	/**
+	 * Split the =in= lists larger than a max number of values into partitions 
+	 * that run in parallel. Databases limit the number of values of a list 
+	 * (1000 in some of them) and plan very large lists poorly.
+	 * 
+	 * @param inListChunkSize Max number of values of a =in= list, zero to not split them.
+	 * @return                This service.
+	 */
+	public ConcurrentEntityQueryService<T> inListChunkSize(int inListChunkSize) {
+		if (inListChunkSize < 0) {
+			throw new IllegalArgumentException("The in list chunk size cannot be negative.");
+		}
+		this.inListChunkSize = inListChunkSize;
+		return this;
+	}
+
+	/**
+	 * Define the executor of the partitions and facets.
+	 * 
+	 * @param executor Executor of the partitions and facets, null to run them one after 
+	 *                 the other (blocking JDBC calls must not run on the common pool).
+	 * @return         This service.
+	 */
+	public ConcurrentEntityQueryService<T> executor(Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	/**
+	 * Returns the EntityManagerFactory.
+	 * 
+	 * @return EntityManagerFactory instance.
+	 */
+	protected EntityManagerFactory getEntityManagerFactory() {
+		return this.factory;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryService#getEntityManager()
+	 */
+	@Override
+	protected EntityManager getEntityManager() {
+		EntityManager manager = this.lease.get();
+		if (manager == null) {
+			throw new IllegalStateException("There is no EntityManager leased by the current thread.");
+		}
+		return manager;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryService#createStreamEntityManager()
+	 */
+	@Override
+	protected EntityManager createStreamEntityManager() {
+		return null;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.DefaultEntityQueryService#querySingle(java.lang.Class, java.util.List, java.lang.String)
+	 */
+	@Override
+	public T querySingle(Class<T> entity, List<String> properties, String rsql) {
+		return leased(() -> super.querySingle(entity, properties, rsql));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.DefaultEntityQueryService#countWhere(java.lang.Class, java.lang.String, com.github.tennaito.entity.service.CountStrategy)
+	 */
+	@Override
+	public long countWhere(Class<T> entity, String rsql, CountStrategy strategy) {
+		List<Node> partitions = partition(entity, rsql);
+		if (partitions == null) {
+			return leased(() -> super.countWhere(entity, rsql, strategy));
+		}
+		if (resolveCountStrategy(rsql, strategy) == CountStrategy.EXACT) {
+			return countPartitions(entity, rsql, partitions);
+		}
+		String key = countCacheKey(entity, parse(entity, rsql));
+		Long count = getCountCache().get(key);
+		if (count == null) {
+			count = countPartitions(entity, rsql, partitions);
+			getCountCache().put(key, count);
+		}
+		return count;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.DefaultEntityQueryService#countWhereMulti(java.lang.Class, java.util.List)
+	 */
+	@Override
+	public List<Long> countWhereMulti(Class<T> entity, List<String> rsqls) {
+		return leased(() -> super.countWhereMulti(entity, rsqls));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.DefaultEntityQueryService#facetWhere(java.lang.Class, java.lang.String, java.lang.String, java.lang.Integer)
+	 */
+	@Override
+	public Map<Object, Long> facetWhere(Class<T> entity, String rsql, String property, Integer limit) {
+		return leased(() -> super.facetWhere(entity, rsql, property, limit));
+	}
+
+	/**
+	 * Count the facets in parallel on the executor, each one with its own EntityManager.
+	 * 
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryService#facetWhere(java.lang.Class, java.lang.String, java.util.List, java.lang.Integer)
+	 */
+	@Override
+	public Map<String, Map<Object, Long>> facetWhere(Class<T> entity, String rsql, List<String> properties, Integer limit) {
+		if (properties == null) {
+			throw new IllegalArgumentException("Must define the properties of the facets.");
+		}
+		List<Map<Object, Long>> counts = this.<String, Map<Object, Long>>parallel(properties, property -> facetWhere(entity, rsql, property, limit));
+		Map<String, Map<Object, Long>> facets = new LinkedHashMap<String, Map<Object, Long>>();
+		for (int i = 0; i < properties.size(); i++) {
+			facets.put(properties.get(i), counts.get(i));
+		}
+		return facets;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.DefaultEntityQueryService#existsWhere(java.lang.Class, java.lang.String)
+	 */
+	@Override
+	public boolean existsWhere(Class<T> entity, String rsql) {
+		return leased(() -> super.existsWhere(entity, rsql));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.DefaultEntityQueryService#queryWhere(java.lang.Class, java.util.List, java.lang.String, java.lang.Integer, java.lang.Integer)
+	 */
+	@Override
+	public List<T> queryWhere(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize) {
+		// pages are not split, the database pages them
+		List<Node> partitions = (page == null && pageSize == null) ? partition(entity, rsql) : null;
+		if (partitions == null) {
+			return leased(() -> super.queryWhere(entity, properties, rsql, page, pageSize));
+		}
+		return queryPartitions(entity, properties, rsql, partitions);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.DefaultEntityQueryService#queryWhere(java.lang.Class, java.util.List, java.lang.String, java.lang.String, java.lang.String, java.lang.Integer)
+	 */
+	@Override
+	public KeysetPage<T> queryWhere(Class<T> entity, List<String> properties, String rsql, String sortKey, String continuationToken, Integer pageSize) {
+		return leased(() -> super.queryWhere(entity, properties, rsql, sortKey, continuationToken, pageSize));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.DefaultEntityQueryService#queryPage(java.lang.Class, java.util.List, java.lang.String, java.lang.Integer, java.lang.Integer, boolean)
+	 */
+	@Override
+	public PageResult<T> queryPage(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize, boolean countTotal) {
+		return leased(() -> super.queryPage(entity, properties, rsql, page, pageSize, countTotal));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.DefaultEntityQueryService#queryStates(java.lang.Class, java.util.List, java.lang.String, java.lang.Integer, java.lang.Integer)
+	 */
+	@Override
+	public List<EntityState> queryStates(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize) {
+		return leased(() -> super.queryStates(entity, properties, rsql, page, pageSize));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.DefaultEntityQueryService#findAllByIds(java.lang.Class, java.util.Collection, java.util.List)
+	 */
+	@Override
+	public List<T> findAllByIds(Class<T> entity, Collection<?> ids, List<String> properties) {
+		return leased(() -> super.findAllByIds(entity, ids, properties));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.DefaultEntityQueryService#aggregateWhere(java.lang.Class, java.lang.String, java.util.List, java.util.List)
+	 */
+	@Override
+	public List<Tuple> aggregateWhere(Class<T> entity, String rsql, List<String> groupBy, List<Aggregate> aggregates) {
+		return leased(() -> super.aggregateWhere(entity, rsql, groupBy, aggregates));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryService#streamWhere(java.lang.Class, java.util.List, java.lang.String)
+	 */
+	@Override
+	public EntityIterator<T> streamWhere(Class<T> entity, List<String> properties, String rsql) {
+		// every chunk leases its own EntityManager
+		return leased(() -> super.streamWhere(entity, properties, rsql));
+	}
+
+	/**
+	 * Prepare a query bound to an EntityManager dedicated to it, as a stream 
+	 * is. The prepared query must not be shared between threads and the 
+	 * entities it returns are detached.
+	 * 
+	 * @see com.github.tennaito.entity.service.impl.DefaultEntityQueryService#prepare(java.lang.Class, java.util.List, java.lang.String)
+	 */
+	@Override
+	public PreparedEntityQuery<T> prepare(Class<T> entity, List<String> properties, String rsql) {
+		EntityManager manager = this.factory.createEntityManager();
+		try {
+			DefaultEntityQueryService<T> service = (DefaultEntityQueryService<T>) copySettings(new DefaultEntityQueryService<T>(manager));
+			return new DetachedPreparedEntityQuery<T>(service.prepare(entity, properties, rsql), manager);
+		} catch (RuntimeException e) {
+			manager.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Split a condition by its =in= list larger than the in list chunk size.
+	 * 
+	 * @param entity Entity class type.
+	 * @param rsql   RSQL string.
+	 * @return       Parsed trees of the partitions, null when the condition is not split.
+	 */
+	protected List<Node> partition(Class<T> entity, String rsql) {
+		if (this.inListChunkSize == 0 || rsql == null) {
+			return null;
+		}
+		List<Node> partitions = RsqlPartitioner.partition(parse(entity, rsql), this.inListChunkSize);
+		return (partitions.size() < 2) ? null : partitions;
+	}
+
+	/**
+	 * Parse a condition optimized for the types of the entity.
+	 * 
+	 * @param entity Entity class type.
+	 * @param rsql   RSQL string.
+	 * @return       Parsed tree of the condition.
+	 */
+	protected Node parse(Class<T> entity, String rsql) {
+		return new CriteriaSnippetWhereRsqlDecorator<T, T>(rsql, null)
+				.types(new RsqlSelectorTypes(this.factory.getMetamodel(), entity)).getNode();
+	}
+
+	/**
+	 * Query the partitions in parallel and merge their results in order.
+	 * 
+	 * @param entity     Entity class type.
+	 * @param properties List of the properties (data) returned.
+	 * @param rsql       RSQL string of the whole condition.
+	 * @param partitions Parsed trees of the partitions.
+	 * @return           Merged results.
+	 */
+	protected List<T> queryPartitions(Class<T> entity, List<String> properties, String rsql, List<Node> partitions) {
+		List<T> merged = new ArrayList<T>();
+		for (List<T> result : this.<Node, List<T>>parallel(partitions, partition -> leased(() -> 
+				resultList("queryWhere", entity, this.buildEntityQuery("queryWhere", entity, properties, rsql, partition, null, null))))) {
+			merged.addAll(result);
+		}
+		return merged;
+	}
+
+	/**
+	 * Count the partitions in parallel and sum their counts.
+	 * 
+	 * @param entity     Entity class type.
+	 * @param rsql       RSQL string of the whole condition.
+	 * @param partitions Parsed trees of the partitions.
+	 * @return           Sum of the counts.
+	 */
+	protected long countPartitions(Class<T> entity, String rsql, List<Node> partitions) {
+		long count = 0;
+		for (Long partial : this.<Node, Long>parallel(partitions, partition -> leased(() -> 
+				singleResult("countWhere", entity, this.buildCountQuery("countWhere", entity, rsql, partition))))) {
+			count += partial;
+		}
+		return count;
+	}
+
+	/**
+	 * Run a call for each argument (partition or facet) in parallel on the executor, 
+	 * or one after the other in the calling thread without an executor.
+	 * 
+	 * @param arguments Arguments of the calls.
+	 * @param call      Call of an argument.
+	 * @return          Results in the order of the arguments.
+	 */
+	protected <A, R> List<R> parallel(List<A> arguments, Function<A, R> call) {
+		if (this.executor == null) {
+			List<R> results = new ArrayList<R>(arguments.size());
+			for (A argument : arguments) {
+				results.add(call.apply(argument));
+			}
+			return results;
+		}
+		List<CompletableFuture<R>> futures = new ArrayList<CompletableFuture<R>>(arguments.size());
+		for (A argument : arguments) {
+			Supplier<R> task = () -> call.apply(argument);
+			futures.add(CompletableFuture.supplyAsync(task, this.executor));
+		}
+		List<R> results = new ArrayList<R>(futures.size());
+		for (CompletableFuture<R> future : futures) {
+			try {
+				results.add(future.join());
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException)e.getCause();
+				}
+				throw e;
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Run a call with the EntityManager leased by the current thread, 
+	 * leasing a new one when the call is not nested in another.
+	 * 
+	 * @param call Call to be run.
+	 * @return     Result of the call.
+	 */
+	protected <R> R leased(Supplier<R> call) {
+		EntityManager manager = this.lease.get();
+		boolean owner = (manager == null);
+		if (owner) {
+			manager = this.factory.createEntityManager();
+			this.lease.set(manager);
+		}
+		try {
+			return call.get();
+		} finally {
+			if (owner) {
+				this.lease.remove();
+				manager.close();
+			}
+		}
+	}
+
+	/**
+	 * Prepared query with its own EntityManager, cleared after each 
+	 * execution so it does not keep the entities returned.
+	 */
+	private static class DetachedPreparedEntityQuery<T> implements PreparedEntityQuery<T> {
+
+		/**
+		 * Query prepared on the EntityManager.
+		 */
+		private final PreparedEntityQuery<T> query;
+
+		/**
+		 * EntityManager dedicated to the query.
+		 */
+		private final EntityManager manager;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param query   Query prepared on the EntityManager.
+		 * @param manager EntityManager dedicated to the query.
+		 */
+		private DetachedPreparedEntityQuery(PreparedEntityQuery<T> query, EntityManager manager) {
+			this.query = query;
+			this.manager = manager;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.tennaito.entity.service.PreparedEntityQuery#querySingle(java.lang.String)
+		 */
+		public T querySingle(String rsql) {
+			try {
+				return this.query.querySingle(rsql);
+			} finally {
+				this.manager.clear();
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.tennaito.entity.service.PreparedEntityQuery#queryWhere(java.lang.String, java.lang.Integer, java.lang.Integer)
+		 */
+		public List<T> queryWhere(String rsql, Integer page, Integer pageSize) {
+			try {
+				return this.query.queryWhere(rsql, page, pageSize);
+			} finally {
+				this.manager.clear();
+			}
+		}
+	}
+}
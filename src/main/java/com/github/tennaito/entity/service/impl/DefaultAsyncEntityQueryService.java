@@ -0,0 +1,281 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.impl;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Tuple;
+
+import com.github.tennaito.entity.service.Aggregate;
+import com.github.tennaito.entity.service.AsyncEntityQueryService;
+import com.github.tennaito.entity.service.CountStrategy;
+import com.github.tennaito.entity.service.EntityQueryService;
+import com.github.tennaito.entity.service.data.EntityState;
+import com.github.tennaito.entity.service.data.KeysetPage;
+import com.github.tennaito.entity.service.data.PageResult;
+
+/**
+ * DefaultAsyncEntityQueryService.
+ * 
+ * Runs every query of a ConcurrentEntityQueryService in the executor, so 
+ * each query leases its own EntityManager, the service can be shared 
+ * between threads and its queries run concurrently. The entities returned 
+ * are detached. Every setting of the concurrent service (count cache, 
+ * fetch graph, bind parameters, instrumentation and so on) applies to the 
+ * queries, so the concurrent service is configured before it is given.
+ * 
+ * @author Antonio Rabelo
+ */
+public class DefaultAsyncEntityQueryService<T> implements AsyncEntityQueryService<T> {
+
+	/**
+	 * Service that runs the queries.
+	 */
+	private final ConcurrentEntityQueryService<T> service;
+
+	/**
+	 * Executor of the queries.
+	 */
+	private final Executor executor;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param factory  Factory of the EntityManager of each query.
+	 * @param executor Executor of the queries, like a virtual thread per 
+	 *                 task executor (see QueryExecutors).
+	 */
+	public DefaultAsyncEntityQueryService(EntityManagerFactory factory, Executor executor) {
+		this(new ConcurrentEntityQueryService<T>(factory), executor);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param service  Service that runs the queries, configured before it is shared.
+	 * @param executor Executor of the queries, like a virtual thread per 
+	 *                 task executor (see QueryExecutors).
+	 */
+	public DefaultAsyncEntityQueryService(ConcurrentEntityQueryService<T> service, Executor executor) {
+		if (service == null) {
+			throw new IllegalArgumentException("Must define ConcurrentEntityQueryService instance");
+		}
+		if (executor == null) {
+			throw new IllegalArgumentException("Must define Executor instance");
+		}
+		this.service = service;
+		this.executor = executor;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#count(java.lang.Class)
+	 */
+	public CompletableFuture<Long> count(Class<T> entity) {
+		return submit(service -> service.count(entity));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#countWhere(java.lang.Class, java.lang.String)
+	 */
+	public CompletableFuture<Long> countWhere(Class<T> entity, String rsql) {
+		return submit(service -> service.countWhere(entity, rsql));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#countWhere(java.lang.Class, java.lang.String, com.github.tennaito.entity.service.CountStrategy)
+	 */
+	public CompletableFuture<Long> countWhere(Class<T> entity, String rsql, CountStrategy strategy) {
+		return submit(service -> service.countWhere(entity, rsql, strategy));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#countWhereMulti(java.lang.Class, java.util.List)
+	 */
+	public CompletableFuture<List<Long>> countWhereMulti(Class<T> entity, List<String> rsqls) {
+		return submit(service -> service.countWhereMulti(entity, rsqls));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#facetWhere(java.lang.Class, java.lang.String, java.lang.String, java.lang.Integer)
+	 */
+	public CompletableFuture<Map<Object, Long>> facetWhere(Class<T> entity, String rsql, String property, Integer limit) {
+		return submit(service -> service.facetWhere(entity, rsql, property, limit));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#facetWhere(java.lang.Class, java.lang.String, java.util.List, java.lang.Integer)
+	 */
+	public CompletableFuture<Map<String, Map<Object, Long>>> facetWhere(Class<T> entity, String rsql, List<String> properties, Integer limit) {
+		return submit(service -> service.facetWhere(entity, rsql, properties, limit));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#existsWhere(java.lang.Class, java.lang.String)
+	 */
+	public CompletableFuture<Boolean> existsWhere(Class<T> entity, String rsql) {
+		return submit(service -> service.existsWhere(entity, rsql));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#querySingle(java.lang.Class)
+	 */
+	public CompletableFuture<T> querySingle(Class<T> entity) {
+		return submit(service -> service.querySingle(entity));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#querySingle(java.lang.Class, java.lang.String)
+	 */
+	public CompletableFuture<T> querySingle(Class<T> entity, String rsql) {
+		return submit(service -> service.querySingle(entity, rsql));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#querySingle(java.lang.Class, java.util.List)
+	 */
+	public CompletableFuture<T> querySingle(Class<T> entity, List<String> properties) {
+		return submit(service -> service.querySingle(entity, properties));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#querySingle(java.lang.Class, java.util.List, java.lang.String)
+	 */
+	public CompletableFuture<T> querySingle(Class<T> entity, List<String> properties, String rsql) {
+		return submit(service -> service.querySingle(entity, properties, rsql));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#queryPartial(java.lang.Class, java.util.List)
+	 */
+	public CompletableFuture<List<T>> queryPartial(Class<T> entity, List<String> properties) {
+		return submit(service -> service.queryPartial(entity, properties));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#queryPartial(java.lang.Class, java.util.List, java.lang.Integer, java.lang.Integer)
+	 */
+	public CompletableFuture<List<T>> queryPartial(Class<T> entity, List<String> properties, Integer page, Integer pageSize) {
+		return submit(service -> service.queryPartial(entity, properties, page, pageSize));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#queryAll(java.lang.Class)
+	 */
+	public CompletableFuture<List<T>> queryAll(Class<T> entity) {
+		return submit(service -> service.queryAll(entity));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#queryAll(java.lang.Class, java.lang.Integer, java.lang.Integer)
+	 */
+	public CompletableFuture<List<T>> queryAll(Class<T> entity, Integer page, Integer pageSize) {
+		return submit(service -> service.queryAll(entity, page, pageSize));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#queryWhere(java.lang.Class, java.lang.String)
+	 */
+	public CompletableFuture<List<T>> queryWhere(Class<T> entity, String rsql) {
+		return submit(service -> service.queryWhere(entity, rsql));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#queryWhere(java.lang.Class, java.util.List, java.lang.String)
+	 */
+	public CompletableFuture<List<T>> queryWhere(Class<T> entity, List<String> properties, String rsql) {
+		return submit(service -> service.queryWhere(entity, properties, rsql));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#queryWhere(java.lang.Class, java.lang.String, java.lang.Integer, java.lang.Integer)
+	 */
+	public CompletableFuture<List<T>> queryWhere(Class<T> entity, String rsql, Integer page, Integer pageSize) {
+		return submit(service -> service.queryWhere(entity, rsql, page, pageSize));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#queryWhere(java.lang.Class, java.util.List, java.lang.String, java.lang.Integer, java.lang.Integer)
+	 */
+	public CompletableFuture<List<T>> queryWhere(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize) {
+		return submit(service -> service.queryWhere(entity, properties, rsql, page, pageSize));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#queryStates(java.lang.Class, java.util.List, java.lang.String, java.lang.Integer, java.lang.Integer)
+	 */
+	public CompletableFuture<List<EntityState>> queryStates(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize) {
+		return submit(service -> service.queryStates(entity, properties, rsql, page, pageSize));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#findAllByIds(java.lang.Class, java.util.Collection, java.util.List)
+	 */
+	public CompletableFuture<List<T>> findAllByIds(Class<T> entity, Collection<?> ids, List<String> properties) {
+		return submit(service -> service.findAllByIds(entity, ids, properties));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#queryWhere(java.lang.Class, java.util.List, java.lang.String, java.lang.String, java.lang.String, java.lang.Integer)
+	 */
+	public CompletableFuture<KeysetPage<T>> queryWhere(Class<T> entity, List<String> properties, String rsql, String sortKey, String continuationToken, Integer pageSize) {
+		return submit(service -> service.queryWhere(entity, properties, rsql, sortKey, continuationToken, pageSize));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#queryPage(java.lang.Class, java.lang.String, java.lang.Integer, java.lang.Integer)
+	 */
+	public CompletableFuture<PageResult<T>> queryPage(Class<T> entity, String rsql, Integer page, Integer pageSize) {
+		return submit(service -> service.queryPage(entity, rsql, page, pageSize));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#queryPage(java.lang.Class, java.util.List, java.lang.String, java.lang.Integer, java.lang.Integer, boolean)
+	 */
+	public CompletableFuture<PageResult<T>> queryPage(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize, boolean countTotal) {
+		return submit(service -> service.queryPage(entity, properties, rsql, page, pageSize, countTotal));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.AsyncEntityQueryService#aggregateWhere(java.lang.Class, java.lang.String, java.util.List, java.util.List)
+	 */
+	public CompletableFuture<List<Tuple>> aggregateWhere(Class<T> entity, String rsql, List<String> groupBy, List<Aggregate> aggregates) {
+		return submit(service -> service.aggregateWhere(entity, rsql, groupBy, aggregates));
+	}
+
+	/**
+	 * Run a query in the executor.
+	 * 
+	 * @param query Query over the synchronous service.
+	 * @return      Future of the query result.
+	 */
+	protected <R> CompletableFuture<R> submit(Function<EntityQueryService<T>, R> query) {
+		return CompletableFuture.supplyAsync(() -> query.apply(this.service), this.executor);
+	}
+}
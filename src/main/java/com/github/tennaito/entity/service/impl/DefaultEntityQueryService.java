@@ -23,20 +23,56 @@
  */
 package com.github.tennaito.entity.service.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.persistence.EntityManager;
+import javax.persistence.NoResultException;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
 
+import com.github.tennaito.entity.service.Aggregate;
+import com.github.tennaito.entity.service.CountStrategy;
 import com.github.tennaito.entity.service.EntityQueryService;
+import com.github.tennaito.entity.service.PreparedEntityQuery;
+import com.github.tennaito.entity.service.data.EntityState;
+import com.github.tennaito.entity.service.data.KeysetPage;
+import com.github.tennaito.entity.service.data.PageResult;
+import com.github.tennaito.entity.service.rsql.RsqlCanonicalizer;
+import com.github.tennaito.entity.service.rsql.RsqlSelectorTypes;
+import com.github.tennaito.entity.service.snippet.AbstractCriteriaSnippetRsqlDecorator;
 import com.github.tennaito.entity.service.snippet.CriteriaSnippet;
+import com.github.tennaito.entity.service.snippet.CriteriaSnippetAggregateDecorator;
 import com.github.tennaito.entity.service.snippet.CriteriaSnippetCountDecorator;
+import com.github.tennaito.entity.service.snippet.CriteriaSnippetCountMultiDecorator;
+import com.github.tennaito.entity.service.snippet.CriteriaSnippetExistsDecorator;
+import com.github.tennaito.entity.service.snippet.CriteriaSnippetFacetDecorator;
+import com.github.tennaito.entity.service.snippet.CriteriaSnippetFetchGraphDecorator;
+import com.github.tennaito.entity.service.snippet.CriteriaSnippetKeysetDecorator;
 import com.github.tennaito.entity.service.snippet.CriteriaSnippetPaginationDecorator;
 import com.github.tennaito.entity.service.snippet.CriteriaSnippetPartialDecorator;
 import com.github.tennaito.entity.service.snippet.CriteriaSnippetWhereRsqlDecorator;
 
+import cz.jirutka.rsql.parser.ast.ComparisonNode;
+import cz.jirutka.rsql.parser.ast.Node;
+import cz.jirutka.rsql.parser.ast.RSQLOperators;
+
 /**
  * DefaultEntityQueryService.
  * 
@@ -46,6 +82,16 @@ import com.github.tennaito.entity.service.snippet.CriteriaSnippetWhereRsqlDecora
  */
 public class DefaultEntityQueryService<T> extends AbstractEntityQueryService<T> implements EntityQueryService<T> {
 
+	/**
+	 * Operation of the queries built without an explicit one.
+	 */
+	protected static final String DEFAULT_OPERATION = "query";
+
+	/**
+	 * Logger of the service.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(DefaultEntityQueryService.class.getName());
+
 	/**
 	 * Constructor.
 	 * 
@@ -55,25 +101,420 @@ public class DefaultEntityQueryService<T> extends AbstractEntityQueryService<T>
 		super(manager);
 	}
 	
+	/**
+	 * Constructor for services that override getEntityManager() to provide 
+	 * the EntityManager of each call.
+	 */
+	protected DefaultEntityQueryService() {
+		super();
+	}
+	
 	/* (non-Javadoc)
 	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#querySingle(java.lang.Class, java.util.List, java.lang.String)
 	 */
 	public T querySingle(Class<T> entity, List<String> properties, String rsql) {
-		return this.buildEntityQuery(entity, properties, rsql, null, null).getSingleResult();
+		if (isUnsatisfiable("querySingle", entity, new CriteriaSnippetWhereRsqlDecorator<T, T>(rsql, null))) {
+			throw new NoResultException("No entity meets the condition: " + rsql);
+		}
+		return singleResult("querySingle", entity, this.buildEntityQuery("querySingle", entity, properties, rsql, null, null));
 	}
 
 	/* (non-Javadoc)
 	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#countWhere(java.lang.Class, java.lang.String)
 	 */
 	public long countWhere(Class<T> entity, String rsql) {
-		return this.buildCountQuery(entity, rsql).getSingleResult();
+		return this.countWhere(entity, rsql, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#countWhere(java.lang.Class, java.lang.String, com.github.tennaito.entity.service.CountStrategy)
+	 */
+	public long countWhere(Class<T> entity, String rsql, CountStrategy strategy) {
+		if (entity == null) {
+			throw new IllegalArgumentException("Entity must be defined.");
+		}
+		CriteriaSnippetWhereRsqlDecorator<Long, T> rsqlSnippet = new CriteriaSnippetWhereRsqlDecorator<Long, T>(rsql, null);
+		if (isUnsatisfiable("countWhere", entity, rsqlSnippet)) {
+			return 0;
+		}
+		Node node = rsqlSnippet.getNode();
+		strategy = resolveCountStrategy(rsql, strategy);
+		Long count = null;
+		if (strategy == CountStrategy.ESTIMATED && getCountEstimator() != null) {
+			count = getCountEstimator().estimate(getEntityManager(), entity);
+		}
+		if (count == null && strategy == CountStrategy.CACHED) {
+			String key = countCacheKey(entity, node);
+			count = getCountCache().get(key);
+			if (count == null) {
+				count = singleResult("countWhere", entity, this.buildCountQuery("countWhere", entity, rsql, node));
+				getCountCache().put(key, count);
+			}
+		} else if (count == null) {
+			count = singleResult("countWhere", entity, this.buildCountQuery("countWhere", entity, rsql, node));
+		}
+		return count;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#countWhereMulti(java.lang.Class, java.util.List)
+	 */
+	public List<Long> countWhereMulti(Class<T> entity, List<String> rsqls) {
+		if (rsqls == null || rsqls.isEmpty()) {
+			throw new IllegalArgumentException("Must define at least one condition.");
+		}
+		List<Long> counts = new ArrayList<Long>(rsqls.size());
+		List<Node> nodes = new ArrayList<Node>();
+		List<Integer> indexes = new ArrayList<Integer>();
+		for (int i = 0; i < rsqls.size(); i++) {
+			CriteriaSnippetWhereRsqlDecorator<Tuple, T> rsqlSnippet = new CriteriaSnippetWhereRsqlDecorator<Tuple, T>(rsqls.get(i), null);
+			counts.add(0L);
+			// contradictions are zero without being computed
+			if (!isUnsatisfiable("countWhereMulti", entity, rsqlSnippet)) {
+				nodes.add(rsqlSnippet.getNode());
+				indexes.add(i);
+			}
+		}
+		if (!nodes.isEmpty()) {
+			CriteriaSnippetCountMultiDecorator<T> countSnippet = new CriteriaSnippetCountMultiDecorator<T>(nodes, null);
+			List<Tuple> rows = resultList("countWhereMulti", entity, this.<Tuple>buildQueryTemplateMethod("countWhereMulti", Tuple.class, entity, countSnippet));
+			List<Long> computed = countSnippet.createCounts(rows.isEmpty() ? null : rows.get(0));
+			for (int i = 0; i < computed.size(); i++) {
+				counts.set(indexes.get(i), computed.get(i));
+			}
+		}
+		return counts;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#facetWhere(java.lang.Class, java.lang.String, java.lang.String, java.lang.Integer)
+	 */
+	public Map<Object, Long> facetWhere(Class<T> entity, String rsql, String property, Integer limit) {
+		CriteriaSnippetWhereRsqlDecorator<Tuple, T> rsqlSnippet = new CriteriaSnippetWhereRsqlDecorator<Tuple, T>(rsql, isBindParameters(), null);
+		CriteriaSnippetFacetDecorator<T> facetSnippet = new CriteriaSnippetFacetDecorator<T>(property, limit, rsqlSnippet);
+		if (isUnsatisfiable("facetWhere", entity, rsqlSnippet)) {
+			facetSnippet.validate();
+			return new LinkedHashMap<Object, Long>();
+		}
+		return facetSnippet.createCounts(resultList("facetWhere", entity, this.<Tuple>buildQueryTemplateMethod("facetWhere", Tuple.class, entity, facetSnippet)));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#existsWhere(java.lang.Class, java.lang.String)
+	 */
+	public boolean existsWhere(Class<T> entity, String rsql) {
+		CriteriaSnippetWhereRsqlDecorator<Integer, T> rsqlSnippet = new CriteriaSnippetWhereRsqlDecorator<Integer, T>(rsql, isBindParameters(), null);
+		if (isUnsatisfiable("existsWhere", entity, rsqlSnippet)) {
+			return false;
+		}
+		CriteriaSnippetExistsDecorator<T> existsSnippet = new CriteriaSnippetExistsDecorator<T>(rsqlSnippet);
+		return !resultList("existsWhere", entity, this.<Integer>buildQueryTemplateMethod("existsWhere", Integer.class, entity, existsSnippet)).isEmpty();
 	}
 
 	/* (non-Javadoc)
 	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#queryWhere(java.lang.Class, java.util.List, java.lang.String, java.lang.Integer, java.lang.Integer)
 	 */
 	public List<T> queryWhere(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize) {
-		return this.buildEntityQuery(entity, properties, rsql, page, pageSize).getResultList();
+		CriteriaSnippetWhereRsqlDecorator<T, T> rsqlSnippet = new CriteriaSnippetWhereRsqlDecorator<T, T>(rsql, null);
+		if (isUnsatisfiable("queryWhere", entity, rsqlSnippet)) {
+			new CriteriaSnippetPaginationDecorator<T, T>(page, pageSize, rsqlSnippet).validate();
+			return new ArrayList<T>();
+		}
+		return resultList("queryWhere", entity, this.buildEntityQuery("queryWhere", entity, properties, rsql, page, pageSize));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#queryStates(java.lang.Class, java.util.List, java.lang.String, java.lang.Integer, java.lang.Integer)
+	 */
+	public List<EntityState> queryStates(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize) {
+		if (entity == null) {
+			throw new IllegalArgumentException("Entity must be defined.");
+		}
+		if (properties != null && properties.isEmpty()) {
+			throw new IllegalArgumentException("Must define at least one property.");
+		}
+		List<String> selection = (properties == null) ? getSingularProperties(entity) : properties;
+		String idProperty = getIdProperty(entity);
+		for (int i = 0; i < selection.size() && !selection.contains(idProperty); i++) {
+			if (selection.get(i).indexOf('.') >= 0) {
+				// rows of joined collections are merged by identifier
+				selection = new ArrayList<String>(selection);
+				selection.add(0, idProperty);
+			}
+		}
+		if ((page != null || pageSize != null) && hasCollectionJoin(entity, selection)) {
+			// the rows of a joined collection would be paginated instead of the entities
+			return queryStatesOfPage(entity, selection, rsql, page, pageSize);
+		}
+		CriteriaSnippetWhereRsqlDecorator<Tuple, T> rsqlSnippet = new CriteriaSnippetWhereRsqlDecorator<Tuple, T>(rsql, isBindParameters(), null);
+		CriteriaSnippetPartialDecorator<Tuple, T> partialSnippet = new CriteriaSnippetPartialDecorator<Tuple, T>(selection, rsqlSnippet);
+		CriteriaSnippetPaginationDecorator<Tuple, T> paginationSnippet = new CriteriaSnippetPaginationDecorator<Tuple, T>(page, pageSize, partialSnippet);
+		if (isUnsatisfiable("queryStates", entity, rsqlSnippet)) {
+			paginationSnippet.validate();
+			return new ArrayList<EntityState>();
+		}
+		return partialSnippet.createStates(entity, resultList("queryStates", entity, this.<Tuple>buildQueryTemplateMethod("queryStates", Tuple.class, entity, paginationSnippet)));
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#findAllByIds(java.lang.Class, java.util.Collection, java.util.List)
+	 */
+	public List<T> findAllByIds(Class<T> entity, Collection<?> ids, List<String> properties) {
+		if (entity == null) {
+			throw new IllegalArgumentException("Entity must be defined.");
+		}
+		if (ids == null) {
+			throw new IllegalArgumentException("Must define the identifiers.");
+		}
+		// identifiers are matched by their text, as in the rsql
+		Map<String, T> found = new HashMap<String, T>();
+		// managed entities are whole, so they are only returned when the whole entities are requested
+		ManagedEntityLookup lookup = (properties == null) ? getManagedEntityLookup() : null;
+		Set<String> missing = new LinkedHashSet<String>();
+		for (Object id : ids) {
+			if (id == null) {
+				throw new IllegalArgumentException("Identifiers must not be null.");
+			}
+			String key = String.valueOf(id);
+			if (!found.containsKey(key) && !missing.contains(key)) {
+				T managed = (lookup == null) ? null : lookup.find(getEntityManager(), entity, id);
+				if (managed != null) {
+					found.put(key, managed);
+				} else {
+					missing.add(key);
+				}
+			}
+		}
+		if (!missing.isEmpty()) {
+			String idProperty = getIdProperty(entity);
+			List<String> selection = properties;
+			if (properties != null && !properties.contains(idProperty)) {
+				// the queried entities are matched by identifier, so it must be selected
+				selection = new ArrayList<String>(properties);
+				selection.add(idProperty);
+			}
+			PersistenceUnitUtil util = getEntityManager().getEntityManagerFactory().getPersistenceUnitUtil();
+			List<String> keys = new ArrayList<String>(missing);
+			for (int from = 0; from < keys.size(); from += getIdBatchSize()) {
+				List<String> batch = keys.subList(from, Math.min(from + getIdBatchSize(), keys.size()));
+				String rsql = RsqlCanonicalizer.toRsql(new ComparisonNode(RSQLOperators.IN, idProperty, batch));
+				for (T result : resultList("findAllByIds", entity, this.buildEntityQuery("findAllByIds", entity, selection, rsql, null, null))) {
+					found.put(String.valueOf(util.getIdentifier(result)), result);
+				}
+			}
+		}
+		List<T> results = new ArrayList<T>(ids.size());
+		for (Object id : ids) {
+			T result = found.get(String.valueOf(id));
+			if (result != null) {
+				results.add(result);
+			}
+		}
+		return results;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#queryWhere(java.lang.Class, java.util.List, java.lang.String, java.lang.String, java.lang.String, java.lang.Integer)
+	 */
+	public KeysetPage<T> queryWhere(Class<T> entity, List<String> properties, String rsql, String sortKey, String continuationToken, Integer pageSize) {
+		CriteriaSnippetWhereRsqlDecorator<T, T> rsqlSnippet = new CriteriaSnippetWhereRsqlDecorator<T, T>(rsql, isBindParameters(), null);
+		CriteriaSnippetPartialDecorator<T, T> partialSnippet = new CriteriaSnippetPartialDecorator<T, T>(properties, rsqlSnippet);
+		CriteriaSnippetKeysetDecorator<T> keysetSnippet = new CriteriaSnippetKeysetDecorator<T>(sortKey, continuationToken, pageSize, partialSnippet);
+		if (isUnsatisfiable("queryKeyset", entity, rsqlSnippet)) {
+			keysetSnippet.validate();
+			return keysetSnippet.createPage(new ArrayList<T>());
+		}
+		List<T> rows = resultList("queryKeyset", entity, this.<T>buildQueryTemplateMethod("queryKeyset", entity, entity, keysetSnippet));
+		if (keysetSnippet.hasNullPhase(rows)) {
+			// the page goes on with the null sort keys
+			rows = new ArrayList<T>(rows);
+			rows.addAll(resultList("queryKeyset", entity, this.<T>buildQueryTemplateMethod("queryKeyset", entity, entity, keysetSnippet.nullPhase(rows))));
+		}
+		return keysetSnippet.createPage(rows);
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#queryPage(java.lang.Class, java.util.List, java.lang.String, java.lang.Integer, java.lang.Integer, boolean)
+	 */
+	public PageResult<T> queryPage(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize, boolean countTotal) {
+		if (page == null || pageSize == null) {
+			throw new IllegalArgumentException("Page and PageSize must be defined.");
+		}
+		CriteriaSnippetWhereRsqlDecorator<T, T> rsqlSnippet = new CriteriaSnippetWhereRsqlDecorator<T, T>(rsql, isBindParameters(), null);
+		CriteriaSnippetPartialDecorator<T, T> partialSnippet = new CriteriaSnippetPartialDecorator<T, T>(properties, rsqlSnippet);
+		CriteriaSnippetPaginationDecorator<T, T> paginationSnippet = new CriteriaSnippetPaginationDecorator<T, T>(page, pageSize, partialSnippet);
+		if (isUnsatisfiable("queryPage", entity, rsqlSnippet)) {
+			paginationSnippet.validate();
+			return new PageResult<T>(new ArrayList<T>(), countTotal ? Long.valueOf(0) : null, false);
+		}
+		TypedQuery<T> query = this.<T>buildQueryTemplateMethod("queryPage", entity, entity, fetchGraph(properties, paginationSnippet));
+		long offset = (long)(page - 1) * pageSize;
+		PageResult<T> result;
+		if (countTotal) {
+			List<T> items = resultList("queryPage", entity, query);
+			long total;
+			if (items.size() < pageSize && (!items.isEmpty() || page == 1)) {
+				// a partial page is the last one and tells the total
+				total = offset + items.size();
+			} else {
+				total = singleResult("queryPage", entity, this.buildCountQuery("queryPage", entity, rsql, rsqlSnippet.getNode()));
+			}
+			result = new PageResult<T>(items, total, offset + items.size() < total);
+		} else {
+			// one more entity tells if there is a next page
+			List<T> items = resultList("queryPage", entity, query.setMaxResults((int)Math.min((long)pageSize + 1, Integer.MAX_VALUE)));
+			boolean next = items.size() > pageSize;
+			if (next) {
+				items = new ArrayList<T>(items.subList(0, pageSize));
+			}
+			result = new PageResult<T>(items, null, next);
+		}
+		return result;
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.EssentialEntityQueryService#aggregateWhere(java.lang.Class, java.lang.String, java.util.List, java.util.List)
+	 */
+	public List<Tuple> aggregateWhere(Class<T> entity, String rsql, List<String> groupBy, List<Aggregate> aggregates) {
+		CriteriaSnippetWhereRsqlDecorator<Tuple, T> rsqlSnippet = new CriteriaSnippetWhereRsqlDecorator<Tuple, T>(rsql, isBindParameters(), null);
+		CriteriaSnippetAggregateDecorator<T> aggregateSnippet = new CriteriaSnippetAggregateDecorator<T>(groupBy, aggregates, rsqlSnippet);
+		if (groupBy != null && !groupBy.isEmpty() && isUnsatisfiable("aggregateWhere", entity, rsqlSnippet)) {
+			// no groups, a single group would still have a row
+			aggregateSnippet.validate();
+			return new ArrayList<Tuple>();
+		}
+		return resultList("aggregateWhere", entity, this.<Tuple>buildQueryTemplateMethod("aggregateWhere", Tuple.class, entity, aggregateSnippet));
+	}
+
+	/**
+	 * Prepare a query that is built once and executed many times with 
+	 * rsql strings of the same shape and different pages.
+	 * 
+	 * The prepared query is bound to the EntityManager of this service.
+	 * 
+	 * @param entity     Type of the Entity.
+	 * @param properties List of the properties (data) to be returned.
+	 * @param rsql       RSQL string that defines the shape of the where clause.
+	 * @return           Prepared query.
+	 */
+	public PreparedEntityQuery<T> prepare(Class<T> entity, List<String> properties, String rsql) {
+		CriteriaSnippetWhereRsqlDecorator<T, T> rsqlSnippet = new CriteriaSnippetWhereRsqlDecorator<T, T>(rsql, true, true, null);
+		CriteriaSnippetPartialDecorator<T, T> partialSnippet = new CriteriaSnippetPartialDecorator<T, T>(properties, rsqlSnippet);
+		return new DefaultPreparedEntityQuery<T>(this.<T>buildQueryTemplateMethod("prepare", entity, entity, partialSnippet), rsqlSnippet);
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryService#createService(javax.persistence.EntityManager)
+	 */
+	protected AbstractEntityQueryService<T> createService(EntityManager manager) {
+		return copySettings(new DefaultEntityQueryService<T>(manager));
+	}
+	
+	/**
+	 * Queries the states of a page of entities with joined collections: the 
+	 * identifiers of the page are queried first and their rows afterwards.
+	 * 
+	 * @param entity    Entity class type.
+	 * @param selection Selected properties, the identifier included.
+	 * @param rsql      RSQL string.
+	 * @param page      Page number.
+	 * @param pageSize  Page size.
+	 * @return          States of the page, in the order of the identifiers.
+	 */
+	private List<EntityState> queryStatesOfPage(Class<T> entity, List<String> selection, String rsql, Integer page, Integer pageSize) {
+		String idProperty = getIdProperty(entity);
+		List<String> keys = new ArrayList<String>();
+		for (EntityState root : queryStates(entity, Collections.singletonList(idProperty), rsql, page, pageSize)) {
+			keys.add(String.valueOf(root.<Object>get(idProperty)));
+		}
+		// identifiers are matched by their text, as in findAllByIds
+		Map<String, EntityState> found = new HashMap<String, EntityState>();
+		for (int from = 0; from < keys.size(); from += getIdBatchSize()) {
+			List<String> batch = keys.subList(from, Math.min(from + getIdBatchSize(), keys.size()));
+			String ids = RsqlCanonicalizer.toRsql(new ComparisonNode(RSQLOperators.IN, idProperty, batch));
+			for (EntityState state : queryStates(entity, selection, (rsql == null) ? ids : "(" + rsql + ");" + ids, null, null)) {
+				found.put(String.valueOf(state.<Object>get(idProperty)), state);
+			}
+		}
+		List<EntityState> states = new ArrayList<EntityState>(keys.size());
+		for (String key : keys) {
+			EntityState state = found.get(key);
+			if (state != null) {
+				states.add(state);
+			}
+		}
+		return states;
+	}
+
+	/**
+	 * Verifies if a selection joins a collection of the entity.
+	 * 
+	 * @param entity    Entity class type.
+	 * @param selection Selected properties.
+	 * @return          true when a dotted property goes through a collection.
+	 */
+	private boolean hasCollectionJoin(Class<T> entity, List<String> selection) {
+		Metamodel metamodel = getEntityManager().getMetamodel();
+		for (String property : selection) {
+			ManagedType<?> type = metamodel.managedType(entity);
+			String[] path = property.split("\\.");
+			for (int i = 0; i < path.length - 1; i++) {
+				Attribute<?, ?> attribute = type.getAttribute(path[i]);
+				if (attribute.isCollection()) {
+					return true;
+				}
+				type = metamodel.managedType(attribute.getJavaType());
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Names of the single valued properties of an entity.
+	 * 
+	 * @param entity Entity class type.
+	 * @return       Names of the properties, sorted.
+	 */
+	protected List<String> getSingularProperties(Class<T> entity) {
+		List<String> properties = new ArrayList<String>();
+		for (SingularAttribute<? super T, ?> attribute : getEntityManager().getMetamodel().entity(entity).getSingularAttributes()) {
+			properties.add(attribute.getName());
+		}
+		Collections.sort(properties);
+		return properties;
+	}
+	
+	/**
+	 * Verifies if no entity can meet a rsql condition, so the query can be skipped.
+	 * 
+	 * @param rsql RSQL string.
+	 * @return     true when the condition is a contradiction.
+	 */
+	protected boolean isUnsatisfiable(String rsql) {
+		return new CriteriaSnippetWhereRsqlDecorator<T, T>(rsql, null).isUnsatisfiable();
+	}
+	
+	/**
+	 * Verifies if no entity can meet the condition of a snippet, timing the 
+	 * parse of the condition. The parsed tree stays in the snippet.
+	 * 
+	 * @param operation Operation of the service.
+	 * @param entity    Entity class type.
+	 * @param snippet   Snippet with the rsql condition.
+	 * @return          true when the condition is a contradiction.
+	 */
+	protected boolean isUnsatisfiable(String operation, Class<T> entity, AbstractCriteriaSnippetRsqlDecorator<?, T> snippet) {
+		QueryInstrumentation instrumentation = getInstrumentation();
+		snippet.types(new RsqlSelectorTypes(getEntityManager().getMetamodel(), entity));
+		if (instrumentation == QueryInstrumentation.NONE) {
+			return snippet.isUnsatisfiable();
+		}
+		long start = System.nanoTime();
+		try {
+			return snippet.isUnsatisfiable();
+		} finally {
+			instrumentation.record(entity, operation, QueryPhase.PARSE, System.nanoTime() - start);
+		}
 	}
 	
 	/**
@@ -87,10 +528,59 @@ public class DefaultEntityQueryService<T> extends AbstractEntityQueryService<T>
 	 * @return           Query with applied algorithms.
 	 */
 	protected TypedQuery<T> buildEntityQuery(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize) {
-		CriteriaSnippetWhereRsqlDecorator<T, T> rsqlSnippet = new CriteriaSnippetWhereRsqlDecorator<T, T>(rsql, null);
+		return this.buildEntityQuery(DEFAULT_OPERATION, entity, properties, rsql, page, pageSize);
+	}
+	
+	/**
+	 * Build a entity query with where condition, partial properties and pagination 
+	 * for an operation of the service.
+	 * 
+	 * @param operation  Operation of the service.
+	 * @param entity     Entity class type.
+	 * @param properties List of properties of the partial list.
+	 * @param rsql       RSQL string for where clause.
+	 * @param page       Page number (starts with 1).
+	 * @param pageSize   Page size   (starts with 1).
+	 * @return           Query with applied algorithms.
+	 */
+	protected TypedQuery<T> buildEntityQuery(String operation, Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize) {
+		return this.buildEntityQuery(operation, entity, properties, rsql, null, page, pageSize);
+	}
+	
+	/**
+	 * Build a entity query with where condition already parsed, partial properties 
+	 * and pagination for an operation of the service.
+	 * 
+	 * @param operation  Operation of the service.
+	 * @param entity     Entity class type.
+	 * @param properties List of properties of the partial list.
+	 * @param rsql       RSQL string for where clause.
+	 * @param node       Parsed tree of the RSQL string, null to parse it.
+	 * @param page       Page number (starts with 1).
+	 * @param pageSize   Page size   (starts with 1).
+	 * @return           Query with applied algorithms.
+	 */
+	protected TypedQuery<T> buildEntityQuery(String operation, Class<T> entity, List<String> properties, String rsql, Node node, Integer page, Integer pageSize) {
+		CriteriaSnippetWhereRsqlDecorator<T, T> rsqlSnippet = new CriteriaSnippetWhereRsqlDecorator<T, T>(rsql, node, isBindParameters(), null);
 		CriteriaSnippetPartialDecorator<T, T> partialSnippet = new CriteriaSnippetPartialDecorator<T, T>(properties, rsqlSnippet);
 		CriteriaSnippetPaginationDecorator<T, T> paginationSnippet = new CriteriaSnippetPaginationDecorator<T, T>(page, pageSize, partialSnippet);
-		return this.<T>buildQueryTemplateMethod(entity, entity, paginationSnippet);
+		return this.<T>buildQueryTemplateMethod(operation, entity, entity, fetchGraph(properties, paginationSnippet));
+	}
+	
+	/**
+	 * Decorate an entity query with the configured fetch graph, partial 
+	 * results have no graph.
+	 * 
+	 * @param properties List of properties of the partial list.
+	 * @param snippet    Snippet of the entity query.
+	 * @return           Decorated snippet.
+	 */
+	protected CriteriaSnippet<T, T> fetchGraph(List<String> properties, CriteriaSnippet<T, T> snippet) {
+		CriteriaSnippet<T, T> decorated = snippet;
+		if (getFetchGraphHint() != null && properties == null) {
+			decorated = new CriteriaSnippetFetchGraphDecorator<T, T>(getFetchGraphHint(), getFetchGraphDepth(), snippet);
+		}
+		return decorated;
 	}
 	
 	/**
@@ -101,9 +591,64 @@ public class DefaultEntityQueryService<T> extends AbstractEntityQueryService<T>
 	 * @return        Query with applied algorithms.
 	 */
 	protected TypedQuery<Long> buildCountQuery(Class<T> entity, String rsql) {
-		CriteriaSnippetWhereRsqlDecorator<Long, T> rsqlSnippet = new CriteriaSnippetWhereRsqlDecorator<Long, T>(rsql, null);
+		return this.buildCountQuery(entity, rsql, null);
+	}
+	
+	/**
+	 * Build a count query with where condition already parsed.
+	 * 
+	 * @param entity  Entity class type.
+	 * @param rsql    RSQL string for where clause.
+	 * @param node    Parsed tree of the RSQL string, null to parse it.
+	 * @return        Query with applied algorithms.
+	 */
+	protected TypedQuery<Long> buildCountQuery(Class<T> entity, String rsql, Node node) {
+		return this.buildCountQuery(DEFAULT_OPERATION, entity, rsql, node);
+	}
+	
+	/**
+	 * Build a count query with where condition already parsed for an operation 
+	 * of the service.
+	 * 
+	 * @param operation Operation of the service.
+	 * @param entity    Entity class type.
+	 * @param rsql      RSQL string for where clause.
+	 * @param node      Parsed tree of the RSQL string, null to parse it.
+	 * @return          Query with applied algorithms.
+	 */
+	protected TypedQuery<Long> buildCountQuery(String operation, Class<T> entity, String rsql, Node node) {
+		CriteriaSnippetWhereRsqlDecorator<Long, T> rsqlSnippet = new CriteriaSnippetWhereRsqlDecorator<Long, T>(rsql, node, isBindParameters(), null);
 		CriteriaSnippetCountDecorator<T> countSnippet = new CriteriaSnippetCountDecorator<T>(rsqlSnippet);
-		return this.<Long>buildQueryTemplateMethod(Long.class, entity, countSnippet);
+		return this.<Long>buildQueryTemplateMethod(operation, Long.class, entity, countSnippet);
+	}
+
+	/**
+	 * Resolve the strategy of a count: the configured one when not given, 
+	 * and CACHED (logged at FINE) for an estimated count with condition, 
+	 * since only the whole table has statistics.
+	 * 
+	 * @param rsql     RSQL string, null without condition.
+	 * @param strategy Strategy of the call, null for the configured one.
+	 * @return         Strategy of the count.
+	 */
+	protected CountStrategy resolveCountStrategy(String rsql, CountStrategy strategy) {
+		CountStrategy resolved = (strategy == null) ? getCountStrategy() : strategy;
+		if (resolved == CountStrategy.ESTIMATED && rsql != null) {
+			LOGGER.log(Level.FINE, "Only the whole table has statistics, the count of {0} is cached instead of estimated.", rsql);
+			resolved = CountStrategy.CACHED;
+		}
+		return resolved;
+	}
+
+	/**
+	 * Key of a cached count, the entity and the canonical rsql.
+	 * 
+	 * @param entity Entity class type.
+	 * @param node   Parsed tree of the rsql, null when there is no condition.
+	 * @return       Cache key.
+	 */
+	protected String countCacheKey(Class<T> entity, Node node) {
+		return (node == null) ? entity.getName() : entity.getName() + '?' + RsqlCanonicalizer.toRsql(node);
 	}
 
 	/**
@@ -117,6 +662,22 @@ public class DefaultEntityQueryService<T> extends AbstractEntityQueryService<T>
 	 * 					  When entity is null.
 	 */
 	protected <R> TypedQuery<R> buildQueryTemplateMethod(Class<R> resultClass, Class<T> entity, CriteriaSnippet<R,T> snippet) {
+		return this.<R>buildQueryTemplateMethod(DEFAULT_OPERATION, resultClass, entity, snippet);
+	}
+
+	/**
+	 * Build a query template method for an operation of the service, each 
+	 * phase is timed by the instrumentation.
+	 * 
+	 * @param operation   Operation of the service.
+	 * @param resultClass Result class type.
+	 * @param entity      Entity class type.
+	 * @param snippet     Algorithm snippet.
+	 * @return            Builded query defined by the algorithm snippet.
+	 * @throws IllegalArgumentException 
+	 * 					  When entity is null.
+	 */
+	protected <R> TypedQuery<R> buildQueryTemplateMethod(String operation, Class<R> resultClass, Class<T> entity, CriteriaSnippet<R,T> snippet) {
 		TypedQuery<R> query = null;
 
 		if (entity == null) {
@@ -124,16 +685,69 @@ public class DefaultEntityQueryService<T> extends AbstractEntityQueryService<T>
 		}
 
 		if(snippet.validate()) {
+			QueryInstrumentation instrumentation = getInstrumentation();
+			boolean timed = instrumentation != QueryInstrumentation.NONE;
+			long start = timed ? System.nanoTime() : 0L;
 			CriteriaBuilder builder = getEntityManager().getCriteriaBuilder();
 			CriteriaQuery<R> criteria = builder.createQuery(resultClass);
 			criteria = snippet.modify(criteria, resultClass, entity, getEntityManager());
+			long modified = timed ? System.nanoTime() : 0L;
 			query = getEntityManager().createQuery(criteria);
+			long created = timed ? System.nanoTime() : 0L;
 			query = snippet.configure(query);
 			if (this.getQueryConfiguration() != null) {
 				this.getQueryConfiguration().applyConfiguration(query);
 			}
+			if (timed) {
+				instrumentation.record(entity, operation, QueryPhase.MODIFY, modified - start);
+				instrumentation.record(entity, operation, QueryPhase.CREATE_QUERY, created - modified);
+				instrumentation.record(entity, operation, QueryPhase.CONFIGURE, System.nanoTime() - created);
+				instrumentation.created(entity, operation, query);
+			}
 		}
 
 		return query;
-	}	
+	}
+	
+	/**
+	 * Execute a query for a list of results, timed by the instrumentation.
+	 * 
+	 * @param operation Operation of the service.
+	 * @param entity    Entity class type.
+	 * @param query     Query to execute.
+	 * @return          Results of the query.
+	 */
+	protected <R> List<R> resultList(String operation, Class<T> entity, TypedQuery<R> query) {
+		QueryInstrumentation instrumentation = getInstrumentation();
+		if (instrumentation == QueryInstrumentation.NONE) {
+			return query.getResultList();
+		}
+		long start = System.nanoTime();
+		try {
+			return query.getResultList();
+		} finally {
+			instrumentation.record(entity, operation, QueryPhase.EXECUTE, System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * Execute a query for a single result, timed by the instrumentation.
+	 * 
+	 * @param operation Operation of the service.
+	 * @param entity    Entity class type.
+	 * @param query     Query to execute.
+	 * @return          Single result of the query.
+	 */
+	protected <R> R singleResult(String operation, Class<T> entity, TypedQuery<R> query) {
+		QueryInstrumentation instrumentation = getInstrumentation();
+		if (instrumentation == QueryInstrumentation.NONE) {
+			return query.getSingleResult();
+		}
+		long start = System.nanoTime();
+		try {
+			return query.getSingleResult();
+		} finally {
+			instrumentation.record(entity, operation, QueryPhase.EXECUTE, System.nanoTime() - start);
+		}
+	}
 }
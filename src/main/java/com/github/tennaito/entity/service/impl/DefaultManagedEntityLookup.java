@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.impl;
+
+import java.lang.reflect.Method;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+
+/**
+ * DefaultManagedEntityLookup.
+ * 
+ * Reads the persistence context of EclipseLink (the identity map of its 
+ * UnitOfWork) through ProviderReflection. With other providers nothing is 
+ * managed and every entity is queried.
+ * 
+ * The entity found is only returned when the EntityManager contains it.
+ * 
+ * @author Antonio Rabelo
+ */
+public class DefaultManagedEntityLookup implements ManagedEntityLookup {
+
+	/**
+	 * UnitOfWork class of EclipseLink, null when it is not in the classpath.
+	 */
+	private static final Class<?> UNIT_OF_WORK = ProviderReflection.findClass("org.eclipse.persistence.sessions.UnitOfWork");
+
+	/**
+	 * UnitOfWork.getIdentityMapAccessor() method.
+	 */
+	private static final Method GET_IDENTITY_MAP_ACCESSOR = ProviderReflection.findMethod(UNIT_OF_WORK, "getIdentityMapAccessor");
+
+	/**
+	 * IdentityMapAccessor.getFromIdentityMap(Object, Class) method.
+	 */
+	private static final Method GET_FROM_IDENTITY_MAP = ProviderReflection.findMethod(ProviderReflection.findClass("org.eclipse.persistence.sessions.IdentityMapAccessor"), 
+			"getFromIdentityMap", Object.class, Class.class);
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.ManagedEntityLookup#find(javax.persistence.EntityManager, java.lang.Class, java.lang.Object)
+	 */
+	public <E> E find(EntityManager manager, Class<E> entity, Object id) {
+		E managed = null;
+		if (GET_IDENTITY_MAP_ACCESSOR != null && GET_FROM_IDENTITY_MAP != null && id != null) {
+			try {
+				Object unitOfWork = manager.unwrap(UNIT_OF_WORK);
+				Object found = GET_FROM_IDENTITY_MAP.invoke(GET_IDENTITY_MAP_ACCESSOR.invoke(unitOfWork), id, entity);
+				if (entity.isInstance(found) && manager.contains(found)) {
+					managed = entity.cast(found);
+				}
+			} catch (PersistenceException e) {
+				// the EntityManager is not from EclipseLink
+			} catch (ReflectiveOperationException e) {
+				// the entity is queried
+			}
+		}
+		return managed;
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.NoResultException;
+import javax.persistence.TypedQuery;
+
+import com.github.tennaito.entity.service.PreparedEntityQuery;
+import com.github.tennaito.entity.service.snippet.CriteriaSnippetPaginationDecorator;
+import com.github.tennaito.entity.service.snippet.CriteriaSnippetWhereRsqlDecorator;
+
+/**
+ * DefaultPreparedEntityQuery.
+ * 
+ * Keeps the TypedQuery built by the service and the where snippet that 
+ * knows its bind parameters. As the TypedQuery it is bound to the 
+ * EntityManager that created it and must not be shared between threads.
+ * 
+ * @author Antonio Rabelo
+ */
+public class DefaultPreparedEntityQuery<T> implements PreparedEntityQuery<T> {
+
+	/**
+	 * Query built once.
+	 */
+	private final TypedQuery<T> query;
+
+	/**
+	 * Where snippet used to build the query.
+	 */
+	private final CriteriaSnippetWhereRsqlDecorator<T, T> whereSnippet;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param query        Query built once.
+	 * @param whereSnippet Parameterized where snippet used to build the query.
+	 */
+	public DefaultPreparedEntityQuery(TypedQuery<T> query, CriteriaSnippetWhereRsqlDecorator<T, T> whereSnippet) {
+		if (query == null || whereSnippet == null) {
+			throw new IllegalArgumentException("Must define the query and the where snippet.");
+		}
+		this.query = query;
+		this.whereSnippet = whereSnippet;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.PreparedEntityQuery#querySingle(java.lang.String)
+	 */
+	public T querySingle(String rsql) {
+		if (isUnsatisfiable(rsql)) {
+			throw new NoResultException("No entity meets the condition: " + rsql);
+		}
+		return bind(rsql, null, null).getSingleResult();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.PreparedEntityQuery#queryWhere(java.lang.String, java.lang.Integer, java.lang.Integer)
+	 */
+	public List<T> queryWhere(String rsql, Integer page, Integer pageSize) {
+		if (isUnsatisfiable(rsql)) {
+			return new ArrayList<T>();
+		}
+		return bind(rsql, page, pageSize).getResultList();
+	}
+
+	/**
+	 * Verifies if no entity can meet a rsql condition, so the query is not executed.
+	 * 
+	 * @param rsql RSQL string.
+	 * @return     true when the condition is a contradiction.
+	 */
+	protected boolean isUnsatisfiable(String rsql) {
+		return new CriteriaSnippetWhereRsqlDecorator<T, T>(rsql, null).types(this.whereSnippet.getTypes()).isUnsatisfiable();
+	}
+
+	/**
+	 * Bind the rsql values and the pagination into the query.
+	 * 
+	 * @param rsql     RSQL string.
+	 * @param page     Page number (starts with 1).
+	 * @param pageSize Page size   (starts with 1).
+	 * @return         The query ready to be executed.
+	 */
+	protected TypedQuery<T> bind(String rsql, Integer page, Integer pageSize) {
+		CriteriaSnippetPaginationDecorator<T, T> paginationSnippet = new CriteriaSnippetPaginationDecorator<T, T>(page, pageSize, this.whereSnippet);
+		paginationSnippet.validate();
+		this.whereSnippet.bind(rsql);
+		// clear the pagination of the previous execution
+		this.query.setFirstResult(0);
+		this.query.setMaxResults(Integer.MAX_VALUE);
+		return paginationSnippet.configure(this.query);
+	}
+}
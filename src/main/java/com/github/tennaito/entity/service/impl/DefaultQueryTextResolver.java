@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.impl;
+
+import java.lang.reflect.Method;
+
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+
+/**
+ * DefaultQueryTextResolver.
+ * 
+ * Reads the SQL of EclipseLink queries (or their JPQL when there is no SQL 
+ * yet) and the HQL of Hibernate queries through ProviderReflection. With 
+ * other providers the statement is unknown.
+ * 
+ * @author Antonio Rabelo
+ */
+public class DefaultQueryTextResolver implements QueryTextResolver {
+
+	/**
+	 * JpaQuery class of EclipseLink, null when it is not in the classpath.
+	 */
+	private static final Class<?> ECLIPSELINK_QUERY = ProviderReflection.findClass("org.eclipse.persistence.jpa.JpaQuery");
+
+	/**
+	 * JpaQuery.getDatabaseQuery() method.
+	 */
+	private static final Method GET_DATABASE_QUERY = ProviderReflection.findMethod(ECLIPSELINK_QUERY, "getDatabaseQuery");
+
+	/**
+	 * DatabaseQuery class of EclipseLink.
+	 */
+	private static final Class<?> DATABASE_QUERY = ProviderReflection.findClass("org.eclipse.persistence.queries.DatabaseQuery");
+
+	/**
+	 * DatabaseQuery.getSQLString() method.
+	 */
+	private static final Method GET_SQL_STRING = ProviderReflection.findMethod(DATABASE_QUERY, "getSQLString");
+
+	/**
+	 * DatabaseQuery.getJPQLString() method.
+	 */
+	private static final Method GET_JPQL_STRING = ProviderReflection.findMethod(DATABASE_QUERY, "getJPQLString");
+
+	/**
+	 * Query class of Hibernate, null when it is not in the classpath.
+	 */
+	private static final Class<?> HIBERNATE_QUERY = ProviderReflection.findClass("org.hibernate.query.Query");
+
+	/**
+	 * Query.getQueryString() method.
+	 */
+	private static final Method GET_QUERY_STRING = ProviderReflection.findMethod(HIBERNATE_QUERY, "getQueryString");
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.QueryTextResolver#resolve(javax.persistence.Query)
+	 */
+	public String resolve(Query query) {
+		String text = null;
+		if (GET_DATABASE_QUERY != null && GET_SQL_STRING != null && GET_JPQL_STRING != null) {
+			Object databaseQuery = invoke(unwrap(query, ECLIPSELINK_QUERY), GET_DATABASE_QUERY);
+			text = (String) invoke(databaseQuery, GET_SQL_STRING);
+			if (text == null) {
+				text = (String) invoke(databaseQuery, GET_JPQL_STRING);
+			}
+		}
+		if (text == null && GET_QUERY_STRING != null) {
+			text = (String) invoke(unwrap(query, HIBERNATE_QUERY), GET_QUERY_STRING);
+		}
+		return text;
+	}
+
+	/**
+	 * Unwrap the query of the provider.
+	 * 
+	 * @param query Query.
+	 * @param type  Query class of the provider.
+	 * @return      Query of the provider, null when the query is not from the provider.
+	 */
+	private static Object unwrap(Query query, Class<?> type) {
+		Object unwrapped;
+		try {
+			unwrapped = query.unwrap(type);
+		} catch (PersistenceException e) {
+			unwrapped = null;
+		}
+		return unwrapped;
+	}
+
+	/**
+	 * Invoke a method without parameters.
+	 * 
+	 * @param target Target object, null for none.
+	 * @param method Method.
+	 * @return       Result of the method, null when there is no target or it fails.
+	 */
+	private static Object invoke(Object target, Method method) {
+		Object result = null;
+		if (target != null && method.getDeclaringClass().isInstance(target)) {
+			try {
+				result = method.invoke(target);
+			} catch (ReflectiveOperationException e) {
+				// the statement is unknown
+				result = null;
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.impl;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.Query;
+
+/**
+ * HistogramQueryInstrumentation.
+ * 
+ * Keeps a LatencyHistogram for each entity, operation and phase. Recording 
+ * is lock-free, the histogram of a key is created by the first latency.
+ * 
+ * @author Antonio Rabelo
+ */
+public class HistogramQueryInstrumentation implements QueryInstrumentation {
+
+	/**
+	 * Histograms keyed by "entity#operation#phase".
+	 */
+	private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.QueryInstrumentation#record(java.lang.Class, java.lang.String, com.github.tennaito.entity.service.impl.QueryPhase, long)
+	 */
+	public void record(Class<?> entity, String operation, QueryPhase phase, long nanos) {
+		String key = key(entity, operation, phase);
+		LatencyHistogram histogram = histograms.get(key);
+		if (histogram == null) {
+			LatencyHistogram created = new LatencyHistogram();
+			histogram = histograms.putIfAbsent(key, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		histogram.record(nanos);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.QueryInstrumentation#created(java.lang.Class, java.lang.String, javax.persistence.Query)
+	 */
+	public void created(Class<?> entity, String operation, Query query) {
+		// only latencies are kept
+	}
+
+	/**
+	 * Returns the histogram of a phase of an operation.
+	 * 
+	 * @param entity    Entity class type.
+	 * @param operation Operation of the service.
+	 * @param phase     Phase of the query.
+	 * @return          Histogram, null when nothing was recorded.
+	 */
+	public LatencyHistogram getHistogram(Class<?> entity, String operation, QueryPhase phase) {
+		return histograms.get(key(entity, operation, phase));
+	}
+
+	/**
+	 * Returns all the histograms.
+	 * 
+	 * @return Histograms sorted by their "entity#operation#phase" keys.
+	 */
+	public Map<String, LatencyHistogram> getHistograms() {
+		return Collections.unmodifiableMap(new TreeMap<String, LatencyHistogram>(histograms));
+	}
+
+	/**
+	 * Remove all the histograms.
+	 */
+	public void clear() {
+		histograms.clear();
+	}
+
+	/**
+	 * Key of a histogram.
+	 * 
+	 * @param entity    Entity class type.
+	 * @param operation Operation of the service.
+	 * @param phase     Phase of the query.
+	 * @return          "entity#operation#phase" key.
+	 */
+	private static String key(Class<?> entity, String operation, QueryPhase phase) {
+		return entity.getName() + '#' + operation + '#' + phase;
+	}
+}
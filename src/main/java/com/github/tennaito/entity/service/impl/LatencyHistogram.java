@@ -0,0 +1,186 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram.
+ * 
+ * Lock-free histogram of latencies with a bucket for each power of two 
+ * nanoseconds. Percentiles are the upper bound of their bucket, so they 
+ * are at most twice the real value (and never above the max).
+ * 
+ * @author Antonio Rabelo
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Number of buckets, one for zero and one for each bit of a positive long.
+	 */
+	private static final int BUCKETS = 64;
+
+	/**
+	 * Count of each bucket, the bucket i holds the latencies below 2^i nanoseconds.
+	 */
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * Count of latencies.
+	 */
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * Sum of latencies in nanoseconds.
+	 */
+	private final AtomicLong sum = new AtomicLong();
+
+	/**
+	 * Max latency in nanoseconds.
+	 */
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record a latency.
+	 * 
+	 * @param nanos Latency in nanoseconds, negative ones are recorded as zero.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		buckets.incrementAndGet(bucket(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Returns the count of latencies.
+	 * 
+	 * @return Count of latencies.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the sum of latencies.
+	 * 
+	 * @param unit Unit of the result.
+	 * @return     Sum of latencies.
+	 */
+	public long getSum(TimeUnit unit) {
+		return unit.convert(sum.get(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the mean latency.
+	 * 
+	 * @param unit Unit of the result.
+	 * @return     Mean latency, zero without latencies.
+	 */
+	public long getMean(TimeUnit unit) {
+		long total = count.get();
+		return (total == 0) ? 0 : unit.convert(sum.get() / total, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the max latency.
+	 * 
+	 * @param unit Unit of the result.
+	 * @return     Max latency, zero without latencies.
+	 */
+	public long getMax(TimeUnit unit) {
+		return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns a percentile of the latencies.
+	 * 
+	 * @param percentile Percentile (between 0 and 100).
+	 * @param unit       Unit of the result.
+	 * @return           Upper bound of the bucket of the percentile, zero without latencies.
+	 * @throws IllegalArgumentException 
+	 *                   When percentile is not between 0 and 100.
+	 */
+	public long getPercentile(double percentile, TimeUnit unit) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+		}
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		long result = 0;
+		if (total > 0) {
+			long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+			long seen = 0;
+			int i = 0;
+			while (i < BUCKETS - 1 && seen + counts[i] < rank) {
+				seen += counts[i];
+				i++;
+			}
+			result = Math.min(upperBound(i), max.get());
+		}
+		return unit.convert(result, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Bucket of a latency.
+	 * 
+	 * @param nanos Latency in nanoseconds (not negative).
+	 * @return      Index of the bucket.
+	 */
+	private static int bucket(long nanos) {
+		return BUCKETS - Long.numberOfLeadingZeros(nanos);
+	}
+
+	/**
+	 * Upper bound of the latencies of a bucket.
+	 * 
+	 * @param bucket Index of the bucket.
+	 * @return       Max latency in nanoseconds.
+	 */
+	private static long upperBound(int bucket) {
+		return (bucket == BUCKETS - 1) ? Long.MAX_VALUE : (1L << bucket) - 1;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "count=" + getCount() 
+			+ " mean=" + getMean(TimeUnit.MICROSECONDS) + "us"
+			+ " p50=" + getPercentile(50, TimeUnit.MICROSECONDS) + "us"
+			+ " p99=" + getPercentile(99, TimeUnit.MICROSECONDS) + "us"
+			+ " max=" + getMax(TimeUnit.MICROSECONDS) + "us";
+	}
+}
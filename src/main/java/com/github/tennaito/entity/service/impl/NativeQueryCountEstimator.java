@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.impl;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Table;
+
+/**
+ * NativeQueryCountEstimator.
+ * 
+ * Reads the row count estimated by the database statistics with a native 
+ * query that receives the table name of the entity as first parameter. 
+ * The statistics query is specific to each database, like the reltuples 
+ * of pg_class in PostgreSQL.
+ * 
+ * @author Antonio Rabelo
+ */
+public class NativeQueryCountEstimator implements CountEstimator {
+
+	/**
+	 * Native statistics query.
+	 */
+	private final String sql;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param sql Native query returning the estimated row count of the table 
+	 *            named by the first parameter.
+	 */
+	public NativeQueryCountEstimator(String sql) {
+		if (sql == null) {
+			throw new IllegalArgumentException("Must define the statistics query.");
+		}
+		this.sql = sql;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.CountEstimator#estimate(javax.persistence.EntityManager, java.lang.Class)
+	 */
+	public Long estimate(EntityManager manager, Class<?> entity) {
+		List<?> rows = manager.createNativeQuery(this.sql).setParameter(1, tableName(manager, entity)).getResultList();
+		Long estimate = null;
+		if (!rows.isEmpty() && rows.get(0) instanceof Number) {
+			long value = ((Number)rows.get(0)).longValue();
+			// some databases report negative values for tables never analyzed
+			estimate = (value < 0) ? null : value;
+		}
+		return estimate;
+	}
+
+	/**
+	 * Table name of the entity, the name of the Table annotation or the entity name.
+	 * 
+	 * @param manager EntityManager.
+	 * @param entity  Entity class type.
+	 * @return        Table name.
+	 */
+	protected String tableName(EntityManager manager, Class<?> entity) {
+		Table table = entity.getAnnotation(Table.class);
+		String name;
+		if (table != null && table.name().length() > 0) {
+			name = table.name();
+		} else {
+			name = manager.getMetamodel().entity(entity).getName();
+		}
+		return name;
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.impl;
+
+import java.lang.reflect.Method;
+
+/**
+ * ProviderReflection.
+ * 
+ * Finds the classes and methods of the JPA providers by reflection, so 
+ * there is no compile time dependency on them. What is not in the 
+ * classpath is null.
+ * 
+ * @author Antonio Rabelo
+ */
+final class ProviderReflection {
+
+	/**
+	 * Utility class.
+	 */
+	private ProviderReflection() {
+	}
+
+	/**
+	 * Find a class of the provider.
+	 * 
+	 * @param name Class name.
+	 * @return     Class, null when it is not in the classpath.
+	 */
+	static Class<?> findClass(String name) {
+		Class<?> type;
+		try {
+			type = Class.forName(name, false, ProviderReflection.class.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			type = null;
+		} catch (LinkageError e) {
+			type = null;
+		}
+		return type;
+	}
+
+	/**
+	 * Find a public method of a class of the provider.
+	 * 
+	 * @param type       Class, null when it is not in the classpath.
+	 * @param name       Method name.
+	 * @param parameters Parameter types.
+	 * @return           Method, null when it does not exist.
+	 */
+	static Method findMethod(Class<?> type, String name, Class<?>... parameters) {
+		Method method = null;
+		if (type != null) {
+			try {
+				method = type.getMethod(name, parameters);
+			} catch (NoSuchMethodException e) {
+				method = null;
+			}
+		}
+		return method;
+	}
+}
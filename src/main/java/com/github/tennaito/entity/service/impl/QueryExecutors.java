@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.impl;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * QueryExecutors.
+ * 
+ * Executors for the asynchronous queries.
+ * 
+ * @author Antonio Rabelo
+ */
+public final class QueryExecutors {
+
+	/**
+	 * Factory method of the virtual thread per task executor (JDK 21+), 
+	 * null on older JDKs.
+	 */
+	private static final Method VIRTUAL_THREAD_PER_TASK = findVirtualThreadPerTask();
+
+	/**
+	 * Utility class.
+	 */
+	private QueryExecutors() {
+	}
+
+	/**
+	 * Verifies if the running JDK has virtual threads.
+	 * 
+	 * @return true on JDK 21+.
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return VIRTUAL_THREAD_PER_TASK != null;
+	}
+
+	/**
+	 * Executor that starts a new virtual thread for each query, so a query 
+	 * blocked on the database does not hold a platform thread.
+	 * 
+	 * @return Virtual thread per task executor.
+	 * @throws UnsupportedOperationException
+	 * 				When the running JDK does not have virtual threads.
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor() {
+		if (VIRTUAL_THREAD_PER_TASK == null) {
+			throw new UnsupportedOperationException("Virtual threads require JDK 21 or newer.");
+		}
+		try {
+			return (ExecutorService)VIRTUAL_THREAD_PER_TASK.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException(e);
+		}
+	}
+
+	/**
+	 * Executor with a fixed number of platform threads, usually the size of 
+	 * the connection pool.
+	 * 
+	 * @param threads Number of threads.
+	 * @return        Fixed thread pool executor.
+	 */
+	public static ExecutorService newFixedThreadPool(int threads) {
+		return Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * Finds the factory method of the virtual thread per task executor.
+	 * 
+	 * @return The method or null on older JDKs.
+	 */
+	private static Method findVirtualThreadPerTask() {
+		Method method;
+		try {
+			method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			method = null;
+		}
+		return method;
+	}
+}
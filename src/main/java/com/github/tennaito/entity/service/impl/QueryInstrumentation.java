@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.impl;
+
+import javax.persistence.Query;
+
+/**
+ * QueryInstrumentation.
+ * 
+ * Receives the latency of each phase of the queries of a service, tagged 
+ * by entity and operation. It is called by the threads of the queries, so 
+ * it must be thread-safe and cheap.
+ * 
+ * @author Antonio Rabelo
+ */
+public interface QueryInstrumentation {
+
+	/**
+	 * Instrumentation that records nothing, the service does not even read 
+	 * the clock.
+	 */
+	public static final QueryInstrumentation NONE = new QueryInstrumentation() {
+		public void record(Class<?> entity, String operation, QueryPhase phase, long nanos) {
+		}
+
+		public void created(Class<?> entity, String operation, Query query) {
+		}
+	};
+
+	/**
+	 * Record the latency of a query phase.
+	 * 
+	 * @param entity    Entity class type.
+	 * @param operation Operation of the service (like "queryWhere").
+	 * @param phase     Phase of the query.
+	 * @param nanos     Latency in nanoseconds.
+	 */
+	public void record(Class<?> entity, String operation, QueryPhase phase, long nanos);
+
+	/**
+	 * Receive a query created and configured by the service, before its 
+	 * execution.
+	 * 
+	 * @param entity    Entity class type.
+	 * @param operation Operation of the service (like "queryWhere").
+	 * @param query     Query created.
+	 */
+	public void created(Class<?> entity, String operation, Query query);
+}
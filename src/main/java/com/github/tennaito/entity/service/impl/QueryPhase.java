@@ -0,0 +1,58 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.impl;
+
+/**
+ * Phases of a query timed by a QueryInstrumentation.
+ * 
+ * @author Antonio Rabelo
+ */
+public enum QueryPhase {
+
+	/**
+	 * Parse of the rsql condition, done once by the service and reused by the 
+	 * other phases.
+	 */
+	PARSE,
+
+	/**
+	 * Criteria query created and modified by the snippets.
+	 */
+	MODIFY,
+
+	/**
+	 * Criteria query translated into a query by the EntityManager.
+	 */
+	CREATE_QUERY,
+
+	/**
+	 * Query configured by the snippets and the QueryConfiguration.
+	 */
+	CONFIGURE,
+
+	/**
+	 * Query executed in the database and its results read.
+	 */
+	EXECUTE
+}
@@ -0,0 +1,474 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import javax.persistence.Query;
+import javax.persistence.Tuple;
+
+import com.github.tennaito.entity.service.Aggregate;
+import com.github.tennaito.entity.service.CountStrategy;
+import com.github.tennaito.entity.service.EntityQueryService;
+import com.github.tennaito.entity.service.data.EntityState;
+import com.github.tennaito.entity.service.data.KeysetPage;
+import com.github.tennaito.entity.service.data.PageResult;
+
+/**
+ * SlowQueryLogEntityQueryService.
+ * 
+ * Logs a SlowQueryRecord for each sampled call that goes over a threshold. 
+ * The record is the parameter of the log record, so a handler can read it 
+ * as structured data.
+ * 
+ * When the decorated service (or a service given to capture) is an 
+ * AbstractEntityQueryService, its QueryInstrumentation is wrapped once by 
+ * a forwarding one that collects the time of each phase and the statements 
+ * of the sampled call of the thread, and does nothing more than forward 
+ * the calls that are not sampled. Those calls cost a random number (no 
+ * more than a level check when the logger discards the level) besides the 
+ * clock reads of an instrumented service.
+ * 
+ * The capture is bound to the calling thread: the queries a service runs 
+ * on the threads of an executor (like the partitions and facets of a 
+ * ConcurrentEntityQueryService) are not in the record, only the time of 
+ * the whole call.
+ * 
+ * @author Antonio Rabelo
+ */
+public class SlowQueryLogEntityQueryService<T> extends AbstractEntityQueryServiceDecorator<T> {
+
+	/**
+	 * Default logger of the slow queries.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(SlowQueryLogEntityQueryService.class.getName());
+
+	/**
+	 * Threshold in nanoseconds.
+	 */
+	private final long threshold;
+
+	/**
+	 * Fraction of the calls that are sampled.
+	 */
+	private volatile double sampleRate = 1;
+
+	/**
+	 * Logger of the slow queries.
+	 */
+	private volatile Logger logger = LOGGER;
+
+	/**
+	 * Level of the slow queries.
+	 */
+	private volatile Level level = Level.WARNING;
+
+	/**
+	 * Resolver of the statements, null to not resolve them.
+	 */
+	private volatile QueryTextResolver queryTextResolver = new DefaultQueryTextResolver();
+
+	/**
+	 * Capture of the sampled call of each thread.
+	 */
+	private final ThreadLocal<Capture> capture = new ThreadLocal<Capture>();
+
+	/**
+	 * Number of calls sampled.
+	 */
+	private final AtomicLong sampled = new AtomicLong();
+
+	/**
+	 * Number of calls logged.
+	 */
+	private final AtomicLong slow = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param service   Service to be decorated.
+	 * @param threshold Time from which a call is logged.
+	 * @param unit      Unit of the threshold.
+	 * @throws IllegalArgumentException 
+	 *                  When threshold is negative.
+	 */
+	public SlowQueryLogEntityQueryService(EntityQueryService<T> service, long threshold, TimeUnit unit) {
+		super(service);
+		if (threshold < 0) {
+			throw new IllegalArgumentException("Threshold must not be negative.");
+		}
+		this.threshold = unit.toNanos(threshold);
+		if (service instanceof AbstractEntityQueryService) {
+			capture((AbstractEntityQueryService<?>) service);
+		}
+	}
+
+	/**
+	 * Collect the phases and statements of a service inside the decorated 
+	 * one (like the delegate of a caching service). Its instrumentation 
+	 * is wrapped and keeps recording, so the service must not be given 
+	 * another instrumentation afterwards.
+	 * 
+	 * @param service Service that executes the queries.
+	 * @return the owner object.
+	 */
+	public SlowQueryLogEntityQueryService<T> capture(AbstractEntityQueryService<?> service) {
+		service.instrumentation(new CaptureInstrumentation(service.getInstrumentation()));
+		return this;
+	}
+
+	/**
+	 * Fraction of the calls that are sampled.
+	 * 
+	 * @param rate Sample rate (between 0 and 1).
+	 * @return the owner object.
+	 * @throws IllegalArgumentException 
+	 *             When rate is not between 0 and 1.
+	 */
+	public SlowQueryLogEntityQueryService<T> sample(double rate) {
+		if (rate < 0 || rate > 1) {
+			throw new IllegalArgumentException("Sample rate must be between 0 and 1.");
+		}
+		this.sampleRate = rate;
+		return this;
+	}
+
+	/**
+	 * Logger and level of the slow queries.
+	 * 
+	 * @param logger Logger.
+	 * @param level  Level of the records.
+	 * @return the owner object.
+	 */
+	public SlowQueryLogEntityQueryService<T> logger(Logger logger, Level level) {
+		if (logger == null || level == null) {
+			throw new IllegalArgumentException("Must define the logger and the level.");
+		}
+		this.logger = logger;
+		this.level = level;
+		return this;
+	}
+
+	/**
+	 * Resolver of the statements of the queries.
+	 * 
+	 * @param queryTextResolver Resolver, null to not resolve the statements.
+	 * @return the owner object.
+	 */
+	public SlowQueryLogEntityQueryService<T> queryTextResolver(QueryTextResolver queryTextResolver) {
+		this.queryTextResolver = queryTextResolver;
+		return this;
+	}
+
+	/**
+	 * Number of calls sampled.
+	 * 
+	 * @return Sampled count.
+	 */
+	public long getSampledCount() {
+		return this.sampled.get();
+	}
+
+	/**
+	 * Number of calls logged as slow.
+	 * 
+	 * @return Slow count.
+	 */
+	public long getSlowCount() {
+		return this.slow.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#countWhere(java.lang.Class, java.lang.String, com.github.tennaito.entity.service.CountStrategy)
+	 */
+	@Override
+	public long countWhere(Class<T> entity, String rsql, CountStrategy strategy) {
+		return this.<Long>logged("countWhere", entity, rsql, () -> canonical(rsql), null, null, null, 
+				() -> super.countWhere(entity, rsql, strategy), result -> 1);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#countWhereMulti(java.lang.Class, java.util.List)
+	 */
+	@Override
+	public List<Long> countWhereMulti(Class<T> entity, List<String> rsqls) {
+		return this.<List<Long>>logged("countWhereMulti", entity, String.valueOf(rsqls), () -> String.valueOf(canonical(rsqls)), null, null, null, 
+				() -> super.countWhereMulti(entity, rsqls), result -> 1);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#facetWhere(java.lang.Class, java.lang.String, java.lang.String, java.lang.Integer)
+	 */
+	@Override
+	public Map<Object, Long> facetWhere(Class<T> entity, String rsql, String property, Integer limit) {
+		List<String> properties = new ArrayList<String>();
+		properties.add(property);
+		return this.<Map<Object, Long>>logged("facetWhere", entity, rsql, () -> canonical(rsql), properties, null, null, 
+				() -> super.facetWhere(entity, rsql, property, limit), result -> result.size());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#existsWhere(java.lang.Class, java.lang.String)
+	 */
+	@Override
+	public boolean existsWhere(Class<T> entity, String rsql) {
+		return this.<Boolean>logged("existsWhere", entity, rsql, () -> canonical(rsql), null, null, null, 
+				() -> super.existsWhere(entity, rsql), result -> result ? 1 : 0);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#querySingle(java.lang.Class, java.util.List, java.lang.String)
+	 */
+	@Override
+	public T querySingle(Class<T> entity, List<String> properties, String rsql) {
+		return this.<T>logged("querySingle", entity, rsql, () -> canonical(rsql), properties, null, null, 
+				() -> super.querySingle(entity, properties, rsql), result -> 1);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#queryWhere(java.lang.Class, java.util.List, java.lang.String, java.lang.Integer, java.lang.Integer)
+	 */
+	@Override
+	public List<T> queryWhere(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize) {
+		return this.<List<T>>logged("queryWhere", entity, rsql, () -> canonical(rsql), properties, page, pageSize, 
+				() -> super.queryWhere(entity, properties, rsql, page, pageSize), result -> result.size());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#queryStates(java.lang.Class, java.util.List, java.lang.String, java.lang.Integer, java.lang.Integer)
+	 */
+	@Override
+	public List<EntityState> queryStates(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize) {
+		return this.<List<EntityState>>logged("queryStates", entity, rsql, () -> canonical(rsql), properties, page, pageSize, 
+				() -> super.queryStates(entity, properties, rsql, page, pageSize), result -> result.size());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#findAllByIds(java.lang.Class, java.util.Collection, java.util.List)
+	 */
+	@Override
+	public List<T> findAllByIds(Class<T> entity, Collection<?> ids, List<String> properties) {
+		return this.<List<T>>logged("findAllByIds", entity, null, () -> null, properties, null, null, 
+				() -> super.findAllByIds(entity, ids, properties), result -> result.size());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#queryWhere(java.lang.Class, java.util.List, java.lang.String, java.lang.String, java.lang.String, java.lang.Integer)
+	 */
+	@Override
+	public KeysetPage<T> queryWhere(Class<T> entity, List<String> properties, String rsql, String sortKey, String continuationToken, Integer pageSize) {
+		return this.<KeysetPage<T>>logged("queryKeyset", entity, rsql, () -> canonical(rsql), properties, null, pageSize, 
+				() -> super.queryWhere(entity, properties, rsql, sortKey, continuationToken, pageSize), result -> result.getItems().size());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#queryPage(java.lang.Class, java.util.List, java.lang.String, java.lang.Integer, java.lang.Integer, boolean)
+	 */
+	@Override
+	public PageResult<T> queryPage(Class<T> entity, List<String> properties, String rsql, Integer page, Integer pageSize, boolean countTotal) {
+		return this.<PageResult<T>>logged("queryPage", entity, rsql, () -> canonical(rsql), properties, page, pageSize, 
+				() -> super.queryPage(entity, properties, rsql, page, pageSize, countTotal), result -> result.getItems().size());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.impl.AbstractEntityQueryServiceDecorator#aggregateWhere(java.lang.Class, java.lang.String, java.util.List, java.util.List)
+	 */
+	@Override
+	public List<Tuple> aggregateWhere(Class<T> entity, String rsql, List<String> groupBy, List<Aggregate> aggregates) {
+		return this.<List<Tuple>>logged("aggregateWhere", entity, rsql, () -> canonical(rsql), groupBy, null, null, 
+				() -> super.aggregateWhere(entity, rsql, groupBy, aggregates), result -> result.size());
+	}
+
+	/**
+	 * Execute a call and log it when it is sampled and slow.
+	 * 
+	 * @param operation  Operation of the service.
+	 * @param entity     Entity class type.
+	 * @param rsql       RSQL string as received.
+	 * @param canonical  Canonical RSQL, only computed for slow calls.
+	 * @param properties Properties of the call.
+	 * @param page       Page number, null without pagination.
+	 * @param pageSize   Page size, null without pagination.
+	 * @param call       Execution of the call.
+	 * @param rows       Rows of the result.
+	 * @return           Result of the call.
+	 */
+	protected <R> R logged(String operation, Class<T> entity, String rsql, Supplier<String> canonical, List<String> properties, 
+			Integer page, Integer pageSize, Supplier<R> call, ToLongFunction<R> rows) {
+		if (this.capture.get() != null || !isSampled()) {
+			return call.get();
+		}
+		this.sampled.incrementAndGet();
+		Capture current = new Capture();
+		this.capture.set(current);
+		long start = System.nanoTime();
+		R result = null;
+		boolean completed = false;
+		try {
+			result = call.get();
+			completed = true;
+		} finally {
+			long elapsed = System.nanoTime() - start;
+			this.capture.remove();
+			if (elapsed >= this.threshold) {
+				this.slow.incrementAndGet();
+				log(new SlowQueryRecord(entity, operation, rsql, canonicalOf(canonical), properties, page, pageSize, 
+						statements(current), completed ? rows.applyAsLong(result) : -1, elapsed, current.phases));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Write a slow query to the logger, with the record as parameter.
+	 * 
+	 * @param record Slow query record.
+	 */
+	protected void log(SlowQueryRecord record) {
+		LogRecord log = new LogRecord(this.level, "Slow query: {0}");
+		log.setLoggerName(this.logger.getName());
+		log.setParameters(new Object[] {record});
+		this.logger.log(log);
+	}
+
+	/**
+	 * Verifies if a call is sampled.
+	 * 
+	 * @return true when the call must be timed.
+	 */
+	private boolean isSampled() {
+		double rate = this.sampleRate;
+		return rate > 0 && this.logger.isLoggable(this.level) 
+				&& (rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate);
+	}
+
+	/**
+	 * Canonical RSQL of a slow call, the call may have failed parsing it.
+	 * 
+	 * @param canonical Canonical RSQL.
+	 * @return          Canonical RSQL, null when it cannot be parsed.
+	 */
+	private static String canonicalOf(Supplier<String> canonical) {
+		String text;
+		try {
+			text = canonical.get();
+		} catch (RuntimeException e) {
+			text = null;
+		}
+		return text;
+	}
+
+	/**
+	 * Statements of the queries of a call.
+	 * 
+	 * @param current Capture of the call.
+	 * @return        Statements, null when they are not resolved.
+	 */
+	private List<String> statements(Capture current) {
+		QueryTextResolver resolver = this.queryTextResolver;
+		if (resolver == null) {
+			return null;
+		}
+		List<String> statements = new ArrayList<String>(current.queries.size());
+		for (Query query : current.queries) {
+			String text = resolver.resolve(query);
+			if (text != null) {
+				statements.add(text);
+			}
+		}
+		return statements;
+	}
+
+	/**
+	 * Phases and queries of the sampled call of a thread.
+	 */
+	private static class Capture {
+
+		/**
+		 * Nanoseconds of each phase.
+		 */
+		private final Map<QueryPhase, Long> phases = new EnumMap<QueryPhase, Long>(QueryPhase.class);
+
+		/**
+		 * Queries created.
+		 */
+		private final List<Query> queries = new ArrayList<Query>();
+	}
+
+	/**
+	 * Instrumentation that collects the sampled call of the thread and 
+	 * keeps recording on the instrumentation it wraps.
+	 */
+	private class CaptureInstrumentation implements QueryInstrumentation {
+
+		/**
+		 * Wrapped instrumentation.
+		 */
+		private final QueryInstrumentation instrumentation;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param instrumentation Wrapped instrumentation.
+		 */
+		private CaptureInstrumentation(QueryInstrumentation instrumentation) {
+			this.instrumentation = instrumentation;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.tennaito.entity.service.impl.QueryInstrumentation#record(java.lang.Class, java.lang.String, com.github.tennaito.entity.service.impl.QueryPhase, long)
+		 */
+		public void record(Class<?> entity, String operation, QueryPhase phase, long nanos) {
+			Capture current = capture.get();
+			if (current != null) {
+				Long total = current.phases.get(phase);
+				current.phases.put(phase, (total == null) ? nanos : total + nanos);
+			}
+			this.instrumentation.record(entity, operation, phase, nanos);
+		}
+
+		/* (non-Javadoc)
+		 * @see com.github.tennaito.entity.service.impl.QueryInstrumentation#created(java.lang.Class, java.lang.String, javax.persistence.Query)
+		 */
+		public void created(Class<?> entity, String operation, Query query) {
+			Capture current = capture.get();
+			if (current != null) {
+				current.queries.add(query);
+			}
+			this.instrumentation.created(entity, operation, query);
+		}
+	}
+}
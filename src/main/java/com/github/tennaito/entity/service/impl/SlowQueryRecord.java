@@ -0,0 +1,247 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.impl;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SlowQueryRecord.
+ * 
+ * A call of a service that went over the slow query threshold, with its 
+ * arguments, the statements that the provider executed, the rows returned 
+ * and the time of each query phase.
+ * 
+ * @author Antonio Rabelo
+ */
+public class SlowQueryRecord {
+
+	/**
+	 * Entity class type.
+	 */
+	private final Class<?> entity;
+
+	/**
+	 * Operation of the service.
+	 */
+	private final String operation;
+
+	/**
+	 * RSQL string as received.
+	 */
+	private final String rsql;
+
+	/**
+	 * Canonical RSQL string.
+	 */
+	private final String canonicalRsql;
+
+	/**
+	 * Properties of the partial result.
+	 */
+	private final List<String> properties;
+
+	/**
+	 * Page number.
+	 */
+	private final Integer page;
+
+	/**
+	 * Page size.
+	 */
+	private final Integer pageSize;
+
+	/**
+	 * Statements executed.
+	 */
+	private final List<String> statements;
+
+	/**
+	 * Rows returned.
+	 */
+	private final long rows;
+
+	/**
+	 * Elapsed time of the call in nanoseconds.
+	 */
+	private final long elapsed;
+
+	/**
+	 * Time of each query phase in nanoseconds.
+	 */
+	private final Map<QueryPhase, Long> phases;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param entity        Entity class type.
+	 * @param operation     Operation of the service.
+	 * @param rsql          RSQL string as received.
+	 * @param canonicalRsql Canonical RSQL string, null without condition.
+	 * @param properties    Properties of the partial result, null for all.
+	 * @param page          Page number, null without pagination.
+	 * @param pageSize      Page size, null without pagination.
+	 * @param statements    Statements (SQL or JPQL) executed, null when unknown.
+	 * @param rows          Rows returned, -1 when the call failed.
+	 * @param elapsed       Elapsed time of the call in nanoseconds.
+	 * @param phases        Time of each query phase in nanoseconds.
+	 */
+	public SlowQueryRecord(Class<?> entity, String operation, String rsql, String canonicalRsql, List<String> properties, 
+			Integer page, Integer pageSize, List<String> statements, long rows, long elapsed, Map<QueryPhase, Long> phases) {
+		this.entity = entity;
+		this.operation = operation;
+		this.rsql = rsql;
+		this.canonicalRsql = canonicalRsql;
+		this.properties = properties;
+		this.page = page;
+		this.pageSize = pageSize;
+		this.statements = statements;
+		this.rows = rows;
+		this.elapsed = elapsed;
+		this.phases = phases;
+	}
+
+	/**
+	 * Entity class type.
+	 * 
+	 * @return Entity class type.
+	 */
+	public Class<?> getEntity() {
+		return this.entity;
+	}
+
+	/**
+	 * Operation of the service.
+	 * 
+	 * @return Operation (like "queryWhere").
+	 */
+	public String getOperation() {
+		return this.operation;
+	}
+
+	/**
+	 * RSQL string as received.
+	 * 
+	 * @return RSQL string.
+	 */
+	public String getRsql() {
+		return this.rsql;
+	}
+
+	/**
+	 * Canonical RSQL string, the same for equivalent spellings.
+	 * 
+	 * @return Canonical RSQL, null without condition.
+	 */
+	public String getCanonicalRsql() {
+		return this.canonicalRsql;
+	}
+
+	/**
+	 * Properties of the partial result.
+	 * 
+	 * @return Properties, null for all.
+	 */
+	public List<String> getProperties() {
+		return this.properties;
+	}
+
+	/**
+	 * Page number.
+	 * 
+	 * @return Page number, null without pagination.
+	 */
+	public Integer getPage() {
+		return this.page;
+	}
+
+	/**
+	 * Page size.
+	 * 
+	 * @return Page size, null without pagination.
+	 */
+	public Integer getPageSize() {
+		return this.pageSize;
+	}
+
+	/**
+	 * Statements (SQL or JPQL) executed, in order.
+	 * 
+	 * @return Statements, null when unknown.
+	 */
+	public List<String> getStatements() {
+		return this.statements;
+	}
+
+	/**
+	 * Rows returned.
+	 * 
+	 * @return Rows, -1 when the call failed.
+	 */
+	public long getRows() {
+		return this.rows;
+	}
+
+	/**
+	 * Elapsed time of the call.
+	 * 
+	 * @param unit Unit of the result.
+	 * @return     Elapsed time.
+	 */
+	public long getElapsed(TimeUnit unit) {
+		return unit.convert(this.elapsed, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Time of each query phase, summed when a call has many queries.
+	 * 
+	 * @return Nanoseconds of each phase, empty when unknown.
+	 */
+	public Map<QueryPhase, Long> getPhases() {
+		return this.phases;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder("entity=").append(this.entity.getName())
+			.append(" operation=").append(this.operation)
+			.append(" elapsedMs=").append(getElapsed(TimeUnit.MILLISECONDS))
+			.append(" rows=").append(this.rows)
+			.append(" rsql=").append(this.rsql)
+			.append(" canonicalRsql=").append(this.canonicalRsql)
+			.append(" properties=").append(this.properties)
+			.append(" page=").append(this.page)
+			.append(" pageSize=").append(this.pageSize);
+		for (Map.Entry<QueryPhase, Long> phase : this.phases.entrySet()) {
+			text.append(' ').append(phase.getKey().name().toLowerCase(Locale.ROOT)).append("Us=")
+				.append(TimeUnit.NANOSECONDS.toMicros(phase.getValue()));
+		}
+		return text.append(" statements=").append(this.statements).toString();
+	}
+}
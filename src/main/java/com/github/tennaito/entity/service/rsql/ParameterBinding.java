@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.rsql;
+
+import javax.persistence.criteria.ParameterExpression;
+
+import com.github.tennaito.rsql.misc.ArgumentParser;
+
+/**
+ * ParameterBinding.
+ * 
+ * A bind parameter created from a RSQL argument, with what is needed 
+ * to convert another RSQL argument into a value for the same parameter.
+ * 
+ * @author Antonio Rabelo
+ */
+public class ParameterBinding {
+
+	/**
+	 * Wildcard used by the RSQL like comparisons.
+	 */
+	private static final char RSQL_WILDCARD = '*';
+	
+	/**
+	 * Wildcard used by the JPA like comparisons.
+	 */
+	private static final char LIKE_WILDCARD = '%';
+
+	/**
+	 * Parameter expression.
+	 */
+	private final ParameterExpression<?> parameter;
+
+	/**
+	 * Type of the compared property.
+	 */
+	private final Class<?> type;
+
+	/**
+	 * True when the parameter is the pattern of a like comparison.
+	 */
+	private final boolean like;
+
+	/**
+	 * Parser of the RSQL arguments.
+	 */
+	private final ArgumentParser argumentParser;
+
+	/**
+	 * Value bound to the parameter.
+	 */
+	private final Object value;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param parameter      Parameter expression.
+	 * @param type           Type of the compared property.
+	 * @param like           True when the parameter is the pattern of a like comparison.
+	 * @param argumentParser Parser of the RSQL arguments.
+	 * @param value          Value bound to the parameter.
+	 */
+	public ParameterBinding(ParameterExpression<?> parameter, Class<?> type, boolean like, ArgumentParser argumentParser, Object value) {
+		this.parameter = parameter;
+		this.type = type;
+		this.like = like;
+		this.argumentParser = argumentParser;
+		this.value = value;
+	}
+
+	/**
+	 * Convert a RSQL argument into a value for this parameter.
+	 * 
+	 * @param argument RSQL argument.
+	 * @return         Value to be bound.
+	 */
+	public Object convert(String argument) {
+		Object result = this.argumentParser.parse(argument, this.type);
+		if (this.like) {
+			result = toLikePattern((String)result);
+		}
+		return result;
+	}
+
+	/**
+	 * Converts a RSQL wildcard argument into a lower case like pattern.
+	 * 
+	 * @param argument RSQL argument.
+	 * @return         Like pattern.
+	 */
+	public static String toLikePattern(String argument) {
+		return argument.replace(RSQL_WILDCARD, LIKE_WILDCARD).toLowerCase();
+	}
+
+	/**
+	 * Wrap primitive types.
+	 * 
+	 * @param type Java type.
+	 * @return     The wrapper type if it is primitive, the same type otherwise.
+	 */
+	public static Class<?> wrap(Class<?> type) {
+		Class<?> result = type;
+		if (type.isPrimitive()) {
+			if (int.class.equals(type)) {
+				result = Integer.class;
+			} else if (long.class.equals(type)) {
+				result = Long.class;
+			} else if (double.class.equals(type)) {
+				result = Double.class;
+			} else if (float.class.equals(type)) {
+				result = Float.class;
+			} else if (boolean.class.equals(type)) {
+				result = Boolean.class;
+			} else if (short.class.equals(type)) {
+				result = Short.class;
+			} else if (byte.class.equals(type)) {
+				result = Byte.class;
+			} else if (char.class.equals(type)) {
+				result = Character.class;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the parameter expression.
+	 */
+	public ParameterExpression<?> getParameter() {
+		return this.parameter;
+	}
+
+	/**
+	 * @return the type of the compared property.
+	 */
+	public Class<?> getType() {
+		return this.type;
+	}
+
+	/**
+	 * @return true when the parameter is the pattern of a like comparison.
+	 */
+	public boolean isLike() {
+		return this.like;
+	}
+
+	/**
+	 * @return the value bound to the parameter.
+	 */
+	public Object getValue() {
+		return this.value;
+	}
+}
@@ -0,0 +1,353 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.rsql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.From;
+import javax.persistence.criteria.ParameterExpression;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.PluralAttribute;
+
+import com.github.tennaito.rsql.misc.ArgumentParser;
+import com.github.tennaito.rsql.misc.DefaultArgumentParser;
+import com.github.tennaito.rsql.parser.ast.ComparisonOperatorProxy;
+
+import cz.jirutka.rsql.parser.ast.AndNode;
+import cz.jirutka.rsql.parser.ast.ComparisonNode;
+import cz.jirutka.rsql.parser.ast.Node;
+import cz.jirutka.rsql.parser.ast.OrNode;
+import cz.jirutka.rsql.parser.ast.RSQLVisitor;
+
+/**
+ * ParameterizedPredicateVisitor.
+ * 
+ * Builds a Predicate from a RSQL tree where every comparison value is a
+ * ParameterExpression instead of a literal, so filters with the same shape 
+ * produce the same SQL statement. The values are collected to be bound 
+ * later on the TypedQuery.
+ * 
+ * Without parameters (literal mode) the values are sent as literals, as 
+ * the rsql-jpa JpaPredicateVisitor does, and nothing is collected.
+ * 
+ * Follows the rsql-jpa JpaPredicateVisitor semantics: string values are 
+ * compared with a case insensitive like ('*' is the wildcard) and 'null' 
+ * values become is null / is not null.
+ * 
+ * All the comparisons share one root and one join for each association 
+ * path, so the comparisons of a collection path refer to the same element: 
+ * 'items.price==1;items.quantity==2' means an item with price 1 and 
+ * quantity 2, and 'items.price==1;items.price==2' matches nothing (as the 
+ * RsqlOptimizer assumes).
+ * 
+ * @author Antonio Rabelo
+ *
+ * @param <T> Entity type.
+ */
+public class ParameterizedPredicateVisitor<T> implements RSQLVisitor<Predicate, EntityManager> {
+
+	/**
+	 * Root of the criteria query.
+	 */
+	private final From<?, T> root;
+
+	/**
+	 * Parser of the comparison arguments.
+	 */
+	private final ArgumentParser argumentParser;
+
+	/**
+	 * Joins already created, keyed by the property path.
+	 */
+	private final Map<String, From<?, ?>> joins = new HashMap<String, From<?, ?>>();
+
+	/**
+	 * Parameters and their values in visiting order.
+	 */
+	private final List<ParameterBinding> bindings = new ArrayList<ParameterBinding>();
+
+	/**
+	 * When false the values are literals instead of parameters.
+	 */
+	private final boolean parameterized;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param root Root of the criteria query that will receive the predicate.
+	 */
+	public ParameterizedPredicateVisitor(From<?, T> root) {
+		this(root, true);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param root          Root of the criteria query that will receive the predicate.
+	 * @param parameterized When false the values are literals instead of parameters.
+	 */
+	public ParameterizedPredicateVisitor(From<?, T> root, boolean parameterized) {
+		this(root, new DefaultArgumentParser(), parameterized);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param root           Root of the criteria query that will receive the predicate.
+	 * @param argumentParser Parser of the comparison arguments.
+	 */
+	public ParameterizedPredicateVisitor(From<?, T> root, ArgumentParser argumentParser) {
+		this(root, argumentParser, true);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param root           Root of the criteria query that will receive the predicate.
+	 * @param argumentParser Parser of the comparison arguments.
+	 * @param parameterized  When false the values are literals instead of parameters.
+	 */
+	public ParameterizedPredicateVisitor(From<?, T> root, ArgumentParser argumentParser, boolean parameterized) {
+		if (root == null) {
+			throw new IllegalArgumentException("Must define the root of the query.");
+		}
+		this.root = root;
+		this.argumentParser = argumentParser;
+		this.parameterized = parameterized;
+	}
+
+	/**
+	 * Parameters created while visiting, in visiting order, with the values 
+	 * that must be bound to them.
+	 * 
+	 * @return Parameters and their values.
+	 */
+	public Map<ParameterExpression<?>, Object> getParameters() {
+		Map<ParameterExpression<?>, Object> parameters = new LinkedHashMap<ParameterExpression<?>, Object>();
+		for (ParameterBinding binding : this.bindings) {
+			parameters.put(binding.getParameter(), binding.getValue());
+		}
+		return parameters;
+	}
+	
+	/**
+	 * Parameters created while visiting, in the order given by RsqlShape#arguments(Node).
+	 * 
+	 * @return Parameter bindings.
+	 */
+	public List<ParameterBinding> getBindings() {
+		return Collections.unmodifiableList(this.bindings);
+	}
+
+	/* (non-Javadoc)
+	 * @see cz.jirutka.rsql.parser.ast.RSQLVisitor#visit(cz.jirutka.rsql.parser.ast.AndNode, java.lang.Object)
+	 */
+	public Predicate visit(AndNode node, EntityManager manager) {
+		return manager.getCriteriaBuilder().and(visitChildren(node.getChildren(), manager));
+	}
+
+	/* (non-Javadoc)
+	 * @see cz.jirutka.rsql.parser.ast.RSQLVisitor#visit(cz.jirutka.rsql.parser.ast.OrNode, java.lang.Object)
+	 */
+	public Predicate visit(OrNode node, EntityManager manager) {
+		return manager.getCriteriaBuilder().or(visitChildren(node.getChildren(), manager));
+	}
+
+	/* (non-Javadoc)
+	 * @see cz.jirutka.rsql.parser.ast.RSQLVisitor#visit(cz.jirutka.rsql.parser.ast.ComparisonNode, java.lang.Object)
+	 */
+	public Predicate visit(ComparisonNode node, EntityManager manager) {
+		CriteriaBuilder builder = manager.getCriteriaBuilder();
+		Path<?> path = findPath(node.getSelector(), manager);
+		Class<?> type = ParameterBinding.wrap(path.getJavaType());
+		List<?> arguments = this.argumentParser.parse(node.getArguments(), type);
+		Object argument = arguments.get(0);
+
+		ComparisonOperatorProxy operator = ComparisonOperatorProxy.asEnum(node.getOperator());
+		if (operator == null) {
+			throw new IllegalArgumentException("Unknown operator: " + node.getOperator());
+		}
+
+		Predicate predicate;
+		switch (operator) {
+			case EQUAL:
+				if (argument instanceof String) {
+					predicate = createLike(builder, path, (String)argument);
+				} else if (argument == null) {
+					predicate = builder.isNull(path);
+				} else {
+					predicate = builder.equal(path, createParameter(builder, type, argument));
+				}
+				break;
+			case NOT_EQUAL:
+				if (argument instanceof String) {
+					predicate = builder.not(createLike(builder, path, (String)argument));
+				} else if (argument == null) {
+					predicate = builder.isNotNull(path);
+				} else {
+					predicate = builder.notEqual(path, createParameter(builder, type, argument));
+				}
+				break;
+			case GREATER_THAN:
+				predicate = builder.greaterThan(comparable(path), comparable(createParameter(builder, type, argument)));
+				break;
+			case GREATER_THAN_OR_EQUAL:
+				predicate = builder.greaterThanOrEqualTo(comparable(path), comparable(createParameter(builder, type, argument)));
+				break;
+			case LESS_THAN:
+				predicate = builder.lessThan(comparable(path), comparable(createParameter(builder, type, argument)));
+				break;
+			case LESS_THAN_OR_EQUAL:
+				predicate = builder.lessThanOrEqualTo(comparable(path), comparable(createParameter(builder, type, argument)));
+				break;
+			case IN:
+				predicate = createIn(builder, path, type, arguments);
+				break;
+			case NOT_IN:
+				predicate = builder.not(createIn(builder, path, type, arguments));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown operator: " + node.getOperator());
+		}
+		return predicate;
+	}
+
+	/**
+	 * Visit all children nodes.
+	 * 
+	 * @param children Children nodes.
+	 * @param manager  EntityManager.
+	 * @return         Predicates of the children.
+	 */
+	private Predicate[] visitChildren(List<Node> children, EntityManager manager) {
+		Predicate[] predicates = new Predicate[children.size()];
+		for (int i = 0; i < predicates.length; i++) {
+			predicates[i] = children.get(i).accept(this, manager);
+		}
+		return predicates;
+	}
+
+	/**
+	 * Find the path of a (dotted) property, joining the associations on the way.
+	 * 
+	 * @param selector Property path.
+	 * @param manager  EntityManager.
+	 * @return         Path of the property.
+	 */
+	private Path<?> findPath(String selector, EntityManager manager) {
+		String[] properties = selector.split("\\.");
+		From<?, ?> from = this.root;
+		StringBuilder prefix = new StringBuilder();
+		for (int i = 0; i < properties.length - 1; i++) {
+			prefix.append(properties[i]).append('.');
+			From<?, ?> join = this.joins.get(prefix.toString());
+			if (join == null) {
+				join = from.join(properties[i]);
+				this.joins.put(prefix.toString(), join);
+			}
+			from = join;
+		}
+		String property = properties[properties.length - 1];
+		ManagedType<?> type = manager.getMetamodel().managedType(from.getJavaType());
+		Attribute<?, ?> attribute = type.getAttribute(property);
+		if (attribute instanceof PluralAttribute) {
+			throw new IllegalArgumentException("Cannot compare the collection property " + selector + ".");
+		}
+		return from.get(property);
+	}
+
+	/**
+	 * Creates a case insensitive like predicate.
+	 * 
+	 * @param builder  CriteriaBuilder.
+	 * @param path     Property path.
+	 * @param argument RSQL argument with '*' wildcards.
+	 * @return         Like predicate.
+	 */
+	private Predicate createLike(CriteriaBuilder builder, Path<?> path, String argument) {
+		if (!this.parameterized) {
+			return builder.like(builder.lower(path.as(String.class)), ParameterBinding.toLikePattern(argument));
+		}
+		ParameterExpression<String> parameter = builder.parameter(String.class);
+		this.bindings.add(new ParameterBinding(parameter, String.class, true, this.argumentParser, ParameterBinding.toLikePattern(argument)));
+		return builder.like(builder.lower(path.as(String.class)), parameter);
+	}
+
+	/**
+	 * Creates an in predicate with one parameter for each argument.
+	 * 
+	 * @param builder   CriteriaBuilder.
+	 * @param path      Property path.
+	 * @param type      Property type.
+	 * @param arguments Arguments.
+	 * @return          In predicate.
+	 */
+	private Predicate createIn(CriteriaBuilder builder, Path<?> path, Class<?> type, List<?> arguments) {
+		List<Expression<?>> values = new ArrayList<Expression<?>>(arguments.size());
+		for (Object argument : arguments) {
+			values.add(createParameter(builder, type, argument));
+		}
+		return path.in(values.toArray(new Expression<?>[values.size()]));
+	}
+
+	/**
+	 * Creates a parameter and registers the value to be bound, or a 
+	 * literal in literal mode.
+	 * 
+	 * @param builder CriteriaBuilder.
+	 * @param type    Parameter type.
+	 * @param value   Parameter value.
+	 * @return        Parameter (or literal) expression.
+	 */
+	private <P> Expression<P> createParameter(CriteriaBuilder builder, Class<P> type, Object value) {
+		if (!this.parameterized) {
+			return builder.literal(type.cast(value));
+		}
+		ParameterExpression<P> parameter = builder.parameter(type);
+		this.bindings.add(new ParameterBinding(parameter, type, false, this.argumentParser, value));
+		return parameter;
+	}
+
+	/**
+	 * Cast an expression to a comparable one.
+	 * 
+	 * @param expression Expression.
+	 * @return           Comparable expression.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Expression<Comparable<Object>> comparable(Expression<?> expression) {
+		return (Expression<Comparable<Object>>)expression;
+	}
+}
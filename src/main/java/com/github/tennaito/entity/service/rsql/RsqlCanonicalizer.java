@@ -0,0 +1,243 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.rsql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import cz.jirutka.rsql.parser.ast.AndNode;
+import cz.jirutka.rsql.parser.ast.ComparisonNode;
+import cz.jirutka.rsql.parser.ast.LogicalNode;
+import cz.jirutka.rsql.parser.ast.LogicalOperator;
+import cz.jirutka.rsql.parser.ast.Node;
+import cz.jirutka.rsql.parser.ast.OrNode;
+import cz.jirutka.rsql.parser.ast.RSQLOperators;
+
+/**
+ * RsqlCanonicalizer.
+ * 
+ * Rewrites a RSQL tree into its canonical form, so equivalent spellings 
+ * of the same condition share the parsed tree, the caches and the SQL 
+ * statement. Nested groups of the same operator are flattened, duplicated 
+ * operands and =in=/=out= values are removed, and the operands of AND/OR 
+ * (and the =in=/=out= values) are sorted. Operands are sorted by shape 
+ * first, so conditions with the same shape keep the same canonical shape.
+ * 
+ * @author Antonio Rabelo
+ */
+public final class RsqlCanonicalizer {
+
+	/**
+	 * Characters that cannot appear in an unquoted RSQL value.
+	 */
+	private static final String RESERVED = "\"'();,=!~<> \t\r\n";
+
+	/**
+	 * FNV-1a 64 bits offset basis.
+	 */
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+	/**
+	 * FNV-1a 64 bits prime.
+	 */
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * Utility class.
+	 */
+	private RsqlCanonicalizer() {
+	}
+
+	/**
+	 * Canonical form of a RSQL tree.
+	 * 
+	 * @param node RSQL tree.
+	 * @return     Canonical RSQL tree.
+	 */
+	public static Node canonicalize(Node node) {
+		Node result;
+		if (node instanceof LogicalNode) {
+			LogicalNode logical = (LogicalNode)node;
+			// sorted by shape and then by the canonical string, without duplicates
+			Map<String, Node> operands = new TreeMap<String, Node>();
+			for (Node child : flatten(logical.getOperator(), logical.getChildren())) {
+				Node canonical = canonicalize(child);
+				operands.put(RsqlShape.of(canonical) + '\u0000' + toRsql(canonical), canonical);
+			}
+			List<Node> children = new ArrayList<Node>(operands.values());
+			if (children.size() == 1) {
+				result = children.get(0);
+			} else if (logical.getOperator() == LogicalOperator.AND) {
+				result = new AndNode(children);
+			} else {
+				result = new OrNode(children);
+			}
+		} else {
+			ComparisonNode comparison = (ComparisonNode)node;
+			if (isSet(comparison)) {
+				List<String> arguments = new ArrayList<String>(new TreeSet<String>(comparison.getArguments()));
+				result = comparison.withArguments(arguments);
+			} else {
+				result = comparison;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * RSQL string of a tree, the canonical string when the tree is canonical.
+	 * 
+	 * @param node RSQL tree.
+	 * @return     RSQL string.
+	 */
+	public static String toRsql(Node node) {
+		StringBuilder rsql = new StringBuilder();
+		appendRsql(node, rsql);
+		return rsql.toString();
+	}
+
+	/**
+	 * Stable 64 bits hash (FNV-1a) of the RSQL string of a tree.
+	 * 
+	 * @param node RSQL tree.
+	 * @return     Hash of the tree.
+	 */
+	public static long hash(Node node) {
+		long hash = FNV_OFFSET;
+		String rsql = toRsql(node);
+		for (int i = 0; i < rsql.length(); i++) {
+			hash ^= rsql.charAt(i);
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * Operands of a logical operator with the nested groups of the same operator flattened.
+	 * 
+	 * @param operator Logical operator.
+	 * @param children Operands.
+	 * @return         Flattened operands.
+	 */
+	private static List<Node> flatten(LogicalOperator operator, List<Node> children) {
+		List<Node> operands = new ArrayList<Node>();
+		for (Node child : children) {
+			if (child instanceof LogicalNode && ((LogicalNode)child).getOperator() == operator) {
+				operands.addAll(flatten(operator, ((LogicalNode)child).getChildren()));
+			} else {
+				operands.add(child);
+			}
+		}
+		return operands;
+	}
+
+	/**
+	 * Verifies if the order of the values of a comparison does not matter.
+	 * 
+	 * @param comparison Comparison node.
+	 * @return           true for =in= and =out=.
+	 */
+	private static boolean isSet(ComparisonNode comparison) {
+		return RSQLOperators.IN.equals(comparison.getOperator()) || RSQLOperators.NOT_IN.equals(comparison.getOperator());
+	}
+
+	/**
+	 * Append the RSQL string of a node.
+	 * 
+	 * @param node RSQL node.
+	 * @param rsql RSQL being built.
+	 */
+	private static void appendRsql(Node node, StringBuilder rsql) {
+		if (node instanceof LogicalNode) {
+			LogicalNode logical = (LogicalNode)node;
+			char separator = (logical.getOperator() == LogicalOperator.AND) ? ';' : ',';
+			for (int i = 0; i < logical.getChildren().size(); i++) {
+				Node child = logical.getChildren().get(i);
+				if (i > 0) {
+					rsql.append(separator);
+				}
+				boolean group = child instanceof LogicalNode;
+				if (group) {
+					rsql.append('(');
+				}
+				appendRsql(child, rsql);
+				if (group) {
+					rsql.append(')');
+				}
+			}
+		} else {
+			ComparisonNode comparison = (ComparisonNode)node;
+			rsql.append(comparison.getSelector()).append(comparison.getOperator().getSymbol());
+			List<String> arguments = comparison.getArguments();
+			if (comparison.getOperator().isMultiValue()) {
+				rsql.append('(');
+				for (int i = 0; i < arguments.size(); i++) {
+					if (i > 0) {
+						rsql.append(',');
+					}
+					appendValue(arguments.get(i), rsql);
+				}
+				rsql.append(')');
+			} else {
+				appendValue(arguments.get(0), rsql);
+			}
+		}
+	}
+
+	/**
+	 * Append a value, quoted when it has reserved characters. A value with 
+	 * both quote marks (only built by hand, the parser cannot read one) is 
+	 * single quoted with the quote and the backslash escaped by a backslash, 
+	 * so it never reads as a different value.
+	 * 
+	 * @param value RSQL value.
+	 * @param rsql  RSQL being built.
+	 */
+	private static void appendValue(String value, StringBuilder rsql) {
+		boolean quote = value.isEmpty();
+		for (int i = 0; i < value.length() && !quote; i++) {
+			quote = RESERVED.indexOf(value.charAt(i)) >= 0;
+		}
+		if (!quote) {
+			rsql.append(value);
+		} else if (value.indexOf('\'') < 0) {
+			rsql.append('\'').append(value).append('\'');
+		} else if (value.indexOf('"') < 0) {
+			rsql.append('"').append(value).append('"');
+		} else {
+			rsql.append('\'');
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == '\'' || c == '\\') {
+					rsql.append('\\');
+				}
+				rsql.append(c);
+			}
+			rsql.append('\'');
+		}
+	}
+}
@@ -0,0 +1,518 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.rsql;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import cz.jirutka.rsql.parser.ast.AndNode;
+import cz.jirutka.rsql.parser.ast.ComparisonNode;
+import cz.jirutka.rsql.parser.ast.ComparisonOperator;
+import cz.jirutka.rsql.parser.ast.LogicalNode;
+import cz.jirutka.rsql.parser.ast.LogicalOperator;
+import cz.jirutka.rsql.parser.ast.Node;
+import cz.jirutka.rsql.parser.ast.OrNode;
+import cz.jirutka.rsql.parser.ast.RSQLOperators;
+
+/**
+ * RsqlOptimizer.
+ * 
+ * Rewrites a RSQL tree into a smaller equivalent one before it becomes a 
+ * where clause:
+ * 
+ * - equalities of the same selector in a OR become a single =in= 
+ *   (and inequalities in a AND become a single =out=);
+ * - numeric ranges of the same selector are folded, keeping the 
+ *   tightest bounds in a AND and the loosest in a OR;
+ * - conditions that no entity can meet (a=gt=5;a=lt=3) become an 
+ *   empty OR, so the caller can skip the database.
+ * 
+ * The rewrites depend on the type of each selector, so only selectors 
+ * with a known type are rewritten: equalities are merged only when they 
+ * are exact (a string equality is a case insensitive LIKE and a set is 
+ * not) and ranges are folded only for numbers. Only values that mean the 
+ * same as literals and as bind parameters are rewritten: wildcards, LIKE 
+ * characters and null comparisons are kept. The result is canonical 
+ * (see RsqlCanonicalizer).
+ * 
+ * @author Antonio Rabelo
+ */
+public final class RsqlOptimizer {
+
+	/**
+	 * Utility class.
+	 */
+	private RsqlOptimizer() {
+	}
+
+	/**
+	 * Optimized canonical form of a RSQL tree without the types of the 
+	 * selectors, that is only its canonical form.
+	 * 
+	 * @param node RSQL tree.
+	 * @return     Canonical RSQL tree.
+	 */
+	public static Node optimize(Node node) {
+		return optimize(node, null);
+	}
+
+	/**
+	 * Optimized canonical form of a RSQL tree.
+	 * 
+	 * @param node  RSQL tree.
+	 * @param types Types of the selectors, null when they are unknown.
+	 * @return      Optimized RSQL tree, an empty OR when no entity can meet the condition.
+	 */
+	public static Node optimize(Node node, RsqlSelectorTypes types) {
+		Node canonical = RsqlCanonicalizer.canonicalize(node);
+		return (types == null) ? canonical : RsqlCanonicalizer.canonicalize(rewrite(canonical, types));
+	}
+
+	/**
+	 * Verifies if no entity can meet the condition of an optimized tree.
+	 * 
+	 * @param node Optimized RSQL tree.
+	 * @return     true when the condition is a contradiction.
+	 */
+	public static boolean isUnsatisfiable(Node node) {
+		return node instanceof LogicalNode && ((LogicalNode)node).getChildren().isEmpty();
+	}
+
+	/**
+	 * Rewrite a canonical tree from the leaves to the root.
+	 * 
+	 * @param node  Canonical RSQL tree.
+	 * @param types Types of the selectors.
+	 * @return      Rewritten tree.
+	 */
+	private static Node rewrite(Node node, RsqlSelectorTypes types) {
+		if (!(node instanceof LogicalNode)) {
+			return node;
+		}
+		LogicalNode logical = (LogicalNode)node;
+		boolean and = logical.getOperator() == LogicalOperator.AND;
+		List<Node> others = new ArrayList<Node>();
+		Map<String, List<ComparisonNode>> selectors = new LinkedHashMap<String, List<ComparisonNode>>();
+		for (Node child : logical.getChildren()) {
+			Node rewritten = rewrite(child, types);
+			if (isUnsatisfiable(rewritten)) {
+				if (and) {
+					return nothing();
+				}
+			} else if (rewritten instanceof ComparisonNode) {
+				ComparisonNode comparison = (ComparisonNode)rewritten;
+				List<ComparisonNode> comparisons = selectors.get(comparison.getSelector());
+				if (comparisons == null) {
+					comparisons = new ArrayList<ComparisonNode>();
+					selectors.put(comparison.getSelector(), comparisons);
+				}
+				comparisons.add(comparison);
+			} else {
+				others.add(rewritten);
+			}
+		}
+		List<Node> children = new ArrayList<Node>(others);
+		for (Map.Entry<String, List<ComparisonNode>> entry : selectors.entrySet()) {
+			Class<?> type = types.typeOf(entry.getKey());
+			List<Node> merged = and ? mergeConjunction(entry.getValue(), type) : mergeDisjunction(entry.getValue(), type);
+			if (merged == null) {
+				return nothing();
+			}
+			children.addAll(merged);
+		}
+		if (children.isEmpty()) {
+			return nothing();
+		}
+		return and ? new AndNode(children) : new OrNode(children);
+	}
+
+	/**
+	 * Merge the comparisons of a selector joined by AND.
+	 * 
+	 * @param comparisons Comparisons of the same selector.
+	 * @param type        Type of the selector, null when it is unknown.
+	 * @return            Merged comparisons, null when they are a contradiction.
+	 */
+	private static List<Node> mergeConjunction(List<ComparisonNode> comparisons, Class<?> type) {
+		List<Node> result = new ArrayList<Node>();
+		List<ComparisonNode> numeric = new ArrayList<ComparisonNode>();
+		List<String> excluded = new ArrayList<String>();
+		for (ComparisonNode comparison : comparisons) {
+			ComparisonOperator operator = comparison.getOperator();
+			if (isNumber(type) && isNumeric(comparison)) {
+				numeric.add(comparison);
+			} else if (isExact(type) && ((RSQLOperators.NOT_EQUAL.equals(operator) && isLiteral(comparison.getArguments().get(0))) 
+					|| (RSQLOperators.NOT_IN.equals(operator) && isLiteral(comparison.getArguments())))) {
+				excluded.addAll(comparison.getArguments());
+			} else {
+				result.add(comparison);
+			}
+		}
+		if (!excluded.isEmpty()) {
+			result.add(set(RSQLOperators.NOT_EQUAL, RSQLOperators.NOT_IN, comparisons.get(0).getSelector(), excluded));
+		}
+		if (numeric.size() < 2) {
+			result.addAll(numeric);
+			return result;
+		}
+		String selector = numeric.get(0).getSelector();
+		Bound lower = null;
+		Bound upper = null;
+		List<String> candidates = null;
+		for (ComparisonNode comparison : numeric) {
+			ComparisonOperator operator = comparison.getOperator();
+			String argument = comparison.getArguments().get(0);
+			if (RSQLOperators.GREATER_THAN.equals(operator) || RSQLOperators.GREATER_THAN_OR_EQUAL.equals(operator)) {
+				lower = pick(lower, new Bound(argument, RSQLOperators.GREATER_THAN.equals(operator)), 1, true);
+			} else if (RSQLOperators.LESS_THAN.equals(operator) || RSQLOperators.LESS_THAN_OR_EQUAL.equals(operator)) {
+				upper = pick(upper, new Bound(argument, RSQLOperators.LESS_THAN.equals(operator)), -1, true);
+			} else {
+				// == or =in=, the values meet every one of them
+				candidates = (candidates == null) ? distinct(comparison.getArguments()) : intersect(candidates, comparison.getArguments());
+			}
+		}
+		if (candidates != null) {
+			List<String> values = new ArrayList<String>();
+			for (String candidate : candidates) {
+				if (within(candidate, lower, upper)) {
+					values.add(candidate);
+				}
+			}
+			if (values.isEmpty()) {
+				return null;
+			}
+			result.add(set(RSQLOperators.EQUAL, RSQLOperators.IN, selector, values));
+		} else if (lower != null && upper != null) {
+			int comparison = number(lower.value).compareTo(number(upper.value));
+			if (comparison > 0 || (comparison == 0 && (lower.strict || upper.strict))) {
+				return null;
+			}
+			// a closed range keeps its shape, so prepared queries can bind any range
+			result.add(lower.toNode(selector, RSQLOperators.GREATER_THAN, RSQLOperators.GREATER_THAN_OR_EQUAL));
+			result.add(upper.toNode(selector, RSQLOperators.LESS_THAN, RSQLOperators.LESS_THAN_OR_EQUAL));
+		} else if (lower != null) {
+			result.add(lower.toNode(selector, RSQLOperators.GREATER_THAN, RSQLOperators.GREATER_THAN_OR_EQUAL));
+		} else {
+			result.add(upper.toNode(selector, RSQLOperators.LESS_THAN, RSQLOperators.LESS_THAN_OR_EQUAL));
+		}
+		return result;
+	}
+
+	/**
+	 * Merge the comparisons of a selector joined by OR.
+	 * 
+	 * @param comparisons Comparisons of the same selector.
+	 * @param type        Type of the selector, null when it is unknown.
+	 * @return            Merged comparisons.
+	 */
+	private static List<Node> mergeDisjunction(List<ComparisonNode> comparisons, Class<?> type) {
+		List<Node> result = new ArrayList<Node>();
+		List<String> included = new ArrayList<String>();
+		Bound lower = null;
+		Bound upper = null;
+		for (ComparisonNode comparison : comparisons) {
+			ComparisonOperator operator = comparison.getOperator();
+			String argument = comparison.getArguments().get(0);
+			if (isExact(type) && ((RSQLOperators.EQUAL.equals(operator) && isLiteral(argument)) 
+					|| (RSQLOperators.IN.equals(operator) && isLiteral(comparison.getArguments())))) {
+				included.addAll(comparison.getArguments());
+			} else if (isNumber(type) && isNumeric(comparison) && (RSQLOperators.GREATER_THAN.equals(operator) || RSQLOperators.GREATER_THAN_OR_EQUAL.equals(operator))) {
+				lower = pick(lower, new Bound(argument, RSQLOperators.GREATER_THAN.equals(operator)), -1, false);
+			} else if (isNumber(type) && isNumeric(comparison) && (RSQLOperators.LESS_THAN.equals(operator) || RSQLOperators.LESS_THAN_OR_EQUAL.equals(operator))) {
+				upper = pick(upper, new Bound(argument, RSQLOperators.LESS_THAN.equals(operator)), 1, false);
+			} else {
+				result.add(comparison);
+			}
+		}
+		String selector = comparisons.get(0).getSelector();
+		if (!included.isEmpty()) {
+			result.add(set(RSQLOperators.EQUAL, RSQLOperators.IN, selector, included));
+		}
+		if (lower != null) {
+			result.add(lower.toNode(selector, RSQLOperators.GREATER_THAN, RSQLOperators.GREATER_THAN_OR_EQUAL));
+		}
+		if (upper != null) {
+			result.add(upper.toNode(selector, RSQLOperators.LESS_THAN, RSQLOperators.LESS_THAN_OR_EQUAL));
+		}
+		return result;
+	}
+
+	/**
+	 * One of two bounds of the same direction.
+	 * 
+	 * @param current     Current bound, may be null.
+	 * @param bound       New bound.
+	 * @param direction   1 to keep the greater value, -1 to keep the lesser one.
+	 * @param conjunction true when the bounds are joined by AND.
+	 * @return            Kept bound.
+	 */
+	private static Bound pick(Bound current, Bound bound, int direction, boolean conjunction) {
+		if (current == null) {
+			return bound;
+		}
+		int comparison = number(bound.value).compareTo(number(current.value)) * direction;
+		if (comparison > 0) {
+			return bound;
+		} else if (comparison == 0) {
+			// same value: AND keeps the strict bound and OR the inclusive one
+			boolean strict = conjunction ? (current.strict || bound.strict) : (current.strict && bound.strict);
+			return new Bound(current.value, strict);
+		}
+		return current;
+	}
+
+	/**
+	 * Verifies if a value meets the bounds.
+	 * 
+	 * @param value Numeric value.
+	 * @param lower Lower bound, may be null.
+	 * @param upper Upper bound, may be null.
+	 * @return      true when the value is within the bounds.
+	 */
+	private static boolean within(String value, Bound lower, Bound upper) {
+		BigDecimal number = number(value);
+		if (lower != null) {
+			int comparison = number.compareTo(number(lower.value));
+			if (comparison < 0 || (comparison == 0 && lower.strict)) {
+				return false;
+			}
+		}
+		if (upper != null) {
+			int comparison = number.compareTo(number(upper.value));
+			if (comparison > 0 || (comparison == 0 && upper.strict)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Distinct numeric values, in the order they appear.
+	 * 
+	 * @param values Numeric values.
+	 * @return       Distinct values.
+	 */
+	private static List<String> distinct(List<String> values) {
+		List<String> result = new ArrayList<String>();
+		for (String value : values) {
+			if (!contains(result, value)) {
+				result.add(value);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Numeric values present in both lists.
+	 * 
+	 * @param values Numeric values.
+	 * @param others Other numeric values.
+	 * @return       Common values.
+	 */
+	private static List<String> intersect(List<String> values, List<String> others) {
+		List<String> result = new ArrayList<String>();
+		for (String value : values) {
+			if (contains(others, value)) {
+				result.add(value);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Verifies if a list has a number equal to a value (1 and 1.0 are equal).
+	 * 
+	 * @param values Numeric values.
+	 * @param value  Numeric value.
+	 * @return       true when the value is in the list.
+	 */
+	private static boolean contains(List<String> values, String value) {
+		BigDecimal number = number(value);
+		for (String other : values) {
+			if (number(other).compareTo(number) == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Comparison of one value or of a set of values.
+	 * 
+	 * @param single   Operator for one value.
+	 * @param multiple Operator for many values.
+	 * @param selector Selector.
+	 * @param values   Values.
+	 * @return         Comparison node.
+	 */
+	private static ComparisonNode set(ComparisonOperator single, ComparisonOperator multiple, String selector, List<String> values) {
+		List<String> arguments = new ArrayList<String>(new TreeSet<String>(values));
+		return (arguments.size() == 1) ? comparison(single, selector, arguments.get(0)) : new ComparisonNode(multiple, selector, arguments);
+	}
+
+	/**
+	 * Comparison of one value.
+	 * 
+	 * @param operator Operator.
+	 * @param selector Selector.
+	 * @param value    Value.
+	 * @return         Comparison node.
+	 */
+	private static ComparisonNode comparison(ComparisonOperator operator, String selector, String value) {
+		return new ComparisonNode(operator, selector, Collections.singletonList(value));
+	}
+
+	/**
+	 * Verifies if the equalities of a type are exact, so they mean the same 
+	 * as a set (a string equality is a case insensitive LIKE).
+	 * 
+	 * @param type Type of the selector, null when it is unknown.
+	 * @return     true when the type is known and is not a string.
+	 */
+	private static boolean isExact(Class<?> type) {
+		return type != null && !String.class.equals(type);
+	}
+
+	/**
+	 * Verifies if a type is compared as a number.
+	 * 
+	 * @param type Type of the selector, null when it is unknown.
+	 * @return     true when the type is a number.
+	 */
+	private static boolean isNumber(Class<?> type) {
+		return type != null && Number.class.isAssignableFrom(type);
+	}
+
+	/**
+	 * Verifies if a comparison can take part on numeric folding.
+	 * 
+	 * @param comparison Comparison node.
+	 * @return           true for ==, =in= and ranges with only numeric values.
+	 */
+	private static boolean isNumeric(ComparisonNode comparison) {
+		ComparisonOperator operator = comparison.getOperator();
+		if (RSQLOperators.NOT_EQUAL.equals(operator) || RSQLOperators.NOT_IN.equals(operator)) {
+			return false;
+		}
+		for (String argument : comparison.getArguments()) {
+			if (number(argument) == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Verifies if the values mean the same in an equality and in a set.
+	 * 
+	 * @param values Values.
+	 * @return       true when all values are literal.
+	 */
+	private static boolean isLiteral(List<String> values) {
+		for (String value : values) {
+			if (!isLiteral(value)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Verifies if a value means the same in an equality and in a set, 
+	 * a string equality is a LIKE and null is a IS NULL.
+	 * 
+	 * @param value Value.
+	 * @return      true when the value is literal.
+	 */
+	private static boolean isLiteral(String value) {
+		return !RsqlShape.isNull(value) && value.indexOf('*') < 0 && value.indexOf('%') < 0 && value.indexOf('_') < 0;
+	}
+
+	/**
+	 * Numeric value.
+	 * 
+	 * @param value Value.
+	 * @return      Number, null when the value is not a number.
+	 */
+	private static BigDecimal number(String value) {
+		try {
+			return new BigDecimal(value);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Condition that no entity can meet.
+	 * 
+	 * @return Empty OR.
+	 */
+	private static Node nothing() {
+		return new OrNode(Collections.<Node>emptyList());
+	}
+
+	/**
+	 * Bound of a range.
+	 */
+	private static final class Bound {
+
+		/**
+		 * Numeric value.
+		 */
+		private final String value;
+
+		/**
+		 * true when the value is not in the range.
+		 */
+		private final boolean strict;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param value  Numeric value.
+		 * @param strict true when the value is not in the range.
+		 */
+		private Bound(String value, boolean strict) {
+			this.value = value;
+			this.strict = strict;
+		}
+
+		/**
+		 * Comparison node of the bound.
+		 * 
+		 * @param selector  Selector.
+		 * @param strict    Operator of a strict bound.
+		 * @param inclusive Operator of an inclusive bound.
+		 * @return          Comparison node.
+		 */
+		private Node toNode(String selector, ComparisonOperator strict, ComparisonOperator inclusive) {
+			return comparison(this.strict ? strict : inclusive, selector, this.value);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.rsql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import cz.jirutka.rsql.parser.ast.AndNode;
+import cz.jirutka.rsql.parser.ast.ComparisonNode;
+import cz.jirutka.rsql.parser.ast.Node;
+import cz.jirutka.rsql.parser.ast.RSQLOperators;
+
+/**
+ * RsqlPartitioner.
+ * 
+ * Splits a condition with an oversized =in= list into conditions with 
+ * bounded lists. The partitions are disjoint and together they select the 
+ * same entities of the original condition, so their results can be merged 
+ * without duplicates.
+ * 
+ * Only a =in= of an attribute of the entity itself is split, either as the 
+ * whole condition or as one operand of a AND. A =in= under a OR, or over a 
+ * path that may join collections, could select the same entity twice.
+ * 
+ * @author Antonio Rabelo
+ */
+public final class RsqlPartitioner {
+
+	/**
+	 * Utility class.
+	 */
+	private RsqlPartitioner() {
+	}
+
+	/**
+	 * Split a condition by its largest =in= list.
+	 * 
+	 * @param node      Canonical RSQL tree.
+	 * @param maxValues Max number of values of each =in= list (starts with 1).
+	 * @return          Partitions of the condition, a single one when it cannot be split.
+	 */
+	public static List<Node> partition(Node node, int maxValues) {
+		if (maxValues < 1) {
+			throw new IllegalArgumentException("The max number of values starts with 1.");
+		}
+		List<Node> operands = (node instanceof AndNode) ? ((AndNode)node).getChildren() : Collections.singletonList(node);
+		int index = -1;
+		int size = maxValues;
+		for (int i = 0; i < operands.size(); i++) {
+			Node operand = operands.get(i);
+			if (isSplittable(operand) && ((ComparisonNode)operand).getArguments().size() > size) {
+				index = i;
+				size = ((ComparisonNode)operand).getArguments().size();
+			}
+		}
+		if (index < 0) {
+			return Collections.singletonList(node);
+		}
+		ComparisonNode in = (ComparisonNode)operands.get(index);
+		List<String> values = in.getArguments();
+		List<Node> partitions = new ArrayList<Node>();
+		for (int start = 0; start < values.size(); start += maxValues) {
+			List<String> chunk = values.subList(start, Math.min(start + maxValues, values.size()));
+			List<Node> children = new ArrayList<Node>(operands);
+			children.set(index, in.withArguments(new ArrayList<String>(chunk)));
+			partitions.add((children.size() == 1) ? children.get(0) : new AndNode(children));
+		}
+		return partitions;
+	}
+
+	/**
+	 * Verifies if a node is a =in= of an attribute of the entity itself.
+	 * 
+	 * @param node RSQL node.
+	 * @return     true when the node can be split.
+	 */
+	private static boolean isSplittable(Node node) {
+		return node instanceof ComparisonNode 
+				&& RSQLOperators.IN.equals(((ComparisonNode)node).getOperator()) 
+				&& ((ComparisonNode)node).getSelector().indexOf('.') < 0;
+	}
+}
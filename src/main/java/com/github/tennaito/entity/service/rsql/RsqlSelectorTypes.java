@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.rsql;
+
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.PluralAttribute;
+
+/**
+ * RsqlSelectorTypes.
+ * 
+ * Java types of the selectors of a RSQL condition over an entity, read 
+ * from the metamodel. A dotted selector follows the associations, and a 
+ * collection resolves to the type of its elements.
+ * 
+ * @author Antonio Rabelo
+ */
+public final class RsqlSelectorTypes {
+
+	/**
+	 * Metamodel of the persistence unit.
+	 */
+	private final Metamodel metamodel;
+
+	/**
+	 * Entity class type.
+	 */
+	private final Class<?> entity;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param metamodel Metamodel of the persistence unit.
+	 * @param entity    Entity class type.
+	 */
+	public RsqlSelectorTypes(Metamodel metamodel, Class<?> entity) {
+		if (metamodel == null || entity == null) {
+			throw new IllegalArgumentException("Must define the metamodel and the entity.");
+		}
+		this.metamodel = metamodel;
+		this.entity = entity;
+	}
+
+	/**
+	 * Returns the entity class type.
+	 * 
+	 * @return Entity class type.
+	 */
+	public Class<?> getEntity() {
+		return this.entity;
+	}
+
+	/**
+	 * Java type of a selector, primitives are wrapped.
+	 * 
+	 * @param selector Selector (property path).
+	 * @return         Type of the selector, null when it is unknown.
+	 */
+	public Class<?> typeOf(String selector) {
+		Class<?> type = this.entity;
+		for (String property : selector.split("\\.")) {
+			Attribute<?, ?> attribute = attribute(type, property);
+			if (attribute == null) {
+				return null;
+			}
+			type = (attribute instanceof PluralAttribute) 
+					? ((PluralAttribute<?, ?, ?>)attribute).getElementType().getJavaType() 
+					: attribute.getJavaType();
+		}
+		return ParameterBinding.wrap(type);
+	}
+
+	/**
+	 * Attribute of a managed type.
+	 * 
+	 * @param type     Managed class type.
+	 * @param property Attribute name.
+	 * @return         Attribute, null when the type is not managed or has no such attribute.
+	 */
+	private Attribute<?, ?> attribute(Class<?> type, String property) {
+		try {
+			ManagedType<?> managed = this.metamodel.managedType(type);
+			return managed.getAttribute(property);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+}
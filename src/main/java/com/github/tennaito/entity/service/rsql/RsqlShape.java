@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.rsql;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cz.jirutka.rsql.parser.ast.ComparisonNode;
+import cz.jirutka.rsql.parser.ast.LogicalNode;
+import cz.jirutka.rsql.parser.ast.Node;
+import cz.jirutka.rsql.parser.ast.RSQLOperators;
+
+/**
+ * RsqlShape.
+ * 
+ * The shape of a RSQL tree is the tree without the comparison values. Two 
+ * trees with the same shape produce the same parameterized query in the 
+ * ParameterizedPredicateVisitor, and only differ in the bound values.
+ * 
+ * @author Antonio Rabelo
+ */
+public final class RsqlShape {
+
+	/**
+	 * Placeholder of a value in the shape.
+	 */
+	private static final String PLACEHOLDER = "?";
+
+	/**
+	 * RSQL null value.
+	 */
+	private static final String NULL = "null";
+
+	/**
+	 * Utility class.
+	 */
+	private RsqlShape() {
+	}
+
+	/**
+	 * Shape of a RSQL tree.
+	 * 
+	 * Null values are kept, because they turn a comparison into is null.
+	 * 
+	 * @param node RSQL tree.
+	 * @return     The shape as a string.
+	 */
+	public static String of(Node node) {
+		StringBuilder shape = new StringBuilder();
+		appendShape(node, shape);
+		return shape.toString();
+	}
+
+	/**
+	 * Arguments that become bind parameters, in the same order the 
+	 * ParameterizedPredicateVisitor creates them.
+	 * 
+	 * @param node RSQL tree.
+	 * @return     Arguments of the parameters.
+	 */
+	public static List<String> arguments(Node node) {
+		List<String> arguments = new ArrayList<String>();
+		appendArguments(node, arguments);
+		return arguments;
+	}
+
+	/**
+	 * Verifies if an argument is the RSQL null value.
+	 * 
+	 * @param argument RSQL argument.
+	 * @return         true if it means null.
+	 */
+	public static boolean isNull(String argument) {
+		return NULL.equals(argument.trim().toLowerCase());
+	}
+
+	/**
+	 * Append the shape of a node.
+	 * 
+	 * @param node  RSQL node.
+	 * @param shape Shape being built.
+	 */
+	private static void appendShape(Node node, StringBuilder shape) {
+		if (node instanceof LogicalNode) {
+			LogicalNode logical = (LogicalNode)node;
+			shape.append(logical.getOperator()).append('(');
+			for (int i = 0; i < logical.getChildren().size(); i++) {
+				if (i > 0) {
+					shape.append(',');
+				}
+				appendShape(logical.getChildren().get(i), shape);
+			}
+			shape.append(')');
+		} else {
+			ComparisonNode comparison = (ComparisonNode)node;
+			shape.append(comparison.getSelector()).append(comparison.getOperator().getSymbol()).append('(');
+			for (int i = 0; i < comparison.getArguments().size(); i++) {
+				if (i > 0) {
+					shape.append(',');
+				}
+				shape.append(isNull(comparison.getArguments().get(i)) ? NULL : PLACEHOLDER);
+			}
+			shape.append(')');
+		}
+	}
+
+	/**
+	 * Append the arguments of a node.
+	 * 
+	 * @param node      RSQL node.
+	 * @param arguments Arguments being collected.
+	 */
+	private static void appendArguments(Node node, List<String> arguments) {
+		if (node instanceof LogicalNode) {
+			for (Node child : (LogicalNode)node) {
+				appendArguments(child, arguments);
+			}
+		} else {
+			ComparisonNode comparison = (ComparisonNode)node;
+			boolean equality = RSQLOperators.EQUAL.equals(comparison.getOperator()) 
+					|| RSQLOperators.NOT_EQUAL.equals(comparison.getOperator());
+			for (String argument : comparison.getArguments()) {
+				// (in)equality against null is not a parameter but is (not) null
+				if (!(equality && isNull(argument))) {
+					arguments.add(argument);
+				}
+			}
+		}
+	}
+}
@@ -28,6 +28,9 @@ import java.lang.reflect.Array;
 import javax.persistence.EntityManager;
 import javax.persistence.criteria.Predicate;
 
+import com.github.tennaito.entity.service.cache.LruCache;
+import com.github.tennaito.entity.service.rsql.RsqlOptimizer;
+import com.github.tennaito.entity.service.rsql.RsqlSelectorTypes;
 import com.github.tennaito.rsql.jpa.JpaPredicateVisitor;
 
 import cz.jirutka.rsql.parser.RSQLParser;
@@ -44,10 +47,41 @@ import cz.jirutka.rsql.parser.ast.RSQLVisitor;
  */
 public abstract class AbstractCriteriaSnippetRsqlDecorator<R, T> extends AbstractCriteriaSnippetDecorator<R, T> {
 	
+	/**
+	 * Default size of the shared parsed RSQL cache.
+	 */
+	public static final int DEFAULT_NODE_CACHE_SIZE = 512;
+	
+	/**
+	 * Parsed RSQL trees shared by all decorators, keyed by the RSQL string 
+	 * (and by the entity when the types of the selectors are known).
+	 */
+	private static final LruCache<String, Node> SHARED_NODE_CACHE = new LruCache<String, Node>(DEFAULT_NODE_CACHE_SIZE);
+	
 	/**
 	 * Rsql condition.
 	 */
 	protected final String rsql;
+	
+	/**
+	 * Cache of parsed RSQL trees.
+	 */
+	private final LruCache<String, Node> nodeCache;
+	
+	/**
+	 * Parsed tree of the rsql condition.
+	 */
+	private Node node;
+	
+	/**
+	 * True when the tree of the rsql condition was given already parsed.
+	 */
+	private boolean parsed;
+	
+	/**
+	 * Types of the selectors, null when they are unknown.
+	 */
+	private RsqlSelectorTypes types;
 
 	/**
 	 * Constructor.
@@ -55,8 +89,90 @@ public abstract class AbstractCriteriaSnippetRsqlDecorator<R, T> extends Abstrac
 	 * @param snippet CriteriaSnippet to be decorated.
 	 */
 	public AbstractCriteriaSnippetRsqlDecorator(String rsql, CriteriaSnippet<R, T> snippet) {
+		this(rsql, SHARED_NODE_CACHE, snippet);
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param rsql      RSQL string.
+	 * @param nodeCache Cache of parsed RSQL trees.
+	 * @param snippet   CriteriaSnippet to be decorated.
+	 */
+	public AbstractCriteriaSnippetRsqlDecorator(String rsql, LruCache<String, Node> nodeCache, CriteriaSnippet<R, T> snippet) {
 		super(snippet);
+		if (nodeCache == null) {
+			throw new IllegalArgumentException("Must define the RSQL node cache.");
+		}
 		this.rsql = rsql;
+		this.nodeCache = nodeCache;
+	}
+	
+	/**
+	 * Constructor with the rsql condition already parsed, so the same 
+	 * tree is reused by every query built from that condition.
+	 * 
+	 * @param rsql    RSQL string.
+	 * @param node    Parsed tree of the RSQL string.
+	 * @param snippet CriteriaSnippet to be decorated.
+	 */
+	public AbstractCriteriaSnippetRsqlDecorator(String rsql, Node node, CriteriaSnippet<R, T> snippet) {
+		this(rsql, SHARED_NODE_CACHE, snippet);
+		this.node = node;
+		this.parsed = node != null;
+	}
+	
+	/**
+	 * Returns the cache of parsed RSQL trees shared by default among all decorators.
+	 * 
+	 * @return Shared RSQL node cache.
+	 */
+	public static LruCache<String, Node> getSharedNodeCache() {
+		return SHARED_NODE_CACHE;
+	}
+	
+	/**
+	 * Define the types of the selectors, so the tree of the rsql condition 
+	 * is optimized for them (see RsqlOptimizer).
+	 * 
+	 * @param types Types of the selectors, null when they are unknown.
+	 * @return      the owner object.
+	 */
+	public AbstractCriteriaSnippetRsqlDecorator<R, T> types(RsqlSelectorTypes types) {
+		if (!this.parsed && types != this.types) {
+			this.node = null;
+		}
+		this.types = types;
+		return this;
+	}
+	
+	/**
+	 * Returns the types of the selectors.
+	 * 
+	 * @return Types of the selectors, null when they are unknown.
+	 */
+	public RsqlSelectorTypes getTypes() {
+		return this.types;
+	}
+	
+	/**
+	 * Returns the parsed tree of the rsql condition.
+	 * 
+	 * @return Root node of the rsql, null when there is no condition.
+	 */
+	public Node getNode() {
+		return (this.rsql == null) ? null : parseNode(this.rsql);
+	}
+	
+	/**
+	 * Verifies if no entity can meet the rsql condition, so the 
+	 * query does not need to be executed.
+	 * 
+	 * @return true when the condition is a contradiction.
+	 */
+	public boolean isUnsatisfiable() {
+		Node root = getNode();
+		return root != null && RsqlOptimizer.isUnsatisfiable(root);
 	}
 	
 	/**
@@ -73,9 +189,49 @@ public abstract class AbstractCriteriaSnippetRsqlDecorator<R, T> extends Abstrac
 			= new JpaPredicateVisitor<T>((T[])Array.newInstance(entity, 0));
 
 		// Parse a RSQL into a Node
-		Node rootNode = new RSQLParser().parse(rsql);
+		resolveTypes(entity, manager);
+		Node rootNode = parseNode(rsql);
 
 		// Visit the node to retrieve CriteriaQuery
 		return rootNode.accept(visitor, manager);
 	}
+	
+	/**
+	 * Define the types of the selectors from the metamodel, when they are unknown.
+	 * 
+	 * @param entity  Entity type.
+	 * @param manager EntityManager.
+	 */
+	protected void resolveTypes(Class<T> entity, EntityManager manager) {
+		if (this.types == null) {
+			types(new RsqlSelectorTypes(manager.getMetamodel(), entity));
+		}
+	}
+	
+	/**
+	 * Parse a rsql into it´s tree, reusing a previously parsed tree when possible.
+	 * 
+	 * Parsed trees are immutable, so they can be shared between threads, 
+	 * optimized for the types of the selectors (when known) and canonical, 
+	 * so equivalent spellings build the same query.
+	 * 
+	 * @param rsql RSQL string.
+	 * @return     Root node of the rsql.
+	 */
+	protected Node parseNode(String rsql) {
+		boolean condition = rsql.equals(this.rsql);
+		if (condition && this.node != null) {
+			return this.node;
+		}
+		String key = (this.types == null) ? rsql : this.types.getEntity().getName() + '#' + rsql;
+		Node result = this.nodeCache.get(key);
+		if (result == null) {
+			result = RsqlOptimizer.optimize(new RSQLParser().parse(rsql), this.types);
+			this.nodeCache.put(key, result);
+		}
+		if (condition) {
+			this.node = result;
+		}
+		return result;
+	}
 }
@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.snippet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+
+import com.github.tennaito.entity.service.Aggregate;
+
+/**
+ * Decorate with aggregate functions grouped by some properties.
+ * 
+ * Each tuple has the group by properties (aliased by their names) and 
+ * the aggregates (aliased as "sum(price)"), sorted by the group by properties.
+ * 
+ * @author Antonio Rabelo
+ *
+ * @param <T> Entity Type
+ */
+public class CriteriaSnippetAggregateDecorator<T> extends AbstractCriteriaSnippetDecorator<Tuple, T> {
+
+	/**
+	 * Group by properties.
+	 */
+	private final List<String> groupBy;
+
+	/**
+	 * Aggregates.
+	 */
+	private final List<Aggregate> aggregates;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param groupBy    Group by properties, null or empty for a single group.
+	 * @param aggregates Aggregates (at least one).
+	 * @param snippet    CriteriaSnippet to be decorated.
+	 */
+	public CriteriaSnippetAggregateDecorator(List<String> groupBy, List<Aggregate> aggregates, CriteriaSnippet<Tuple, T> snippet) {
+		super(snippet);
+		this.groupBy = (groupBy == null) ? Collections.<String>emptyList() : groupBy;
+		this.aggregates = aggregates;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.snippet.AbstractCriteriaSnippetDecorator#validate()
+	 */
+	public boolean validate() throws IllegalArgumentException {
+		boolean val = super.validate();
+		if (this.aggregates == null || this.aggregates.isEmpty()) {
+			throw new IllegalArgumentException("Must define at least one aggregate.");
+		}
+		return val;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.snippet.AbstractCriteriaSnippetDecorator#modify(javax.persistence.criteria.CriteriaQuery, java.lang.Class, java.lang.Class, javax.persistence.EntityManager)
+	 */
+	public CriteriaQuery<Tuple> modify(CriteriaQuery<Tuple> criteria, Class<Tuple> resultClass, Class<T> entity, EntityManager manager) {
+		criteria = super.modify(criteria, resultClass, entity, manager);
+		CriteriaBuilder builder = manager.getCriteriaBuilder();
+		Root<?> root = findRoot(criteria, entity);
+		List<Selection<?>> selections = new ArrayList<Selection<?>>();
+		List<Expression<?>> groups = new ArrayList<Expression<?>>();
+		List<Order> orders = new ArrayList<Order>();
+		for (String property : this.groupBy) {
+			Path<?> path = findPath(root, property);
+			selections.add(path.alias(property));
+			groups.add(path);
+			orders.add(builder.asc(path));
+		}
+		for (Aggregate aggregate : this.aggregates) {
+			selections.add(createAggregate(builder, findPath(root, aggregate.getProperty()), aggregate.getFunction()).alias(aggregate.getAlias()));
+		}
+		criteria.multiselect(selections);
+		if (!groups.isEmpty()) {
+			criteria.groupBy(groups).orderBy(orders);
+		}
+		return criteria;
+	}
+
+	/**
+	 * Path of a property, dot separated for properties of associations.
+	 * 
+	 * @param root     Root of the entity.
+	 * @param property Property name.
+	 * @return         Path of the property.
+	 */
+	protected Path<?> findPath(Root<?> root, String property) {
+		Path<?> path = root;
+		for (String name : property.split("\\.")) {
+			path = path.get(name);
+		}
+		return path;
+	}
+
+	/**
+	 * Create the aggregate expression of a path.
+	 * 
+	 * @param builder  CriteriaBuilder.
+	 * @param path     Path of the aggregated property.
+	 * @param function Aggregate function.
+	 * @return         Aggregate expression.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected Expression<?> createAggregate(CriteriaBuilder builder, Path<?> path, Aggregate.Function function) {
+		Expression<?> expression;
+		switch (function) {
+			case COUNT:
+				expression = builder.count(path);
+				break;
+			case SUM:
+				expression = builder.sum((Expression<Number>)path);
+				break;
+			case AVG:
+				expression = builder.avg((Expression<Number>)path);
+				break;
+			case MIN:
+				// least and greatest also work for dates and strings
+				expression = builder.least((Expression<Comparable>)path);
+				break;
+			default:
+				expression = builder.greatest((Expression<Comparable>)path);
+				break;
+		}
+		return expression;
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.snippet;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Parameter;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.ParameterExpression;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import javax.persistence.criteria.Subquery;
+
+import com.github.tennaito.entity.service.rsql.ParameterizedPredicateVisitor;
+
+import cz.jirutka.rsql.parser.ast.ComparisonNode;
+import cz.jirutka.rsql.parser.ast.LogicalNode;
+import cz.jirutka.rsql.parser.ast.Node;
+
+/**
+ * Decorate with one count for each condition, computed in a single scan 
+ * as SUM(CASE WHEN condition THEN 1 ELSE 0 END).
+ * 
+ * The values of the conditions are bind parameters and the where clause is 
+ * the OR of the conditions, so indexes can be used when all of them are selective.
+ * 
+ * All the conditions share the root, so a condition with dotted selectors 
+ * (like "items.price=lt=1") is an exists subquery with its own joins: a 
+ * join in the main query would repeat the rows counted by the others.
+ * 
+ * @author Antonio Rabelo
+ *
+ * @param <T> Entity Type
+ */
+public class CriteriaSnippetCountMultiDecorator<T> extends AbstractCriteriaSnippetDecorator<Tuple, T> {
+
+	/**
+	 * Parsed conditions, a null entry counts all the entities.
+	 */
+	private final List<Node> nodes;
+
+	/**
+	 * Parameters (and values) of the last built query.
+	 */
+	private Map<ParameterExpression<?>, Object> parameters = new LinkedHashMap<ParameterExpression<?>, Object>();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param nodes   Parsed conditions (at least one), a null entry counts all the entities.
+	 * @param snippet CriteriaSnippet to be decorated.
+	 */
+	public CriteriaSnippetCountMultiDecorator(List<Node> nodes, CriteriaSnippet<Tuple, T> snippet) {
+		super(snippet);
+		this.nodes = nodes;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.snippet.AbstractCriteriaSnippetDecorator#validate()
+	 */
+	public boolean validate() throws IllegalArgumentException {
+		boolean val = super.validate();
+		if (this.nodes == null || this.nodes.isEmpty()) {
+			throw new IllegalArgumentException("Must define at least one condition.");
+		}
+		return val;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.snippet.AbstractCriteriaSnippetDecorator#modify(javax.persistence.criteria.CriteriaQuery, java.lang.Class, java.lang.Class, javax.persistence.EntityManager)
+	 */
+	@SuppressWarnings("unchecked")
+	public CriteriaQuery<Tuple> modify(CriteriaQuery<Tuple> criteria, Class<Tuple> resultClass, Class<T> entity, EntityManager manager) {
+		criteria = super.modify(criteria, resultClass, entity, manager);
+		CriteriaBuilder builder = manager.getCriteriaBuilder();
+		Root<T> root = (Root<T>)findRoot(criteria, entity);
+		Map<ParameterExpression<?>, Object> values = new LinkedHashMap<ParameterExpression<?>, Object>();
+		List<Selection<?>> selections = new ArrayList<Selection<?>>();
+		List<Predicate> conditions = new ArrayList<Predicate>();
+		for (Node node : this.nodes) {
+			Predicate predicate;
+			if (node == null) {
+				// a tautology the provider keeps, the parameters of the other
+				// conditions are only known when they are in the where clause
+				predicate = builder.isNotNull(root);
+			} else if (!hasDottedSelector(node)) {
+				ParameterizedPredicateVisitor<T> visitor = new ParameterizedPredicateVisitor<T>(root);
+				predicate = node.accept(visitor, manager);
+				values.putAll(visitor.getParameters());
+			} else {
+				Subquery<T> subquery = criteria.subquery(entity);
+				Root<T> joined = subquery.from(entity);
+				ParameterizedPredicateVisitor<T> visitor = new ParameterizedPredicateVisitor<T>(joined);
+				subquery.select(joined).where(builder.equal(joined, root), node.accept(visitor, manager));
+				predicate = builder.exists(subquery);
+				values.putAll(visitor.getParameters());
+			}
+			conditions.add(predicate);
+			selections.add(builder.sum(builder.<Long>selectCase().when(predicate, 1L).otherwise(0L)));
+		}
+		criteria.multiselect(selections);
+		criteria.where(builder.or(conditions.toArray(new Predicate[conditions.size()])));
+		this.parameters = values;
+		return criteria;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.snippet.AbstractCriteriaSnippetDecorator#configure(javax.persistence.TypedQuery)
+	 */
+	@SuppressWarnings("unchecked")
+	public TypedQuery<Tuple> configure(TypedQuery<Tuple> query) {
+		query = super.configure(query);
+		for (Map.Entry<ParameterExpression<?>, Object> entry : this.parameters.entrySet()) {
+			query.setParameter((Parameter<Object>)entry.getKey(), entry.getValue());
+		}
+		return query;
+	}
+
+	/**
+	 * Verifies if a condition has dotted selectors.
+	 * 
+	 * @param node Parsed condition.
+	 * @return     true when a comparison goes through an association.
+	 */
+	private static boolean hasDottedSelector(Node node) {
+		boolean dotted = false;
+		if (node instanceof LogicalNode) {
+			for (Node child : ((LogicalNode)node).getChildren()) {
+				dotted |= hasDottedSelector(child);
+			}
+		} else if (node instanceof ComparisonNode) {
+			dotted = ((ComparisonNode)node).getSelector().indexOf('.') >= 0;
+		}
+		return dotted;
+	}
+
+	/**
+	 * Counts of a result tuple, in the order of the conditions.
+	 * 
+	 * @param tuple Result tuple, null when there was no row.
+	 * @return      Counts.
+	 */
+	public List<Long> createCounts(Tuple tuple) {
+		List<Long> counts = new ArrayList<Long>(this.nodes.size());
+		for (int i = 0; i < this.nodes.size(); i++) {
+			// the sum of no rows is null
+			Object count = (tuple == null) ? null : tuple.get(i);
+			counts.add((count == null) ? 0L : ((Number)count).longValue());
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.snippet;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Root;
+
+/**
+ * Decorate with the count of entities of each value of a property 
+ * (GROUP BY), the values with more entities first.
+ * 
+ * @author Antonio Rabelo
+ *
+ * @param <T> Entity Type
+ */
+public class CriteriaSnippetFacetDecorator<T> extends AbstractCriteriaSnippetDecorator<Tuple, T> {
+
+	/**
+	 * Property of the facet.
+	 */
+	private final String property;
+
+	/**
+	 * Max number of values, null for all.
+	 */
+	private final Integer limit;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param property Property of the facet.
+	 * @param limit    Max number of values (starts with 1), null for all.
+	 * @param snippet  CriteriaSnippet to be decorated.
+	 */
+	public CriteriaSnippetFacetDecorator(String property, Integer limit, CriteriaSnippet<Tuple, T> snippet) {
+		super(snippet);
+		this.property = property;
+		this.limit = limit;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.snippet.AbstractCriteriaSnippetDecorator#validate()
+	 */
+	public boolean validate() throws IllegalArgumentException {
+		boolean val = super.validate();
+		if (this.property == null) {
+			throw new IllegalArgumentException("Must define the property of the facet.");
+		}
+		if (this.limit != null && this.limit < 1) {
+			throw new IllegalArgumentException("Limit must be a non-zero positive integer.");
+		}
+		return val;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.snippet.AbstractCriteriaSnippetDecorator#modify(javax.persistence.criteria.CriteriaQuery, java.lang.Class, java.lang.Class, javax.persistence.EntityManager)
+	 */
+	public CriteriaQuery<Tuple> modify(CriteriaQuery<Tuple> criteria, Class<Tuple> resultClass, Class<T> entity, EntityManager manager) {
+		criteria = super.modify(criteria, resultClass, entity, manager);
+		CriteriaBuilder builder = manager.getCriteriaBuilder();
+		Root<?> root = findRoot(criteria, entity);
+		Path<?> path = root;
+		for (String name : this.property.split("\\.")) {
+			path = path.get(name);
+		}
+		Expression<Long> count = builder.count(root);
+		criteria.multiselect(path, count).groupBy(path).orderBy(builder.desc(count), builder.asc(path));
+		return criteria;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.snippet.AbstractCriteriaSnippetDecorator#configure(javax.persistence.TypedQuery)
+	 */
+	public TypedQuery<Tuple> configure(TypedQuery<Tuple> query) {
+		query = super.configure(query);
+		if (this.limit != null) {
+			query.setMaxResults(this.limit);
+		}
+		return query;
+	}
+
+	/**
+	 * Counts of each value from the result tuples.
+	 * 
+	 * @param tuples Result tuples.
+	 * @return       Count of each value, the values with more entities first.
+	 */
+	public Map<Object, Long> createCounts(List<Tuple> tuples) {
+		Map<Object, Long> counts = new LinkedHashMap<Object, Long>();
+		for (Tuple tuple : tuples) {
+			counts.put(tuple.get(0), ((Number)tuple.get(1)).longValue());
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,350 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.snippet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityGraph;
+import javax.persistence.EntityManager;
+import javax.persistence.Subgraph;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.FetchParent;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type;
+
+/**
+ * Decorate with an EntityGraph hint, so the associations needed by the 
+ * caller are fetched with the entities instead of one select for each 
+ * lazy association read later (like by an EntityStateStrategy).
+ * 
+ * The graph alone only loads the associations earlier, each one with its 
+ * own select. So the single valued associations of the graph are fetch 
+ * joined in the query, and the collections (with everything under them) 
+ * are read in one batch for all the entities of the result: a fetch join 
+ * would repeat the entities and break the pagination. The batch uses the 
+ * EclipseLink hints, other providers ignore them.
+ * 
+ * The graph is built from a list of properties, dotted for associations 
+ * (like "items.price"), or from a depth limit with the same meaning of the 
+ * max depth of the EntityStateStrategy: 1 is the entity alone, 2 adds its 
+ * associations and so on, 0 descends until an entity type repeats.
+ * 
+ * @author Antonio Rabelo
+ *
+ * @param <R> Result Type 
+ * @param <T> Entity Type
+ */
+public class CriteriaSnippetFetchGraphDecorator<R, T> extends AbstractCriteriaSnippetDecorator<R, T> {
+
+	/**
+	 * Fetch graph hint: the attributes out of the graph are lazy.
+	 */
+	public static final String FETCH_GRAPH = "javax.persistence.fetchgraph";
+
+	/**
+	 * Load graph hint: the attributes out of the graph keep their fetch type.
+	 */
+	public static final String LOAD_GRAPH = "javax.persistence.loadgraph";
+
+	/**
+	 * Batch hint of EclipseLink, one for each batched path.
+	 */
+	public static final String BATCH = "eclipselink.batch";
+
+	/**
+	 * Batch type hint of EclipseLink.
+	 */
+	public static final String BATCH_TYPE = "eclipselink.batch.type";
+
+	/**
+	 * Batch type that reads the associations of the identifiers of the result.
+	 */
+	public static final String BATCH_TYPE_IN = "IN";
+
+	/**
+	 * Hint of the graph.
+	 */
+	private final String hint;
+
+	/**
+	 * Properties of the graph, null for the depth limit.
+	 */
+	private final List<String> properties;
+
+	/**
+	 * Depth limit of the graph.
+	 */
+	private final int maxDepth;
+
+	/**
+	 * Graph built for the query, null when the result is not the entity.
+	 */
+	private EntityGraph<T> graph;
+
+	/**
+	 * Paths read in batch (with the alias), planned with the graph.
+	 */
+	private final List<String> batches = new ArrayList<String>();
+
+	/**
+	 * Constructor of a graph of properties.
+	 * 
+	 * @param hint       FETCH_GRAPH or LOAD_GRAPH.
+	 * @param properties Properties of the graph, dotted for associations.
+	 * @param snippet    CriteriaSnippet to be decorated.
+	 */
+	public CriteriaSnippetFetchGraphDecorator(String hint, List<String> properties, CriteriaSnippet<R, T> snippet) {
+		super(snippet);
+		this.hint = hint;
+		this.properties = properties;
+		this.maxDepth = 0;
+	}
+
+	/**
+	 * Constructor of a graph limited by depth.
+	 * 
+	 * @param hint     FETCH_GRAPH or LOAD_GRAPH.
+	 * @param maxDepth Depth limit (1 is the entity alone), 0 until an entity type repeats.
+	 * @param snippet  CriteriaSnippet to be decorated.
+	 */
+	public CriteriaSnippetFetchGraphDecorator(String hint, int maxDepth, CriteriaSnippet<R, T> snippet) {
+		super(snippet);
+		this.hint = hint;
+		this.properties = null;
+		this.maxDepth = maxDepth;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.snippet.AbstractCriteriaSnippetDecorator#validate()
+	 */
+	public boolean validate() throws IllegalArgumentException {
+		boolean val = super.validate();
+		if (!FETCH_GRAPH.equals(this.hint) && !LOAD_GRAPH.equals(this.hint)) {
+			throw new IllegalArgumentException("Hint must be " + FETCH_GRAPH + " or " + LOAD_GRAPH + ".");
+		}
+		if (this.maxDepth < 0) {
+			throw new IllegalArgumentException("Depth cannot be negative. Zero (0) means infinite, positive value means limitation.");
+		}
+		return val;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.snippet.AbstractCriteriaSnippetDecorator#modify(javax.persistence.criteria.CriteriaQuery, java.lang.Class, java.lang.Class, javax.persistence.EntityManager)
+	 */
+	public CriteriaQuery<R> modify(CriteriaQuery<R> criteria, Class<R> resultClass, Class<T> entity, EntityManager manager) {
+		criteria = super.modify(criteria, resultClass, entity, manager);
+		// a graph only applies to queries of entities
+		if (entity.equals(resultClass)) {
+			Root<?> root = findRoot(criteria, entity);
+			List<String> paths = this.properties;
+			if (paths == null) {
+				paths = new ArrayList<String>();
+				collectPaths(manager.getMetamodel().managedType(entity), "", 1, new HashSet<Class<?>>(), paths);
+			}
+			this.graph = createGraph(manager.createEntityGraph(entity), paths);
+			planFetches(root, manager.getMetamodel().managedType(entity), paths);
+		}
+		return criteria;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.snippet.AbstractCriteriaSnippetDecorator#configure(javax.persistence.TypedQuery)
+	 */
+	public TypedQuery<R> configure(TypedQuery<R> query) {
+		query = super.configure(query);
+		if (this.graph != null) {
+			query = query.setHint(this.hint, this.graph);
+			for (String batch : this.batches) {
+				query = query.setHint(BATCH, batch);
+			}
+			if (!this.batches.isEmpty()) {
+				query = query.setHint(BATCH_TYPE, BATCH_TYPE_IN);
+			}
+		}
+		return query;
+	}
+
+	/**
+	 * Returns the graph built for the query.
+	 * 
+	 * @return EntityGraph, null before the query is built or when the result is not the entity.
+	 */
+	public EntityGraph<T> getGraph() {
+		return this.graph;
+	}
+
+	/**
+	 * Returns the paths read in batch.
+	 * 
+	 * @return Batched paths (like "e.items"), empty before the query is built.
+	 */
+	public List<String> getBatches() {
+		return this.batches;
+	}
+
+	/**
+	 * Plans how the associations of the paths are fetched: fetch joins while 
+	 * they are single valued, batches from the first collection on.
+	 * 
+	 * @param root  Root of the query.
+	 * @param type  Managed type of the entity.
+	 * @param paths Property paths of the graph.
+	 */
+	private void planFetches(Root<?> root, ManagedType<?> type, List<String> paths) {
+		this.batches.clear();
+		Map<String, FetchParent<?, ?>> fetches = new HashMap<String, FetchParent<?, ?>>();
+		fetches.put("", root);
+		for (String path : paths) {
+			ManagedType<?> current = type;
+			boolean batched = false;
+			String[] names = path.split("\\.");
+			for (int i = 0; i < names.length && current != null; i++) {
+				Attribute<?, ?> attribute = current.getAttribute(names[i]);
+				if (!attribute.isAssociation()) {
+					break;
+				}
+				String prefix = join(names, i);
+				batched |= attribute.isCollection();
+				if (batched) {
+					// the alias of the batched path is not read by EclipseLink
+					if (!this.batches.contains("e." + prefix)) {
+						this.batches.add("e." + prefix);
+					}
+				} else if (!fetches.containsKey(prefix)) {
+					fetches.put(prefix, fetches.get(join(names, i - 1)).fetch(names[i], JoinType.LEFT));
+				}
+				Type<?> target = attribute.isCollection() 
+						? ((PluralAttribute<?, ?, ?>)attribute).getElementType() : ((SingularAttribute<?, ?>)attribute).getType();
+				current = (target instanceof ManagedType) ? (ManagedType<?>)target : null;
+			}
+		}
+	}
+
+	/**
+	 * Dotted prefix of a path.
+	 * 
+	 * @param names Names of the path.
+	 * @param last  Index of the last name of the prefix, -1 for the empty one.
+	 * @return      The prefix.
+	 */
+	private static String join(String[] names, int last) {
+		StringBuilder prefix = new StringBuilder();
+		for (int i = 0; i <= last; i++) {
+			prefix.append((i == 0) ? "" : ".").append(names[i]);
+		}
+		return prefix.toString();
+	}
+
+	/**
+	 * Collects the property paths of a type up to the depth limit.
+	 * 
+	 * @param type   Managed type.
+	 * @param prefix Path of the type, empty for the entity.
+	 * @param depth  Depth of the type (starts with 1).
+	 * @param path   Entity types from the entity to this type.
+	 * @param paths  Collected paths.
+	 */
+	private void collectPaths(ManagedType<?> type, String prefix, int depth, Set<Class<?>> path, List<String> paths) {
+		boolean added = path.add(type.getJavaType());
+		for (Attribute<?, ?> attribute : type.getAttributes()) {
+			if (!attribute.isAssociation()) {
+				paths.add(prefix + attribute.getName());
+			} else {
+				Type<?> target = attribute.isCollection() 
+						? ((PluralAttribute<?, ?, ?>)attribute).getElementType() : ((SingularAttribute<?, ?>)attribute).getType();
+				if (target instanceof ManagedType) {
+					ManagedType<?> targetType = (ManagedType<?>)target;
+					boolean descend = (this.maxDepth == 0) ? !path.contains(targetType.getJavaType()) : depth < this.maxDepth;
+					if (descend) {
+						collectPaths(targetType, prefix + attribute.getName() + ".", depth + 1, path, paths);
+					}
+				}
+			}
+		}
+		if (added) {
+			path.remove(type.getJavaType());
+		}
+	}
+
+	/**
+	 * Creates the graph of the property paths, with one subgraph for each 
+	 * distinct prefix.
+	 * 
+	 * @param graph Empty graph of the entity.
+	 * @param paths Property paths.
+	 * @return      The graph.
+	 */
+	private static <T> EntityGraph<T> createGraph(EntityGraph<T> graph, List<String> paths) {
+		Set<String> prefixes = new HashSet<String>();
+		for (String path : paths) {
+			for (int dot = path.indexOf('.'); dot > 0; dot = path.indexOf('.', dot + 1)) {
+				prefixes.add(path.substring(0, dot));
+			}
+		}
+		Map<String, Subgraph<?>> subgraphs = new HashMap<String, Subgraph<?>>();
+		for (String path : paths) {
+			int dot = path.lastIndexOf('.');
+			String name = path.substring(dot + 1);
+			if (prefixes.contains(path)) {
+				// fetched by its subgraph
+				subgraph(graph, subgraphs, path);
+			} else if (dot < 0) {
+				graph.addAttributeNodes(name);
+			} else {
+				subgraph(graph, subgraphs, path.substring(0, dot)).addAttributeNodes(name);
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * Subgraph of a prefix, created once.
+	 * 
+	 * @param graph     Graph of the entity.
+	 * @param subgraphs Subgraphs by prefix.
+	 * @param prefix    Dotted prefix.
+	 * @return          The subgraph.
+	 */
+	private static Subgraph<?> subgraph(EntityGraph<?> graph, Map<String, Subgraph<?>> subgraphs, String prefix) {
+		Subgraph<?> subgraph = subgraphs.get(prefix);
+		if (subgraph == null) {
+			int dot = prefix.lastIndexOf('.');
+			String name = prefix.substring(dot + 1);
+			subgraph = (dot < 0) ? graph.addSubgraph(name) : subgraph(graph, subgraphs, prefix.substring(0, dot)).addSubgraph(name);
+			subgraphs.put(prefix, subgraph);
+		}
+		return subgraph;
+	}
+}
@@ -0,0 +1,427 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.entity.service.snippet;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.ParameterExpression;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+
+import com.github.tennaito.entity.service.data.KeysetPage;
+import com.github.tennaito.entity.service.rsql.ParameterBinding;
+import com.github.tennaito.rsql.misc.ArgumentParser;
+import com.github.tennaito.rsql.misc.DefaultArgumentParser;
+
+/**
+ * Decorate with keyset (seek) pagination.
+ * 
+ * Instead of skipping the rows of the previous pages, the query restricts 
+ * the rows to the ones after the last seen sort key, so every page costs 
+ * the same. The entity identifier breaks the ties of a non unique sort key.
+ * 
+ * Null sort keys come last, after every non null one, in a phase of their 
+ * own: the non null keys are sought with a plain order by the key and the 
+ * identifier (so an index of the key can be scanned), and once they are 
+ * over the null keys are sought by identifier (see #hasNullPhase(List)).
+ * 
+ * @author Antonio Rabelo
+ *
+ * @param <T> Entity Type
+ */
+public class CriteriaSnippetKeysetDecorator<T> extends AbstractCriteriaSnippetDecorator<T, T> {
+
+	/**
+	 * Charset of the continuation token.
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Separator of the values inside the continuation token.
+	 */
+	private static final char SEPARATOR = '\u0000';
+
+	/**
+	 * Prefix of a non null value inside the continuation token, a null 
+	 * value is empty.
+	 */
+	private static final String VALUE = "=";
+
+	/**
+	 * Hexadecimal digits.
+	 */
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Property used to sort the pages.
+	 */
+	private final String sortKey;
+
+	/**
+	 * Token of the page to be fetched, null for the first page.
+	 */
+	private final String continuationToken;
+
+	/**
+	 * Page size (starts with 1).
+	 */
+	private final Integer pageSize;
+
+	/**
+	 * Verifies if the null sort keys are sought.
+	 */
+	private boolean nullPhase;
+
+	/**
+	 * Rows to fetch, one more than the rows left in the page.
+	 */
+	private final int limit;
+
+	/**
+	 * Parser of the token values.
+	 */
+	private final ArgumentParser argumentParser = new DefaultArgumentParser();
+
+	/**
+	 * Sort key attribute.
+	 */
+	private SingularAttribute<? super T, ?> sortAttribute;
+
+	/**
+	 * Identifier attribute.
+	 */
+	private SingularAttribute<? super T, ?> idAttribute;
+
+	/**
+	 * Last seen sort key parameter.
+	 */
+	private ParameterExpression<?> lastKeyParameter;
+
+	/**
+	 * Last seen identifier parameter.
+	 */
+	private ParameterExpression<?> lastIdParameter;
+
+	/**
+	 * Last seen sort key.
+	 */
+	private Object lastKey;
+
+	/**
+	 * Last seen identifier.
+	 */
+	private Object lastId;
+
+	/**
+	 * Verifies if the sort key can be null and is not the identifier.
+	 */
+	private boolean nullable;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param sortKey           Property used to sort the pages.
+	 * @param continuationToken Token of the page to be fetched, null for the first page.
+	 * @param pageSize          Page size (starts with 1).
+	 * @param snippet           CriteriaSnippet to be decorated.
+	 */
+	public CriteriaSnippetKeysetDecorator(String sortKey, String continuationToken, Integer pageSize, CriteriaSnippet<T, T> snippet) {
+		super(snippet);
+		this.sortKey = sortKey;
+		this.continuationToken = continuationToken;
+		this.pageSize = pageSize;
+		// one more row tells if there is a next page
+		this.limit = (pageSize == null) ? 0 : (int)Math.min((long)pageSize + 1, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Constructor of the null phase of a page.
+	 * 
+	 * @param page    Snippet of the page.
+	 * @param read    Rows of the page already read.
+	 * @param snippet CriteriaSnippet to be decorated.
+	 */
+	private CriteriaSnippetKeysetDecorator(CriteriaSnippetKeysetDecorator<T> page, int read, CriteriaSnippet<T, T> snippet) {
+		super(snippet);
+		this.sortKey = page.sortKey;
+		this.continuationToken = null;
+		this.pageSize = page.pageSize;
+		this.limit = page.limit - read;
+		this.nullPhase = true;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.snippet.AbstractCriteriaSnippetDecorator#validate()
+	 */
+	public boolean validate() throws IllegalArgumentException {
+		boolean val = super.validate();
+
+		if (this.sortKey == null) {
+			throw new IllegalArgumentException("Sort key must be defined.");
+		}
+
+		if (this.pageSize == null || this.pageSize < 1) {
+			throw new IllegalArgumentException("PageSize must be a non-zero positive integer.");
+		}
+
+		return val;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.snippet.AbstractCriteriaSnippetDecorator#modify(javax.persistence.criteria.CriteriaQuery, java.lang.Class, java.lang.Class, javax.persistence.EntityManager)
+	 */
+	@SuppressWarnings("unchecked")
+	public CriteriaQuery<T> modify(CriteriaQuery<T> criteria, Class<T> resultClass, Class<T> entity, EntityManager manager) {
+		criteria = super.modify(criteria, resultClass, entity, manager);
+		CriteriaBuilder builder = manager.getCriteriaBuilder();
+		EntityType<T> type = manager.getMetamodel().entity(entity);
+		this.idAttribute = type.getId(type.getIdType().getJavaType());
+		this.sortAttribute = type.getSingularAttribute(this.sortKey);
+
+		Root<T> root = (Root<T>)findRoot(criteria, entity);
+		Expression<Comparable<Object>> key = (Expression<Comparable<Object>>)(Expression<?>)root.get(this.sortAttribute.getName());
+		Expression<Comparable<Object>> id  = (Expression<Comparable<Object>>)(Expression<?>)root.get(this.idAttribute.getName());
+		boolean sortedById = this.sortAttribute.getName().equals(this.idAttribute.getName());
+		this.nullable = !sortedById && this.sortAttribute.isOptional();
+
+		if (this.continuationToken != null) {
+			decodeToken(this.continuationToken);
+			this.nullPhase = (this.lastKey == null);
+		}
+
+		Predicate seek = null;
+		if (this.nullPhase) {
+			// only the null keys are left, sorted by identifier
+			seek = builder.isNull(key);
+			if (this.lastId != null) {
+				ParameterExpression<Comparable<Object>> idParameter = (ParameterExpression<Comparable<Object>>)(ParameterExpression<?>)builder.parameter(ParameterBinding.wrap(this.idAttribute.getJavaType()));
+				seek = builder.and(seek, builder.greaterThan(id, idParameter));
+				this.lastIdParameter = idParameter;
+			}
+			criteria.orderBy(builder.asc(id));
+		} else {
+			if (this.lastKey != null) {
+				ParameterExpression<Comparable<Object>> keyParameter = (ParameterExpression<Comparable<Object>>)(ParameterExpression<?>)builder.parameter(ParameterBinding.wrap(this.sortAttribute.getJavaType()));
+				seek = builder.greaterThan(key, keyParameter);
+				this.lastKeyParameter = keyParameter;
+				if (!sortedById) {
+					ParameterExpression<Comparable<Object>> idParameter = (ParameterExpression<Comparable<Object>>)(ParameterExpression<?>)builder.parameter(ParameterBinding.wrap(this.idAttribute.getJavaType()));
+					seek = builder.or(seek, builder.and(builder.equal(key, keyParameter), builder.greaterThan(id, idParameter)));
+					this.lastIdParameter = idParameter;
+				}
+			} else if (this.nullable) {
+				// the null keys are sought in their own phase
+				seek = builder.isNotNull(key);
+			}
+			if (sortedById) {
+				criteria.orderBy(builder.asc(key));
+			} else {
+				criteria.orderBy(builder.asc(key), builder.asc(id));
+			}
+		}
+		if (seek != null) {
+			Predicate restriction = criteria.getRestriction();
+			criteria.where(restriction == null ? seek : builder.and(restriction, seek));
+		}
+		return criteria;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.snippet.AbstractCriteriaSnippetDecorator#configure(javax.persistence.TypedQuery)
+	 */
+	@SuppressWarnings("unchecked")
+	public TypedQuery<T> configure(TypedQuery<T> query) {
+		query = super.configure(query);
+		if (this.lastKeyParameter != null) {
+			query.setParameter((ParameterExpression<Object>)this.lastKeyParameter, this.lastKey);
+		}
+		if (this.lastIdParameter != null) {
+			query.setParameter((ParameterExpression<Object>)this.lastIdParameter, this.lastId);
+		}
+		query.setMaxResults(this.limit);
+		return query;
+	}
+
+	/**
+	 * Verifies if the page goes on with the null sort keys: the non null 
+	 * keys are over before the page is full.
+	 * 
+	 * @param rows Rows of the query configured by this snippet.
+	 * @return     true when the null phase must be queried.
+	 */
+	public boolean hasNullPhase(List<T> rows) {
+		return this.nullable && !this.nullPhase && rows.size() < this.limit;
+	}
+
+	/**
+	 * Snippet of the null phase of the page, its rows follow the ones read.
+	 * 
+	 * @param rows Rows of the query configured by this snippet.
+	 * @return     Snippet of the rows with null sort keys, decorating the same snippet.
+	 */
+	public CriteriaSnippetKeysetDecorator<T> nullPhase(List<T> rows) {
+		return new CriteriaSnippetKeysetDecorator<T>(this, rows.size(), this.snippetToBeDecorated);
+	}
+
+	/**
+	 * Creates the page from the rows of the query.
+	 * 
+	 * @param rows Rows of the query configured by this snippet.
+	 * @return     The page with the continuation token of the next one.
+	 */
+	public KeysetPage<T> createPage(List<T> rows) {
+		List<T> items = rows;
+		String token = null;
+		if (rows.size() > this.pageSize) {
+			items = new ArrayList<T>(rows.subList(0, this.pageSize));
+			T last = items.get(items.size() - 1);
+			token = encodeToken(readValue(last, this.sortAttribute), readValue(last, this.idAttribute));
+		}
+		return new KeysetPage<T>(items, token);
+	}
+
+	/**
+	 * Encodes the continuation token.
+	 * 
+	 * @param key Last seen sort key.
+	 * @param id  Last seen identifier.
+	 * @return    Opaque token.
+	 */
+	private String encodeToken(Object key, Object id) {
+		if (id == null) {
+			throw new IllegalArgumentException("Identifier must be selected to create the continuation token.");
+		}
+		String plain = this.sortKey + SEPARATOR + ((key == null) ? "" : VALUE + toText(key)) + SEPARATOR + toText(id);
+		StringBuilder token = new StringBuilder();
+		for (byte b : plain.getBytes(UTF8)) {
+			token.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+		}
+		return token.toString();
+	}
+
+	/**
+	 * Decodes the continuation token into the last seen sort key and identifier.
+	 * 
+	 * @param token Opaque token.
+	 */
+	private void decodeToken(String token) {
+		if (token.length() % 2 != 0) {
+			throw new IllegalArgumentException("Invalid continuation token.");
+		}
+		byte[] bytes = new byte[token.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			int high = Character.digit(token.charAt(2 * i), 16);
+			int low = Character.digit(token.charAt(2 * i + 1), 16);
+			if (high < 0 || low < 0) {
+				throw new IllegalArgumentException("Invalid continuation token.");
+			}
+			bytes[i] = (byte)((high << 4) | low);
+		}
+		String[] values = new String(bytes, UTF8).split(String.valueOf(SEPARATOR), -1);
+		if (values.length != 3 || !this.sortKey.equals(values[0])) {
+			throw new IllegalArgumentException("Continuation token does not belong to sort key " + this.sortKey + ".");
+		}
+		if (!values[1].isEmpty() && !values[1].startsWith(VALUE)) {
+			throw new IllegalArgumentException("Invalid continuation token.");
+		}
+		try {
+			this.lastKey = values[1].isEmpty() ? null : fromText(values[1].substring(VALUE.length()), ParameterBinding.wrap(this.sortAttribute.getJavaType()));
+			this.lastId  = fromText(values[2], ParameterBinding.wrap(this.idAttribute.getJavaType()));
+		} catch (IllegalArgumentException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Invalid continuation token.", e);
+		}
+	}
+
+	/**
+	 * Converts a value into text.
+	 * 
+	 * @param value Value.
+	 * @return      Text.
+	 */
+	private static String toText(Object value) {
+		return (value instanceof Date) ? String.valueOf(((Date)value).getTime()) : value.toString();
+	}
+
+	/**
+	 * Converts text into a value.
+	 * 
+	 * @param text Text.
+	 * @param type Type of the value.
+	 * @return     Value.
+	 */
+	private Object fromText(String text, Class<?> type) {
+		Object value;
+		if (Date.class.isAssignableFrom(type)) {
+			try {
+				value = type.getConstructor(long.class).newInstance(Long.valueOf(text));
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalArgumentException("Cannot create " + type.getName() + " from the continuation token.", e);
+			}
+		} else {
+			value = this.argumentParser.parse(text, type);
+		}
+		return value;
+	}
+
+	/**
+	 * Reads the value of an attribute.
+	 * 
+	 * @param object    Entity instance.
+	 * @param attribute Attribute.
+	 * @return          Value of the attribute.
+	 */
+	private static Object readValue(Object object, SingularAttribute<?, ?> attribute) {
+		Member member = attribute.getJavaMember();
+		try {
+			Object value;
+			if (member instanceof Method) {
+				Method method = (Method)member;
+				method.setAccessible(true);
+				value = method.invoke(object);
+			} else {
+				Field field = (Field)member;
+				field.setAccessible(true);
+				value = field.get(object);
+			}
+			return value;
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException(e);
+		}
+	}
+}
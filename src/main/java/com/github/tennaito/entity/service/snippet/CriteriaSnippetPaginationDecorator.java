@@ -70,6 +70,10 @@ public class CriteriaSnippetPaginationDecorator<R, T> extends AbstractCriteriaSn
 			throw new IllegalArgumentException("PageSize must be a non-zero positive integer.");
 		}
 
+		if (this.page != null && this.pageSize != null && (long)(this.page - 1) * this.pageSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("The first result of the page must be an integer.");
+		}
+
 		return val;
 	}
 
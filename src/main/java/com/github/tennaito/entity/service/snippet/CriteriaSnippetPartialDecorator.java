@@ -24,16 +24,45 @@
 package com.github.tennaito.entity.service.snippet;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.From;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Root;
 import javax.persistence.criteria.Selection;
+import javax.persistence.metamodel.IdentifiableType;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type;
+
+import com.github.tennaito.entity.service.data.EntityState;
 
 /**
  * Decorates with partial properties list.
  * 
+ * A Tuple query selects the properties aliased by their names and its rows 
+ * fill EntityState objects directly, without building partial entities.
+ * 
+ * Dotted properties (like "items.price") are selected through left joins, 
+ * one join for each distinct prefix shared by all the properties under it, 
+ * and fill nested states from the same statement. Rows of a collection 
+ * join are merged by the values of the root properties, so the identifier 
+ * should be selected with them. The identifiers of the elements of joined 
+ * collections are selected as well, so equal elements are kept apart.
+ * 
  * @author Antonio Rabelo
  *
  * @param <R> Result Type 
@@ -46,6 +75,16 @@ public class CriteriaSnippetPartialDecorator<R, T> extends AbstractCriteriaSnipp
 	 */
 	private final List<String> properties;
 	
+	/**
+	 * Selected properties, the identifiers of the joined collections included.
+	 */
+	private List<String> selection;
+	
+	/**
+	 * Joins planned for the query, by prefix.
+	 */
+	private final Map<String, Join<?, ?>> joins = new LinkedHashMap<String, Join<?, ?>>();
+	
 	/**
 	 * Constructor
 	 * 
@@ -54,6 +93,7 @@ public class CriteriaSnippetPartialDecorator<R, T> extends AbstractCriteriaSnipp
 	public CriteriaSnippetPartialDecorator(List<String> properties, CriteriaSnippet<R, T> snippet) {
 		super(snippet);
 		this.properties = properties;
+		this.selection = properties;
 	}
 
 	/* (non-Javadoc)
@@ -77,10 +117,227 @@ public class CriteriaSnippetPartialDecorator<R, T> extends AbstractCriteriaSnipp
 	 */
 	private List<Selection<?>> createSelectionList(CriteriaQuery<R> criteria, Class<T> entity, List<String> properties) {
 		Root<?> root = findRoot(criteria, entity);
-		List<Selection<?>> selectedProperties = new ArrayList<Selection<?>>();
+		this.joins.clear();
+		this.selection = new ArrayList<String>(properties);
 		for (String property : properties) {
-			selectedProperties.add(root.get(property));
+			int dot = property.lastIndexOf('.');
+			if (dot > 0) {
+				join(root, property.substring(0, dot));
+			}
+		}
+		for (Map.Entry<String, Join<?, ?>> entry : this.joins.entrySet()) {
+			String id = getIdProperty(entry.getValue());
+			if (id != null && !this.selection.contains(entry.getKey() + "." + id)) {
+				this.selection.add(entry.getKey() + "." + id);
+			}
+		}
+		List<Selection<?>> selectedProperties = new ArrayList<Selection<?>>();
+		for (String property : this.selection) {
+			int dot = property.lastIndexOf('.');
+			From<?, ?> from = (dot < 0) ? root : join(root, property.substring(0, dot));
+			Path<?> path = from.get(property.substring(dot + 1));
+			selectedProperties.add(Tuple.class.equals(criteria.getResultType()) ? path.alias(property) : path);
 		}
 		return selectedProperties;
 	}
+	
+	/**
+	 * Left join of a prefix, planned once and reused by all the properties under it.
+	 * 
+	 * @param root   Root of the query.
+	 * @param prefix Dotted prefix (like "items").
+	 * @return       Join of the last attribute of the prefix.
+	 */
+	private Join<?, ?> join(Root<?> root, String prefix) {
+		Join<?, ?> join = this.joins.get(prefix);
+		if (join == null) {
+			int dot = prefix.lastIndexOf('.');
+			From<?, ?> parent = (dot < 0) ? root : join(root, prefix.substring(0, dot));
+			join = parent.join(prefix.substring(dot + 1), JoinType.LEFT);
+			this.joins.put(prefix, join);
+		}
+		return join;
+	}
+	
+	/**
+	 * Identifier of the elements of a collection join.
+	 * 
+	 * @param join Planned join.
+	 * @return     Name of the identifier, or null when it is no collection 
+	 *             or its elements have no single identifier.
+	 */
+	private static String getIdProperty(Join<?, ?> join) {
+		if (!join.getAttribute().isCollection()) {
+			return null;
+		}
+		Type<?> type = ((PluralAttribute<?, ?, ?>)join.getAttribute()).getElementType();
+		if (type instanceof IdentifiableType && ((IdentifiableType<?>)type).hasSingleIdAttribute()) {
+			for (SingularAttribute<?, ?> attribute : ((IdentifiableType<?>)type).getSingularAttributes()) {
+				if (attribute.isId()) {
+					return attribute.getName();
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Creates the states of the rows of a Tuple query.
+	 * 
+	 * @param entity Entity class that has the properties.
+	 * @param rows   Result of the Tuple query.
+	 * @return       A state with the selected properties for each row, or for 
+	 *               each root when there are collection joins.
+	 */
+	public List<EntityState> createStates(Class<T> entity, List<Tuple> rows) {
+		boolean merge = false;
+		for (Join<?, ?> join : this.joins.values()) {
+			merge |= join.getAttribute().isCollection();
+		}
+		Map<Object, EntityState> states = new LinkedHashMap<Object, EntityState>();
+		Map<Collection<EntityState>, Map<Object, EntityState>> elements = new IdentityHashMap<Collection<EntityState>, Map<Object, EntityState>>();
+		for (Tuple row : rows) {
+			List<Object> values = new ArrayList<Object>();
+			for (String property : this.selection) {
+				if (property.indexOf('.') < 0) {
+					values.add(row.get(property));
+				}
+			}
+			// without collections every row is a root of its own
+			Object key = merge ? values : Integer.valueOf(states.size());
+			EntityState state = states.get(key);
+			if (state == null) {
+				state = new EntityState(entity);
+				states.put(key, state);
+			}
+			fill(state, row, elements);
+		}
+		for (EntityState state : states.values()) {
+			complete(state, "");
+		}
+		return new ArrayList<EntityState>(states.values());
+	}
+	
+	/**
+	 * Fills a root state with the values of a row, nested states included. 
+	 * The elements of a collection met in former rows are reused, matched by 
+	 * their identifier (or by their values when they have none), so the 
+	 * nested collections of later rows are merged into them.
+	 * 
+	 * @param state    Root state.
+	 * @param row      Row of the Tuple query.
+	 * @param elements Elements of each collection, by key.
+	 */
+	private void fill(EntityState state, Tuple row, Map<Collection<EntityState>, Map<Object, EntityState>> elements) {
+		Map<String, EntityState> nested = new HashMap<String, EntityState>();
+		Map<String, List<Object>> values = new HashMap<String, List<Object>>();
+		Set<String> filled = new HashSet<String>();
+		for (String property : this.selection) {
+			Object value = row.get(property);
+			int dot = property.lastIndexOf('.');
+			if (dot < 0) {
+				state.put(property, value);
+			} else {
+				String prefix = property.substring(0, dot);
+				nested(nested, prefix).put(property.substring(dot + 1), value);
+				if (!values.containsKey(prefix)) {
+					values.put(prefix, new ArrayList<Object>());
+				}
+				values.get(prefix).add(value);
+				for (int i = dot; value != null && i > 0; i = prefix.lastIndexOf('.', i - 1)) {
+					// a join without match (all values null) is no state
+					filled.add(prefix.substring(0, i));
+				}
+			}
+		}
+		// parents first, so the children of a reused element are attached to it
+		for (Map.Entry<String, Join<?, ?>> entry : this.joins.entrySet()) {
+			String prefix = entry.getKey();
+			if (!nested.containsKey(prefix)) {
+				continue;
+			}
+			int dot = prefix.lastIndexOf('.');
+			EntityState parent = (dot < 0) ? state : nested.get(prefix.substring(0, dot));
+			EntityState child = filled.contains(prefix) ? nested.get(prefix) : null;
+			String name = prefix.substring(dot + 1);
+			if (entry.getValue().getAttribute().isCollection()) {
+				Collection<EntityState> children = parent.contains(name) ? parent.<Collection<EntityState>>get(name) : null;
+				if (children == null) {
+					// sets are built once their elements are complete, they hash them
+					children = new ArrayList<EntityState>();
+					parent.put(name, children);
+					elements.put(children, new HashMap<Object, EntityState>());
+				}
+				if (child != null) {
+					String id = getIdProperty(entry.getValue());
+					Object key = (id == null) ? values.get(prefix) : child.get(id);
+					EntityState element = elements.get(children).get(key);
+					if (element == null) {
+						elements.get(children).put(key, child);
+						children.add(child);
+					} else {
+						nested.put(prefix, element);
+					}
+				}
+			} else {
+				EntityState element = parent.contains(name) ? parent.<EntityState>get(name) : null;
+				if (element != null && child != null) {
+					nested.put(prefix, element);
+				} else {
+					parent.put(name, child);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Completes the collections under a state, the deepest first, turning 
+	 * the ones of Set attributes into sets.
+	 * 
+	 * @param state  Filled state.
+	 * @param prefix Dotted prefix of the state, empty for the root.
+	 */
+	private void complete(EntityState state, String prefix) {
+		for (Map.Entry<String, Join<?, ?>> entry : this.joins.entrySet()) {
+			String path = entry.getKey();
+			int dot = path.lastIndexOf('.');
+			if (!prefix.equals((dot < 0) ? "" : path.substring(0, dot)) || !state.contains(path.substring(dot + 1))) {
+				continue;
+			}
+			String name = path.substring(dot + 1);
+			Join<?, ?> join = entry.getValue();
+			if (join.getAttribute().isCollection()) {
+				Collection<EntityState> children = state.get(name);
+				for (EntityState child : children) {
+					complete(child, path);
+				}
+				if (((PluralAttribute<?, ?, ?>)join.getAttribute()).getCollectionType() == PluralAttribute.CollectionType.SET) {
+					state.put(name, new LinkedHashSet<EntityState>(children));
+				}
+			} else if (state.get(name) != null) {
+				complete(state.<EntityState>get(name), path);
+			}
+		}
+	}
+	
+	/**
+	 * Nested state of a prefix in a row.
+	 * 
+	 * @param nested States of the row, by prefix.
+	 * @param prefix Dotted prefix.
+	 * @return       Nested state.
+	 */
+	private EntityState nested(Map<String, EntityState> nested, String prefix) {
+		EntityState state = nested.get(prefix);
+		if (state == null) {
+			state = new EntityState(this.joins.get(prefix).getJavaType());
+			nested.put(prefix, state);
+			int dot = prefix.lastIndexOf('.');
+			if (dot > 0) {
+				// the parents hold the state even without properties of their own
+				nested(nested, prefix.substring(0, dot));
+			}
+		}
+		return state;
+	}
 }
@@ -23,10 +23,28 @@
  */
 package com.github.tennaito.entity.service.snippet;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.persistence.EntityManager;
+import javax.persistence.Parameter;
+import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.ParameterExpression;
 import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import com.github.tennaito.entity.service.cache.LruCache;
+import com.github.tennaito.entity.service.rsql.ParameterBinding;
+import com.github.tennaito.entity.service.rsql.ParameterizedPredicateVisitor;
+import com.github.tennaito.entity.service.rsql.RsqlShape;
+
+import cz.jirutka.rsql.parser.RSQLParser;
+import cz.jirutka.rsql.parser.ast.LogicalNode;
+import cz.jirutka.rsql.parser.ast.Node;
 
 /**
  * Decorate Where clause with RSQL string.
@@ -38,13 +56,95 @@ import javax.persistence.criteria.Predicate;
  */
 public class CriteriaSnippetWhereRsqlDecorator<R, T> extends AbstractCriteriaSnippetRsqlDecorator<R, T> {
 
+	/**
+	 * When true the RSQL values become bind parameters instead of literals.
+	 */
+	private final boolean parameterized;
+	
+	/**
+	 * When true the where clause is built from the tree as written, not 
+	 * the optimized one, so it can be bound again.
+	 */
+	private final boolean prepared;
+	
+	/**
+	 * Parameters (and values) of the last built where clause.
+	 */
+	private Map<ParameterExpression<?>, Object> parameters = Collections.emptyMap();
+	
+	/**
+	 * Parameter bindings of the last built where clause.
+	 */
+	private List<ParameterBinding> bindings = Collections.emptyList();
+	
+	/**
+	 * Shape of the rsql of the last built where clause.
+	 */
+	private String shape;
+
 	/**
 	 * Constructor.
 	 * 
 	 * @param snippet CriteriaSnippet to be decorated.
 	 */
 	public CriteriaSnippetWhereRsqlDecorator(String rsql, CriteriaSnippet<R, T> snippet) {
+		this(rsql, false, snippet);
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param rsql          RSQL string.
+	 * @param parameterized When true the RSQL values become bind parameters, so all
+	 *                      filters with the same shape share the same SQL statement.
+	 * @param snippet       CriteriaSnippet to be decorated.
+	 */
+	public CriteriaSnippetWhereRsqlDecorator(String rsql, boolean parameterized, CriteriaSnippet<R, T> snippet) {
+		this(rsql, parameterized, false, snippet);
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param rsql          RSQL string.
+	 * @param parameterized When true the RSQL values become bind parameters, so all
+	 *                      filters with the same shape share the same SQL statement.
+	 * @param prepared      When true the where clause keeps the shape of the rsql as 
+	 *                      written (it is not canonicalized nor optimized), so any 
+	 *                      rsql written with the same shape can be bound.
+	 * @param snippet       CriteriaSnippet to be decorated.
+	 */
+	public CriteriaSnippetWhereRsqlDecorator(String rsql, boolean parameterized, boolean prepared, CriteriaSnippet<R, T> snippet) {
 		super(rsql, snippet);
+		this.parameterized = parameterized;
+		this.prepared = prepared;
+	}
+	
+	/**
+	 * Constructor with the rsql already parsed.
+	 * 
+	 * @param rsql          RSQL string.
+	 * @param node          Parsed tree of the RSQL string.
+	 * @param parameterized When true the RSQL values become bind parameters.
+	 * @param snippet       CriteriaSnippet to be decorated.
+	 */
+	public CriteriaSnippetWhereRsqlDecorator(String rsql, Node node, boolean parameterized, CriteriaSnippet<R, T> snippet) {
+		super(rsql, node, snippet);
+		this.parameterized = parameterized;
+		this.prepared = false;
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param rsql      RSQL string.
+	 * @param nodeCache Cache of parsed RSQL trees.
+	 * @param snippet   CriteriaSnippet to be decorated.
+	 */
+	public CriteriaSnippetWhereRsqlDecorator(String rsql, LruCache<String, Node> nodeCache, CriteriaSnippet<R, T> snippet) {
+		super(rsql, nodeCache, snippet);
+		this.parameterized = false;
+		this.prepared = false;
 	}
 
 	/* (non-Javadoc)
@@ -53,13 +153,60 @@ public class CriteriaSnippetWhereRsqlDecorator<R, T> extends AbstractCriteriaSni
 	public CriteriaQuery<R> modify(CriteriaQuery<R> criteria, Class<R> resultClass, Class<T> entity, EntityManager manager) {
 		criteria = super.modify(criteria, resultClass, entity, manager);
 		if (this.rsql != null) {
-			criteria = buildRsqlWhereClause(resultClass, entity, rsql, manager);
+			if (this.parameterized) {
+				criteria = buildParameterizedWhereClause(resultClass, entity, rsql, manager);
+			} else {
+				criteria = buildRsqlWhereClause(resultClass, entity, rsql, manager);
+			}
 		}
 		return criteria;
 	}
 	
+	/* (non-Javadoc)
+	 * @see com.github.tennaito.entity.service.snippet.AbstractCriteriaSnippetDecorator#configure(javax.persistence.TypedQuery)
+	 */
+	@SuppressWarnings("unchecked")
+	public TypedQuery<R> configure(TypedQuery<R> query) {
+		query = super.configure(query);
+		for (Map.Entry<ParameterExpression<?>, Object> entry : this.parameters.entrySet()) {
+			query.setParameter((Parameter<Object>)entry.getKey(), entry.getValue());
+		}
+		return query;
+	}
+	
+	/**
+	 * Bind the values of another rsql to the parameters of the where clause already
+	 * built, so the same query can be executed again without being rebuilt.
+	 * 
+	 * @param rsql RSQL string with the same shape of the one used to build the where clause.
+	 * @throws IllegalArgumentException
+	 * 				When the rsql does not have the same shape.
+	 */
+	public void bind(String rsql) {
+		if (!this.parameterized) {
+			throw new IllegalStateException("Only a parameterized where clause can be bound again.");
+		}
+		Map<ParameterExpression<?>, Object> values = new LinkedHashMap<ParameterExpression<?>, Object>();
+		if (rsql != null || this.rsql != null) {
+			Node node = (rsql == null) ? null : parseShapeNode(rsql);
+			if (node == null || this.shape == null || !this.shape.equals(RsqlShape.of(node))) {
+				throw new IllegalArgumentException("RSQL '" + rsql + "' does not have the same shape of '" + this.rsql + "'.");
+			}
+			List<String> arguments = RsqlShape.arguments(node);
+			for (int i = 0; i < arguments.size(); i++) {
+				ParameterBinding binding = this.bindings.get(i);
+				values.put(binding.getParameter(), binding.convert(arguments.get(i)));
+			}
+		}
+		this.parameters = values;
+	}
+	
 	/**
-	 * Build a Where clause from Rsql.
+	 * Build a Where clause from Rsql. The rsql-jpa visitor gives each 
+	 * comparison its own root, so a AND/OR of comparisons would cross join 
+	 * the entity: those conditions are built over a single root by the 
+	 * ParameterizedPredicateVisitor in literal mode, with the same semantics 
+	 * (the comparisons of a collection path refer to the same element).
 	 * 
 	 * @param resultClass Result class type.
 	 * @param entity      Entity type.
@@ -68,9 +215,49 @@ public class CriteriaSnippetWhereRsqlDecorator<R, T> extends AbstractCriteriaSni
 	 * @return            CriteriaQuery from the rsql.
 	 */
 	protected CriteriaQuery<R> buildRsqlWhereClause(Class<R> resultClass, Class<T> entity, String rsql, EntityManager manager) {
+		resolveTypes(entity, manager);
+		Node node = parseNode(rsql);
+		if (node instanceof LogicalNode) {
+			CriteriaQuery<R> criteria = manager.getCriteriaBuilder().createQuery(resultClass);
+			Root<T> root = criteria.from(entity);
+			return criteria.where(node.accept(new ParameterizedPredicateVisitor<T>(root, false), manager));
+		}
 		Predicate predicate = parseRsql(entity, rsql, manager);
     	CriteriaBuilder builder = manager.getCriteriaBuilder();
     	CriteriaQuery<R> criteria = builder.createQuery(resultClass);
     	return criteria.where(predicate);
 	}
+	
+	/**
+	 * Build a Where clause from Rsql with bind parameters in place of the values.
+	 * 
+	 * @param resultClass Result class type.
+	 * @param entity      Entity type.
+	 * @param rsql        RSQL string.
+	 * @param manager     EntityManager.
+	 * @return            CriteriaQuery from the rsql.
+	 */
+	protected CriteriaQuery<R> buildParameterizedWhereClause(Class<R> resultClass, Class<T> entity, String rsql, EntityManager manager) {
+		CriteriaBuilder builder = manager.getCriteriaBuilder();
+		CriteriaQuery<R> criteria = builder.createQuery(resultClass);
+		Root<T> root = criteria.from(entity);
+		ParameterizedPredicateVisitor<T> visitor = new ParameterizedPredicateVisitor<T>(root);
+		resolveTypes(entity, manager);
+		Node node = parseShapeNode(rsql);
+		Predicate predicate = node.accept(visitor, manager);
+		this.parameters = visitor.getParameters();
+		this.bindings = visitor.getBindings();
+		this.shape = RsqlShape.of(node);
+		return criteria.where(predicate);
+	}
+	
+	/**
+	 * Parse the tree that defines the shape of the parameterized where clause.
+	 * 
+	 * @param rsql RSQL string.
+	 * @return     The tree as written when prepared, the optimized one otherwise.
+	 */
+	protected Node parseShapeNode(String rsql) {
+		return this.prepared ? new RSQLParser().parse(rsql) : parseNode(rsql);
+	}
 }
@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.Aggregate;
+import com.github.tennaito.entity.service.EntityQueryService;
+import com.github.tennaito.entity.service.impl.DefaultEntityQueryService;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class AggregateTest extends AbstractEntityServicesTest {
+
+	@Test
+	public void testSingleGroup() {
+		EntityQueryService<Item> service = createService();
+		List<Tuple> tuples = service.aggregateWhere(Item.class, null, null, 
+				Arrays.asList(Aggregate.sum("quantity"), Aggregate.count("id"), Aggregate.avg("price"), Aggregate.min("price"), Aggregate.max("description")));
+		assertEquals(1, tuples.size());
+		Tuple tuple = tuples.get(0);
+		assertEquals(2400, ((Number)tuple.get("sum(quantity)")).longValue());
+		assertEquals(3, ((Number)tuple.get("count(id)")).longValue());
+		assertEquals(0.75, ((Number)tuple.get("avg(price)")).doubleValue(), 0.001);
+		assertEquals(0.5, ((Number)tuple.get("min(price)")).doubleValue(), 0.001);
+		assertEquals("strawberry", tuple.get("max(description)"));
+	}
+
+	@Test
+	public void testWhere() {
+		EntityQueryService<Item> service = createService();
+		List<Tuple> tuples = service.aggregateWhere(Item.class, "quantity=gt=100", null, Arrays.asList(Aggregate.sum("quantity")));
+		assertEquals(2300, ((Number)tuples.get(0).get(0)).longValue());
+		// an empty group by always has a row
+		tuples = service.aggregateWhere(Item.class, "quantity=gt=5000", null, Arrays.asList(Aggregate.count("id")));
+		assertEquals(0, ((Number)tuples.get(0).get(0)).longValue());
+	}
+
+	@Test
+	public void testGroupBy() {
+		EntityQueryService<Item> service = createService();
+		List<Tuple> tuples = service.aggregateWhere(Item.class, null, Arrays.asList("price"), Arrays.asList(Aggregate.sum("quantity")));
+		assertEquals(3, tuples.size());
+		assertEquals(0.5, ((Number)tuples.get(0).get("price")).doubleValue(), 0.001);
+		assertEquals(2000, ((Number)tuples.get(0).get("sum(quantity)")).longValue());
+		assertEquals(1.0, ((Number)tuples.get(2).get("price")).doubleValue(), 0.001);
+		assertEquals(100, ((Number)tuples.get(2).get("sum(quantity)")).longValue());
+		assertEquals(0, service.aggregateWhere(Item.class, "id==1;id==2", Arrays.asList("price"), Arrays.asList(Aggregate.sum("quantity"))).size());
+	}
+
+	@Test
+	public void testAliasIndependentOfLocale() {
+		Locale locale = Locale.getDefault();
+		Locale.setDefault(new Locale("tr", "TR"));
+		try {
+			assertEquals("min(price)", Aggregate.min("price").getAlias());
+		} finally {
+			Locale.setDefault(locale);
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNoAggregates() {
+		createService().aggregateWhere(Item.class, null, Arrays.asList("price"), null);
+	}
+
+	private EntityQueryService<Item> createService() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		return new DefaultEntityQueryService<Item>(manager);
+	}
+}
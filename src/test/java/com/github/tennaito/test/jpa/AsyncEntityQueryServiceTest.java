@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.AsyncEntityQueryService;
+import com.github.tennaito.entity.service.data.PageResult;
+import com.github.tennaito.entity.service.impl.ConcurrentEntityQueryService;
+import com.github.tennaito.entity.service.impl.DefaultAsyncEntityQueryService;
+import com.github.tennaito.entity.service.impl.HistogramQueryInstrumentation;
+import com.github.tennaito.entity.service.impl.QueryPhase;
+import com.github.tennaito.entity.service.impl.QueryExecutors;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class AsyncEntityQueryServiceTest extends AbstractEntityServicesTest {
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = QueryExecutors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test
+	public void testConcurrentQueries() throws Exception {
+		AsyncEntityQueryService<Item> service = new DefaultAsyncEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory(), executor);
+		CompletableFuture<Long> count = service.countWhere(Item.class, "quantity=gt=100");
+		CompletableFuture<List<Item>> items = service.queryWhere(Item.class, "description==*berry", 1, 2);
+		CompletableFuture<PageResult<Item>> page = service.queryPage(Item.class, null, 1, 2);
+		CompletableFuture.allOf(count, items, page).get();
+		assertEquals(Long.valueOf(2), count.get());
+		assertEquals(2, items.get().size());
+		assertEquals(Long.valueOf(3), page.get().getTotal());
+	}
+
+	@Test
+	public void testParameterizedQuery() throws Exception {
+		ConcurrentEntityQueryService<Item> concurrent = new ConcurrentEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		concurrent.bindParameters(true);
+		AsyncEntityQueryService<Item> service = new DefaultAsyncEntityQueryService<Item>(concurrent, executor);
+		assertEquals("strawberry", service.querySingle(Item.class, "id==2").get().getDescription());
+	}
+
+	@Test
+	public void testSettingsOfConcurrentService() throws Exception {
+		HistogramQueryInstrumentation instrumentation = new HistogramQueryInstrumentation();
+		ConcurrentEntityQueryService<Item> concurrent = new ConcurrentEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		concurrent.instrumentation(instrumentation);
+		AsyncEntityQueryService<Item> service = new DefaultAsyncEntityQueryService<Item>(concurrent, executor);
+		assertEquals(Long.valueOf(3), service.count(Item.class).get());
+		assertEquals(1, instrumentation.getHistogram(Item.class, "countWhere", QueryPhase.EXECUTE).getCount());
+	}
+
+	@Test
+	public void testExceptionalCompletion() throws InterruptedException {
+		AsyncEntityQueryService<Item> service = new DefaultAsyncEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory(), executor);
+		try {
+			service.queryAll(Item.class, 0, 1).get();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+			return;
+		}
+		throw new AssertionError("Invalid page must fail.");
+	}
+
+	@Test
+	public void testVirtualThreads() throws Exception {
+		if (QueryExecutors.isVirtualThreadSupported()) {
+			ExecutorService virtual = QueryExecutors.newVirtualThreadPerTaskExecutor();
+			try {
+				AsyncEntityQueryService<Item> service = new DefaultAsyncEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory(), virtual);
+				assertEquals(Long.valueOf(3), service.count(Item.class).get());
+			} finally {
+				virtual.shutdown();
+			}
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testVirtualThreadsUnsupported() {
+		if (QueryExecutors.isVirtualThreadSupported()) {
+			throw new UnsupportedOperationException();
+		}
+		QueryExecutors.newVirtualThreadPerTaskExecutor();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testExecutorRequired() {
+		new DefaultAsyncEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory(), null);
+	}
+}
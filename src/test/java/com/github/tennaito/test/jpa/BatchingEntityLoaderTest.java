@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.Query;
+
+import org.eclipse.persistence.jpa.JpaQuery;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.impl.BatchingEntityLoader;
+import com.github.tennaito.entity.service.impl.ConcurrentEntityQueryService;
+import com.github.tennaito.entity.service.impl.QueryConfiguration;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class BatchingEntityLoaderTest extends AbstractEntityServicesTest {
+
+	private AtomicInteger queries;
+
+	private ConcurrentEntityQueryService<Item> service;
+
+	@Before
+	public void setUp() {
+		queries = new AtomicInteger();
+		service = new ConcurrentEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		service.configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				queries.incrementAndGet();
+			}
+		});
+	}
+
+	@Test
+	public void testOneQueryPerDispatch() {
+		BatchingEntityLoader<Item> loader = new BatchingEntityLoader<Item>(service, Item.class, Item::getId);
+		CompletableFuture<Item> raspberry = loader.load(3);
+		CompletableFuture<Item> blueberry = loader.load(1);
+		CompletableFuture<Item> missing = loader.load(99);
+		assertFalse(raspberry.isDone());
+		assertEquals(0, queries.get());
+		loader.dispatch();
+		assertEquals(1, queries.get());
+		assertEquals(1, loader.getBatchCount());
+		assertEquals("raspberry", raspberry.join().getDescription());
+		assertEquals("blueberry", blueberry.join().getDescription());
+		assertNull(missing.join());
+	}
+
+	@Test
+	public void testMemoization() {
+		BatchingEntityLoader<Item> loader = new BatchingEntityLoader<Item>(service, Item.class, Item::getId);
+		CompletableFuture<Item> first = loader.load(2);
+		assertSame(first, loader.load(2));
+		loader.dispatch();
+		assertSame(first, loader.load(2));
+		loader.dispatch();
+		assertEquals(1, queries.get());
+		loader.clear(2);
+		assertEquals("strawberry", dispatched(loader, 2).getDescription());
+		assertEquals(2, queries.get());
+	}
+
+	@Test
+	public void testMaxBatchSize() {
+		BatchingEntityLoader<Item> loader = new BatchingEntityLoader<Item>(service, Item.class, Item::getId).maxBatchSize(2);
+		CompletableFuture<List<Item>> items = loader.loadMany(Arrays.asList(1, 2, 3));
+		// the full batch is dispatched at once
+		assertEquals(1, queries.get());
+		assertFalse(items.isDone());
+		loader.dispatch();
+		assertEquals(2, queries.get());
+		assertEquals("blueberry", items.join().get(0).getDescription());
+		assertEquals("raspberry", items.join().get(2).getDescription());
+	}
+
+	@Test
+	public void testWindow() throws Exception {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		try {
+			BatchingEntityLoader<Item> loader = new BatchingEntityLoader<Item>(service, Item.class, Item::getId)
+					.window(20, TimeUnit.MILLISECONDS, scheduler);
+			CompletableFuture<Item> first = loader.load(1);
+			CompletableFuture<Item> second = loader.load(3);
+			assertEquals("blueberry", first.get(5, TimeUnit.SECONDS).getDescription());
+			assertEquals("raspberry", second.get(5, TimeUnit.SECONDS).getDescription());
+			assertEquals(1, queries.get());
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testPartialProperties() {
+		BatchingEntityLoader<Item> loader = new BatchingEntityLoader<Item>(service, Item.class, Item::getId)
+				.properties(Arrays.asList("id", "description"));
+		service.configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				((JpaQuery<?>)query).getDatabaseQuery().dontMaintainCache();
+			}
+		});
+		CompletableFuture<Item> item = loader.load(2);
+		loader.dispatch();
+		assertEquals("strawberry", item.join().getDescription());
+		assertNull(item.join().getPrice());
+	}
+
+	@Test
+	public void testFailedBatchIsNotMemoized() {
+		BatchingEntityLoader<Item> loader = new BatchingEntityLoader<Item>(service, Item.class, Item::getId)
+				.properties(Arrays.asList("unknown"));
+		CompletableFuture<Item> item = loader.load(1);
+		loader.dispatch();
+		assertTrue(item.isCompletedExceptionally());
+		loader.properties(null);
+		CompletableFuture<Item> retry = loader.load(1);
+		loader.dispatch();
+		assertEquals("blueberry", retry.join().getDescription());
+	}
+
+	private Item dispatched(BatchingEntityLoader<Item> loader, Object id) {
+		CompletableFuture<Item> item = loader.load(id);
+		loader.dispatch();
+		return item.join();
+	}
+}
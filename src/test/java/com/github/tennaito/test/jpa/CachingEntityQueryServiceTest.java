@@ -0,0 +1,158 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.Query;
+
+import org.eclipse.persistence.jpa.JpaQuery;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.EntityQueryService;
+import com.github.tennaito.entity.service.data.PageResult;
+import com.github.tennaito.entity.service.impl.CachingEntityQueryService;
+import com.github.tennaito.entity.service.impl.ConcurrentEntityQueryService;
+import com.github.tennaito.entity.service.impl.QueryConfiguration;
+import com.github.tennaito.test.jpa.entity.InvoiceList;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class CachingEntityQueryServiceTest extends AbstractEntityServicesTest {
+
+	private AtomicInteger queries;
+
+	private ConcurrentEntityQueryService<Item> delegate;
+
+	@Before
+	public void setUp() {
+		queries = new AtomicInteger();
+		delegate = new ConcurrentEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		delegate.configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				queries.incrementAndGet();
+			}
+		});
+	}
+
+	@Test
+	public void testRepeatedReadsHitTheCache() {
+		CachingEntityQueryService<Item> service = new CachingEntityQueryService<Item>(delegate, 10, 0, TimeUnit.SECONDS);
+		assertEquals(2, service.queryWhere(Item.class, "quantity=gt=100").size());
+		assertEquals(2, service.queryWhere(Item.class, "(quantity=gt=100)").size());
+		assertEquals(3, service.count(Item.class));
+		assertEquals(3, service.count(Item.class));
+		assertEquals("strawberry", service.querySingle(Item.class, "id==2").getDescription());
+		assertEquals("strawberry", service.querySingle(Item.class, "id==2").getDescription());
+		PageResult<Item> page = service.queryPage(Item.class, null, 1, 2);
+		page = service.queryPage(Item.class, null, 1, 2);
+		assertEquals(Long.valueOf(3), page.getTotal());
+		assertEquals(2, page.getItems().size());
+		assertEquals(5, queries.get());
+	}
+
+	@Test
+	public void testDefensiveCopies() {
+		CachingEntityQueryService<Item> service = new CachingEntityQueryService<Item>(delegate, 10, 0, TimeUnit.SECONDS);
+		List<Item> first = service.queryWhere(Item.class, "id==1");
+		first.get(0).setDescription("changed");
+		List<Item> second = service.queryWhere(Item.class, "id==1");
+		assertNotSame(first.get(0), second.get(0));
+		assertEquals("blueberry", second.get(0).getDescription());
+		assertEquals(Double.valueOf(0.5), second.get(0).getPrice());
+	}
+
+	@Test
+	public void testInvalidate() {
+		CachingEntityQueryService<Item> service = new CachingEntityQueryService<Item>(delegate, 10, 0, TimeUnit.SECONDS);
+		service.queryAll(Item.class);
+		service.queryAll(Item.class);
+		service.invalidate(Item.class);
+		service.queryAll(Item.class);
+		assertEquals(2, queries.get());
+		service.invalidateAll();
+		service.queryAll(Item.class);
+		assertEquals(3, queries.get());
+	}
+
+	@Test
+	public void testEviction() throws InterruptedException {
+		CachingEntityQueryService<Item> service = new CachingEntityQueryService<Item>(delegate, 1, 20, TimeUnit.MILLISECONDS);
+		service.queryWhere(Item.class, "id==1");
+		service.queryWhere(Item.class, "id==2");
+		service.queryWhere(Item.class, "id==1");
+		assertEquals(3, queries.get());
+		assertEquals(2, service.getCache().getEvictionCount());
+		Thread.sleep(50);
+		service.queryWhere(Item.class, "id==1");
+		assertEquals(4, queries.get());
+	}
+
+	@Test
+	public void testDifferentPagesAreDifferentEntries() {
+		CachingEntityQueryService<Item> service = new CachingEntityQueryService<Item>(delegate, 10, 0, TimeUnit.SECONDS);
+		assertEquals(2, service.queryAll(Item.class, 1, 2).size());
+		assertEquals(1, service.queryAll(Item.class, 2, 2).size());
+		assertFalse(service.queryAll(Item.class, 1, 2).get(0).getId().equals(service.queryAll(Item.class, 2, 2).get(0).getId()));
+		assertEquals(2, queries.get());
+	}
+
+	@Test
+	public void testPartialQueriesAreTransparent() {
+		delegate.configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				queries.incrementAndGet();
+				((JpaQuery<?>)query).getDatabaseQuery().dontMaintainCache();
+			}
+		});
+		CachingEntityQueryService<Item> service = new CachingEntityQueryService<Item>(delegate, 10, 0, TimeUnit.SECONDS);
+		List<Item> items = service.queryWhere(Item.class, Arrays.asList("id", "description"), "id==3");
+		assertEquals("raspberry", items.get(0).getDescription());
+		assertNull(items.get(0).getPrice());
+		// fails like the decorated service
+		ConcurrentEntityQueryService<InvoiceList> invoices = new ConcurrentEntityQueryService<InvoiceList>(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		CachingEntityQueryService<InvoiceList> cached = new CachingEntityQueryService<InvoiceList>(invoices, 10, 0, TimeUnit.SECONDS);
+		assertEquals(failure(invoices, Arrays.asList("id", "items.price")), failure(cached, Arrays.asList("id", "items.price")));
+	}
+
+	private Class<?> failure(EntityQueryService<InvoiceList> service, List<String> properties) {
+		try {
+			service.queryWhere(InvoiceList.class, properties, null);
+		} catch (RuntimeException e) {
+			return e.getClass();
+		}
+		return null;
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.QueryTimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.impl.CoalescingEntityQueryService;
+import com.github.tennaito.entity.service.impl.ConcurrentEntityQueryService;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class CoalescingEntityQueryServiceTest extends AbstractEntityServicesTest {
+
+	private ExecutorService executor;
+
+	private CountDownLatch release;
+
+	private AtomicInteger executions;
+
+	private CoalescingEntityQueryService<Item> service;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(8);
+		release = new CountDownLatch(1);
+		executions = new AtomicInteger();
+		service = new CoalescingEntityQueryService<Item>(new ConcurrentEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory()) {
+			@Override
+			public List<Item> queryWhere(Class<Item> entity, List<String> properties, String rsql, Integer page, Integer pageSize) {
+				executions.incrementAndGet();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				return super.queryWhere(entity, properties, rsql, page, pageSize);
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		executor.shutdownNow();
+	}
+
+	private List<Future<List<Item>>> submit(int calls, final String rsql) {
+		List<Future<List<Item>>> results = new ArrayList<Future<List<Item>>>();
+		for (int i = 0; i < calls; i++) {
+			results.add(executor.submit(new Callable<List<Item>>() {
+				public List<Item> call() {
+					return service.queryWhere(Item.class, rsql);
+				}
+			}));
+		}
+		return results;
+	}
+
+	private void waitCoalesced(long count) throws InterruptedException {
+		long limit = System.currentTimeMillis() + 5000;
+		while (service.getCoalescedCount() < count && System.currentTimeMillis() < limit) {
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	public void testIdenticalQueriesShareOneExecution() throws Exception {
+		List<Future<List<Item>>> results = submit(6, "quantity=gt=100");
+		waitCoalesced(5);
+		release.countDown();
+		for (Future<List<Item>> result : results) {
+			assertEquals(2, result.get().size());
+		}
+		assertEquals(1, executions.get());
+		assertEquals(1, service.getExecutionCount());
+		assertEquals(5, service.getCoalescedCount());
+	}
+
+	@Test
+	public void testDifferentQueriesAreNotCoalesced() throws Exception {
+		release.countDown();
+		assertEquals(2, service.queryWhere(Item.class, "quantity=gt=100").size());
+		assertEquals(3, service.queryAll(Item.class).size());
+		assertEquals(1, service.queryWhere(Item.class, "quantity=gt=100", 2, 1).size());
+		assertEquals(3, executions.get());
+		assertEquals(0, service.getCoalescedCount());
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		service.timeout(Item.class, 50, TimeUnit.MILLISECONDS);
+		List<Future<List<Item>>> results = submit(2, null);
+		waitCoalesced(1);
+		long limit = System.currentTimeMillis() + 5000;
+		while (service.getTimeoutCount() < 1 && System.currentTimeMillis() < limit) {
+			Thread.sleep(5);
+		}
+		release.countDown();
+		assertEquals(1, service.getTimeoutCount());
+		int timeouts = 0;
+		for (Future<List<Item>> result : results) {
+			try {
+				assertEquals(3, result.get().size());
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof QueryTimeoutException);
+				timeouts++;
+			}
+		}
+		assertEquals(1, timeouts);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testErrorIsShared() {
+		release.countDown();
+		service.queryAll(Item.class, 0, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testServiceRequired() {
+		new CoalescingEntityQueryService<Item>(null);
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.EntityIterator;
+import com.github.tennaito.entity.service.EntityQueryService;
+import com.github.tennaito.entity.service.PreparedEntityQuery;
+import com.github.tennaito.entity.service.impl.ConcurrentEntityQueryService;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class ConcurrentEntityQueryServiceTest extends AbstractEntityServicesTest {
+
+	@Test
+	public void testSharedBetweenThreads() throws Exception {
+		final EntityQueryService<Item> service = new ConcurrentEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory())
+				.bindParameters(true);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < 200; i++) {
+				final int id = (i % 3) + 1;
+				results.add(executor.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						assertEquals(3, service.count(Item.class));
+						return service.querySingle(Item.class, "id==" + id).getId();
+					}
+				}));
+			}
+			for (int i = 0; i < results.size(); i++) {
+				assertEquals(Integer.valueOf((i % 3) + 1), results.get(i).get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testQueries() {
+		EntityQueryService<Item> service = new ConcurrentEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		assertEquals(2, service.queryWhere(Item.class, "quantity=gt=100").size());
+		assertEquals(1, service.queryAll(Item.class, 2, 2).size());
+		assertEquals(Long.valueOf(3), service.queryPage(Item.class, null, 1, 2).getTotal());
+		assertEquals(2, service.queryWhere(Item.class, null, null, "id", null, 2).getItems().size());
+	}
+
+	@Test
+	public void testStream() {
+		ConcurrentEntityQueryService<Item> service = new ConcurrentEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		service.streamChunkSize(2);
+		EntityIterator<Item> iterator = service.streamWhere(Item.class, null, null);
+		int count = 0;
+		while (iterator.hasNext()) {
+			iterator.next();
+			count++;
+		}
+		iterator.close();
+		assertEquals(3, count);
+	}
+
+	@Test
+	public void testPrepare() {
+		PreparedEntityQuery<Item> query = new ConcurrentEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory()).prepare(Item.class, null, "id==1");
+		assertEquals("blueberry", query.querySingle("id==1").getDescription());
+		assertEquals("raspberry", query.querySingle("id==3").getDescription());
+		assertEquals(1, query.queryWhere("id==2", 1, 10).size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testFactoryRequired() {
+		new ConcurrentEntityQueryService<Item>(null);
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
+
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.CountStrategy;
+import com.github.tennaito.entity.service.cache.LruCache;
+import com.github.tennaito.entity.service.impl.AbstractEntityQueryService;
+import com.github.tennaito.entity.service.impl.CountConfiguration;
+import com.github.tennaito.entity.service.impl.DefaultEntityQueryService;
+import com.github.tennaito.entity.service.impl.NativeQueryCountEstimator;
+import com.github.tennaito.entity.service.impl.QueryConfiguration;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class CountStrategyTest extends AbstractEntityServicesTest {
+
+	private DefaultEntityQueryService<Item> createService(final AtomicInteger queries, LruCache<String, Long> cache) {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+		service.configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				queries.incrementAndGet();
+			}
+		}).countCache(cache);
+		return service;
+	}
+
+	@Test
+	public void testExactCount() {
+		AtomicInteger queries = new AtomicInteger();
+		DefaultEntityQueryService<Item> service = createService(queries, new LruCache<String, Long>(10));
+		assertEquals(2, service.countWhere(Item.class, "quantity=gt=100", CountStrategy.EXACT));
+		assertEquals(2, service.countWhere(Item.class, "quantity=gt=100", CountStrategy.EXACT));
+		assertEquals(2, queries.get());
+	}
+
+	@Test
+	public void testCachedCount() {
+		AtomicInteger queries = new AtomicInteger();
+		LruCache<String, Long> cache = new LruCache<String, Long>(10);
+		DefaultEntityQueryService<Item> service = createService(queries, cache);
+		assertEquals(2, service.countWhere(Item.class, "quantity=gt=100", CountStrategy.CACHED));
+		assertEquals(2, service.countWhere(Item.class, "(quantity=gt=100)", CountStrategy.CACHED));
+		assertEquals(3, service.countWhere(Item.class, null, CountStrategy.CACHED));
+		assertEquals(3, service.countWhere(Item.class, null, CountStrategy.CACHED));
+		assertEquals(2, queries.get());
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void testCountCacheOfFactory() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		EntityManagerFactory factory = manager.getEntityManagerFactory();
+		LruCache<String, Long> cache = AbstractEntityQueryService.getCountCache(factory);
+		cache.clear();
+		DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+		assertEquals(1, service.countWhere(Item.class, "quantity=lt=200", CountStrategy.CACHED));
+		assertEquals(1, cache.size());
+		assertTrue(cache == AbstractEntityQueryService.getCountCache(factory));
+		cache.clear();
+	}
+
+	@Test
+	public void testCachedCountExpires() throws InterruptedException {
+		AtomicInteger queries = new AtomicInteger();
+		LruCache<String, Long> cache = new LruCache<String, Long>(10, 20, TimeUnit.MILLISECONDS);
+		DefaultEntityQueryService<Item> service = createService(queries, cache);
+		assertEquals(3, service.countWhere(Item.class, null, CountStrategy.CACHED));
+		Thread.sleep(50);
+		assertEquals(3, service.countWhere(Item.class, null, CountStrategy.CACHED));
+		assertEquals(2, queries.get());
+	}
+
+	@Test
+	public void testCountConfiguration() {
+		final AtomicInteger queries = new AtomicInteger();
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+		service.configure(new CountConfiguration() {
+			public void applyConfiguration(Query query) {
+				queries.incrementAndGet();
+			}
+			public CountStrategy getCountStrategy() {
+				return CountStrategy.CACHED;
+			}
+		}).countCache(new LruCache<String, Long>(10));
+		assertEquals(1, service.countWhere(Item.class, "description==straw*"));
+		assertEquals(1, service.countWhere(Item.class, "description==straw*"));
+		assertEquals(3, service.count(Item.class));
+		assertEquals(2, queries.get());
+	}
+
+	@Test
+	public void testEstimatedCount() {
+		AtomicInteger queries = new AtomicInteger();
+		DefaultEntityQueryService<Item> service = createService(queries, new LruCache<String, Long>(10));
+		service.countEstimator(new NativeQueryCountEstimator("SELECT 42 FROM INFORMATION_SCHEMA.SYSTEM_TABLES WHERE UPPER(TABLE_NAME) = UPPER(?1)"));
+		assertEquals(42, service.countWhere(Item.class, null, CountStrategy.ESTIMATED));
+		assertEquals(0, queries.get());
+	}
+
+	@Test
+	public void testEstimatedCountFallback() {
+		AtomicInteger queries = new AtomicInteger();
+		LruCache<String, Long> cache = new LruCache<String, Long>(10);
+		DefaultEntityQueryService<Item> service = createService(queries, cache);
+		// without estimator or statistics the count is exact
+		assertEquals(3, service.countWhere(Item.class, null, CountStrategy.ESTIMATED));
+		service.countEstimator(new NativeQueryCountEstimator("SELECT 42 FROM INFORMATION_SCHEMA.SYSTEM_TABLES WHERE UPPER(TABLE_NAME) = UPPER(?1) AND 1 = 0"));
+		assertEquals(3, service.countWhere(Item.class, null, CountStrategy.ESTIMATED));
+		assertEquals(0, cache.size());
+		// with condition the count is cached, and logged
+		final List<LogRecord> records = new ArrayList<LogRecord>();
+		Handler handler = new Handler() {
+			public void publish(LogRecord record) {
+				records.add(record);
+			}
+			public void flush() {
+			}
+			public void close() {
+			}
+		};
+		Logger logger = Logger.getLogger(DefaultEntityQueryService.class.getName());
+		Level level = logger.getLevel();
+		logger.setLevel(Level.FINE);
+		logger.addHandler(handler);
+		try {
+			assertEquals(2, service.countWhere(Item.class, "quantity=gt=100", CountStrategy.ESTIMATED));
+		} finally {
+			logger.removeHandler(handler);
+			logger.setLevel(level);
+		}
+		assertEquals(1, cache.size());
+		assertEquals(3, queries.get());
+		assertEquals(1, records.size());
+		assertEquals("quantity=gt=100", records.get(0).getParameters()[0]);
+	}
+
+	@Test
+	public void testCacheTimeToLive() throws InterruptedException {
+		LruCache<String, Long> cache = new LruCache<String, Long>(10, 20, TimeUnit.MILLISECONDS);
+		cache.put("a", 1L);
+		assertEquals(Long.valueOf(1), cache.get("a"));
+		Thread.sleep(50);
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.size());
+		assertEquals(20, cache.getTimeToLive(TimeUnit.MILLISECONDS));
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.impl.DefaultEntityQueryService;
+import com.github.tennaito.entity.service.impl.QueryConfiguration;
+import com.github.tennaito.test.jpa.entity.InvoiceList;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class CountWhereMultiTest extends AbstractEntityServicesTest {
+
+	@Test
+	public void testSingleQuery() {
+		final AtomicInteger queries = new AtomicInteger();
+		DefaultEntityQueryService<Item> service = createService(queries);
+		List<Long> counts = service.countWhereMulti(Item.class, 
+				Arrays.asList("quantity=gt=100", "description==straw*", null, "price=lt=1;quantity=le=300", "id=in=(1,2)"));
+		assertEquals(Arrays.asList(2L, 1L, 3L, 1L, 2L), counts);
+		assertEquals(1, queries.get());
+	}
+
+	@Test
+	public void testNoMatches() {
+		final AtomicInteger queries = new AtomicInteger();
+		DefaultEntityQueryService<Item> service = createService(queries);
+		assertEquals(Arrays.asList(0L, 0L), service.countWhereMulti(Item.class, Arrays.asList("quantity=gt=5000", "description==none")));
+		assertEquals(1, queries.get());
+		// contradictions are not sent to the database
+		assertEquals(Arrays.asList(0L, 1L), service.countWhereMulti(Item.class, Arrays.asList("id==1;id==2", "id==3")));
+		assertEquals(Arrays.asList(0L), service.countWhereMulti(Item.class, Arrays.asList("id==1;id==2")));
+		assertEquals(2, queries.get());
+	}
+
+	@Test
+	public void testDottedConditions() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		DefaultEntityQueryService<InvoiceList> service = new DefaultEntityQueryService<InvoiceList>(manager);
+		// the items of one condition do not repeat the invoice for the others
+		List<Long> counts = service.countWhereMulti(InvoiceList.class, 
+				Arrays.asList("items.price=lt=1", null, "description==Fruits", "items.price=gt=5", "description==none,items.quantity=ge=2000"));
+		assertEquals(Arrays.asList(1L, 1L, 1L, 0L, 1L), counts);
+		assertEquals(service.countWhere(InvoiceList.class, null), counts.get(1).longValue());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNoConditions() {
+		createService(new AtomicInteger()).countWhereMulti(Item.class, null);
+	}
+
+	private DefaultEntityQueryService<Item> createService(final AtomicInteger queries) {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+		service.configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				queries.incrementAndGet();
+			}
+		});
+		return service;
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.impl.ConcurrentEntityQueryService;
+import com.github.tennaito.entity.service.impl.DefaultEntityQueryService;
+import com.github.tennaito.entity.service.impl.QueryConfiguration;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class ExistsWhereTest extends AbstractEntityServicesTest {
+
+	@Test
+	public void testExists() {
+		final List<Integer> maxResults = new ArrayList<Integer>();
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+		service.configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				maxResults.add(query.getMaxResults());
+			}
+		});
+		assertTrue(service.existsWhere(Item.class, null));
+		assertTrue(service.existsWhere(Item.class, "description==straw*"));
+		assertFalse(service.existsWhere(Item.class, "quantity=gt=5000"));
+		assertEquals(3, maxResults.size());
+		for (Integer max : maxResults) {
+			assertEquals(Integer.valueOf(1), max);
+		}
+		// a contradiction never reaches the database
+		assertFalse(service.existsWhere(Item.class, "quantity=gt=5000;quantity=lt=10"));
+		assertEquals(3, maxResults.size());
+	}
+
+	@Test
+	public void testExistsWithParameters() {
+		ConcurrentEntityQueryService<Item> service = new ConcurrentEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		service.bindParameters(true);
+		assertTrue(service.existsWhere(Item.class, "quantity=ge=2000"));
+		assertFalse(service.existsWhere(Item.class, "quantity=gt=2000"));
+	}
+}
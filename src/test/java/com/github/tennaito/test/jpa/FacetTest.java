@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.EntityQueryService;
+import com.github.tennaito.entity.service.impl.ConcurrentEntityQueryService;
+import com.github.tennaito.entity.service.impl.DefaultEntityQueryService;
+import com.github.tennaito.entity.service.impl.QueryConfiguration;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class FacetTest extends AbstractEntityServicesTest {
+
+	@Test
+	public void testFacet() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		EntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+		Map<Object, Long> counts = service.facetWhere(Item.class, null, "price", null);
+		assertEquals(3, counts.size());
+		assertEquals(Arrays.<Object>asList(0.5, 0.75, 1.0), new ArrayList<Object>(counts.keySet()));
+		assertEquals(Long.valueOf(1), counts.get(0.5));
+		assertEquals(2, service.facetWhere(Item.class, null, "price", 2).size());
+		counts = service.facetWhere(Item.class, "quantity=gt=100", "description", null);
+		assertEquals(Arrays.<Object>asList("blueberry", "raspberry"), new ArrayList<Object>(counts.keySet()));
+		assertTrue(service.facetWhere(Item.class, "id==1;id==2", "description", null).isEmpty());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidLimit() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		new DefaultEntityQueryService<Item>(manager).facetWhere(Item.class, null, "price", 0);
+	}
+
+	@Test
+	public void testParallelFacets() {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			ConcurrentEntityQueryService<Item> service = new ConcurrentEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory())
+					.executor(executor);
+			Map<String, Map<Object, Long>> facets = service.facetWhere(Item.class, "quantity=le=300", Arrays.asList("quantity", "description", "price"), 1);
+			assertEquals(Arrays.asList("quantity", "description", "price"), new ArrayList<String>(facets.keySet()));
+			assertEquals(Long.valueOf(1), facets.get("quantity").get(100));
+			assertEquals(Long.valueOf(1), facets.get("description").get("raspberry"));
+			assertEquals(1, facets.get("price").size());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testSequentialFacetsWithoutExecutor() {
+		final Set<Thread> threads = new HashSet<Thread>();
+		ConcurrentEntityQueryService<Item> service = new ConcurrentEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		service.configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				threads.add(Thread.currentThread());
+			}
+		});
+		Map<String, Map<Object, Long>> facets = service.facetWhere(Item.class, null, Arrays.asList("quantity", "description"), null);
+		assertEquals(2, facets.size());
+		assertEquals(Collections.singleton(Thread.currentThread()), threads);
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.AttributeNode;
+import javax.persistence.EntityGraph;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaQuery;
+
+import org.eclipse.persistence.jpa.JpaHelper;
+import org.eclipse.persistence.logging.AbstractSessionLog;
+import org.eclipse.persistence.logging.SessionLog;
+import org.eclipse.persistence.logging.SessionLogEntry;
+import org.eclipse.persistence.sessions.server.Server;
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.impl.DefaultEntityQueryService;
+import com.github.tennaito.entity.service.snippet.CriteriaSnippetFetchGraphDecorator;
+import com.github.tennaito.test.jpa.entity.InvoiceList;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class FetchGraphTest extends AbstractEntityServicesTest {
+
+	private PersistenceUnitUtil util = EntityManagerFactoryInitializer.getEntityManagerFactory().getPersistenceUnitUtil();
+
+	@Test
+	public void testGraphOfProperties() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		CriteriaSnippetFetchGraphDecorator<InvoiceList, InvoiceList> snippet = new CriteriaSnippetFetchGraphDecorator<InvoiceList, InvoiceList>(
+				CriteriaSnippetFetchGraphDecorator.LOAD_GRAPH, Arrays.asList("description", "items.description", "items.price"), null);
+		InvoiceList invoice = query(manager, snippet).getSingleResult();
+		EntityGraph<InvoiceList> graph = snippet.getGraph();
+		assertEquals(2, graph.getAttributeNodes().size());
+		for (AttributeNode<?> node : graph.getAttributeNodes()) {
+			// one subgraph shared by both item properties
+			assertEquals(node.getAttributeName().equals("items") ? 1 : 0, node.getSubgraphs().size());
+		}
+		assertTrue(util.isLoaded(invoice, "items"));
+		assertEquals(3, invoice.getItems().size());
+		// the collection is read in batch, not fetch joined
+		assertEquals(Arrays.asList("e.items"), snippet.getBatches());
+	}
+
+	@Test
+	public void testGraphOfDepth() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		CriteriaSnippetFetchGraphDecorator<InvoiceList, InvoiceList> single = new CriteriaSnippetFetchGraphDecorator<InvoiceList, InvoiceList>(
+				CriteriaSnippetFetchGraphDecorator.LOAD_GRAPH, 1, null);
+		query(manager, single).getSingleResult();
+		// the entity alone: no association is in the graph
+		assertEquals(2, single.getGraph().getAttributeNodes().size());
+		for (int depth : new int[] {2, 0}) {
+			CriteriaSnippetFetchGraphDecorator<InvoiceList, InvoiceList> snippet = new CriteriaSnippetFetchGraphDecorator<InvoiceList, InvoiceList>(
+					CriteriaSnippetFetchGraphDecorator.LOAD_GRAPH, depth, null);
+			InvoiceList invoice = query(EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager(), snippet).getSingleResult();
+			assertEquals(3, snippet.getGraph().getAttributeNodes().size());
+			assertTrue(util.isLoaded(invoice, "items"));
+		}
+	}
+
+	@Test
+	public void testServiceFetchGraph() {
+		final AtomicInteger statements = new AtomicInteger();
+		// the sessions of the managers take the log of the server session
+		Server session = JpaHelper.getServerSession(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		final SessionLog log = session.getSessionLog();
+		SessionLog counter = new AbstractSessionLog() {
+			public void log(SessionLogEntry entry) {
+				if (SessionLog.SQL.equals(entry.getNameSpace())) {
+					statements.incrementAndGet();
+				}
+				log.log(entry);
+			}
+		};
+		counter.setLevel(SessionLog.FINE);
+		session.setSessionLog(counter);
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		manager.getTransaction().begin();
+		try {
+			for (int id = 10; id < 15; id++) {
+				InvoiceList invoice = new InvoiceList();
+				invoice.setId(id);
+				invoice.setItems(new HashSet<Item>());
+				for (int i = 0; i < 2; i++) {
+					Item item = new Item();
+					item.setDescription("item " + id + "." + i);
+					invoice.getItems().add(item);
+				}
+				manager.persist(invoice);
+			}
+			manager.flush();
+			manager.clear();
+			DefaultEntityQueryService<InvoiceList> service = new DefaultEntityQueryService<InvoiceList>(manager);
+			statements.set(0);
+			assertEquals(10, items(service.queryWhere(InvoiceList.class, "id=ge=10")));
+			// one select for each invoice without the graph
+			assertEquals(6, statements.get());
+			manager.clear();
+			// a fetch graph needs weaving in EclipseLink, the load graph does not
+			service.fetchGraph(CriteriaSnippetFetchGraphDecorator.LOAD_GRAPH, 2);
+			statements.set(0);
+			List<InvoiceList> invoices = service.queryWhere(InvoiceList.class, "id=ge=10");
+			assertTrue(util.isLoaded(invoices.get(0), "items"));
+			assertEquals(10, items(invoices));
+			assertEquals(2, statements.get());
+			manager.clear();
+			statements.set(0);
+			assertEquals(4, items(service.queryPage(InvoiceList.class, null, "id=ge=10", 1, 2, false).getItems()));
+			assertEquals(2, statements.get());
+		} finally {
+			session.setSessionLog(log);
+			manager.getTransaction().rollback();
+		}
+	}
+
+	private int items(List<InvoiceList> invoices) {
+		int count = 0;
+		for (InvoiceList invoice : invoices) {
+			count += invoice.getItems().size();
+		}
+		return count;
+	}
+
+	@Test
+	public void testNoGraphForOtherResults() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		CriteriaSnippetFetchGraphDecorator<Long, Item> snippet = new CriteriaSnippetFetchGraphDecorator<Long, Item>(
+				CriteriaSnippetFetchGraphDecorator.FETCH_GRAPH, 2, null);
+		CriteriaQuery<Long> criteria = manager.getCriteriaBuilder().createQuery(Long.class);
+		criteria.select(manager.getCriteriaBuilder().count(criteria.from(Item.class)));
+		snippet.modify(criteria, Long.class, Item.class, manager);
+		assertNull(snippet.getGraph());
+		assertNotNull(snippet.configure(manager.createQuery(criteria)).getSingleResult());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidHint() {
+		new CriteriaSnippetFetchGraphDecorator<Item, Item>("javax.persistence.cache.retrieveMode", 1, null).validate();
+	}
+
+	private TypedQuery<InvoiceList> query(EntityManager manager, CriteriaSnippetFetchGraphDecorator<InvoiceList, InvoiceList> snippet) {
+		snippet.validate();
+		CriteriaQuery<InvoiceList> criteria = manager.getCriteriaBuilder().createQuery(InvoiceList.class);
+		criteria = snippet.modify(criteria, InvoiceList.class, InvoiceList.class, manager);
+		return snippet.configure(manager.createQuery(criteria));
+	}
+}
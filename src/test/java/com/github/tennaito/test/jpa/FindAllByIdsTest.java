@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.eclipse.persistence.jpa.JpaQuery;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.impl.ConcurrentEntityQueryService;
+import com.github.tennaito.entity.service.impl.DefaultEntityQueryService;
+import com.github.tennaito.entity.service.impl.QueryConfiguration;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class FindAllByIdsTest extends AbstractEntityServicesTest {
+
+	private AtomicInteger queries;
+
+	private EntityManager manager;
+
+	private DefaultEntityQueryService<Item> service;
+
+	@Before
+	public void setUp() {
+		queries = new AtomicInteger();
+		manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		service = new DefaultEntityQueryService<Item>(manager);
+		service.configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				queries.incrementAndGet();
+			}
+		});
+	}
+
+	@Test
+	public void testRequestOrder() {
+		List<Item> items = service.findAllByIds(Item.class, Arrays.asList(3, 1, 2), null);
+		assertEquals(3, items.size());
+		assertEquals("raspberry", items.get(0).getDescription());
+		assertEquals("blueberry", items.get(1).getDescription());
+		assertEquals("strawberry", items.get(2).getDescription());
+		assertEquals(1, queries.get());
+	}
+
+	@Test
+	public void testMissingAndRepeatedIds() {
+		List<Item> items = service.findAllByIds(Item.class, Arrays.asList(2, 99, 2), null);
+		assertEquals(2, items.size());
+		assertSame(items.get(0), items.get(1));
+		assertEquals("strawberry", items.get(0).getDescription());
+		assertEquals(1, queries.get());
+	}
+
+	@Test
+	public void testBoundedBatches() {
+		service.idBatchSize(2);
+		List<Item> items = service.findAllByIds(Item.class, Arrays.asList(1, 2, 3), null);
+		assertEquals(3, items.size());
+		assertEquals(2, queries.get());
+	}
+
+	@Test
+	public void testManagedEntitiesAreNotQueried() {
+		Item managed = manager.find(Item.class, 2);
+		List<Item> items = service.findAllByIds(Item.class, Arrays.asList(1, 2), null);
+		assertEquals(2, items.size());
+		assertSame(managed, items.get(1));
+		assertEquals(1, queries.get());
+		// all of them are managed now
+		items = service.findAllByIds(Item.class, Arrays.asList(2, 1), null);
+		assertEquals("blueberry", items.get(1).getDescription());
+		assertEquals(1, queries.get());
+	}
+
+	@Test
+	public void testWithoutLookup() {
+		manager.find(Item.class, 2);
+		service.managedEntityLookup(null);
+		assertEquals(1, service.findAllByIds(Item.class, Arrays.asList(2), null).size());
+		assertEquals(1, queries.get());
+	}
+
+	@Test
+	public void testPartialProperties() {
+		ConcurrentEntityQueryService<Item> concurrent = new ConcurrentEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		concurrent.configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				((JpaQuery<?>)query).getDatabaseQuery().dontMaintainCache();
+			}
+		});
+		List<Item> items = concurrent.findAllByIds(Item.class, Arrays.asList(3, 1), Arrays.asList("description"));
+		assertEquals(2, items.size());
+		assertEquals(Integer.valueOf(3), items.get(0).getId());
+		assertEquals("raspberry", items.get(0).getDescription());
+		assertNull(items.get(0).getPrice());
+		assertEquals("blueberry", items.get(1).getDescription());
+	}
+
+	@Test
+	public void testPartialPropertiesSkipManagedEntities() {
+		manager.find(Item.class, 2);
+		service.configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				queries.incrementAndGet();
+				((JpaQuery<?>)query).getDatabaseQuery().dontMaintainCache();
+			}
+		});
+		List<Item> items = service.findAllByIds(Item.class, Arrays.asList(1, 2), Arrays.asList("description"));
+		assertEquals(2, items.size());
+		assertEquals("strawberry", items.get(1).getDescription());
+		// every entity is partial
+		assertNull(items.get(0).getPrice());
+		assertNull(items.get(1).getPrice());
+		assertEquals(1, queries.get());
+	}
+
+	@Test
+	public void testEmptyIds() {
+		assertEquals(0, service.findAllByIds(Item.class, Arrays.<Integer>asList(), null).size());
+		assertEquals(0, queries.get());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullIds() {
+		service.findAllByIds(Item.class, null, null);
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.Query;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.CountStrategy;
+import com.github.tennaito.entity.service.cache.LruCache;
+import com.github.tennaito.entity.service.data.PageResult;
+import com.github.tennaito.entity.service.impl.ConcurrentEntityQueryService;
+import com.github.tennaito.entity.service.impl.QueryConfiguration;
+import com.github.tennaito.entity.service.rsql.RsqlCanonicalizer;
+import com.github.tennaito.entity.service.rsql.RsqlOptimizer;
+import com.github.tennaito.entity.service.rsql.RsqlPartitioner;
+import com.github.tennaito.entity.service.snippet.AbstractCriteriaSnippetRsqlDecorator;
+import com.github.tennaito.test.jpa.entity.Item;
+
+import cz.jirutka.rsql.parser.RSQLParser;
+import cz.jirutka.rsql.parser.ast.Node;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class InListPartitionTest extends AbstractEntityServicesTest {
+
+	private AtomicInteger queries;
+
+	private ExecutorService executor;
+
+	private ConcurrentEntityQueryService<Item> service;
+
+	@Before
+	public void setUp() {
+		queries = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(4);
+		service = new ConcurrentEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		service.bindParameters(true);
+		service.configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				queries.incrementAndGet();
+			}
+		});
+		service.inListChunkSize(1).executor(executor);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test
+	public void testPartitions() {
+		List<Node> partitions = RsqlPartitioner.partition(parse("id=in=(1,2,3,4,5);quantity=gt=0"), 2);
+		assertEquals(3, partitions.size());
+		assertEquals("id=in=(1,2);quantity=gt=0", RsqlCanonicalizer.toRsql(partitions.get(0)));
+		assertEquals("id=in=(5);quantity=gt=0", RsqlCanonicalizer.toRsql(partitions.get(2)));
+		// only lists of attributes of the entity that are ANDed are split
+		assertEquals(1, RsqlPartitioner.partition(parse("id=in=(1,2,3),quantity=gt=0"), 2).size());
+		assertEquals(1, RsqlPartitioner.partition(parse("invoice.id=in=(1,2,3)"), 2).size());
+		assertEquals(1, RsqlPartitioner.partition(parse("id=in=(1,2)"), 2).size());
+	}
+
+	@Test
+	public void testMergeInOrder() {
+		List<Item> items = service.queryWhere(Item.class, "id=in=(3,1,2)");
+		assertEquals(3, items.size());
+		assertEquals(Integer.valueOf(1), items.get(0).getId());
+		assertEquals(Integer.valueOf(2), items.get(1).getId());
+		assertEquals(Integer.valueOf(3), items.get(2).getId());
+		assertEquals(3, queries.get());
+		assertEquals(2, service.queryWhere(Item.class, "id=in=(1,2,3);quantity=ge=300").size());
+		assertEquals(3, service.countWhere(Item.class, "id=in=(1,2,3)"));
+	}
+
+	@Test
+	public void testPartitionsNotCached() {
+		LruCache<String, Node> cache = AbstractCriteriaSnippetRsqlDecorator.getSharedNodeCache();
+		String key = Item.class.getName() + "#id=in=(3)";
+		cache.remove(key);
+		assertEquals(3, service.queryWhere(Item.class, "id=in=(1,2,3)").size());
+		assertEquals(3, service.countWhere(Item.class, "id=in=(1,2,3)", CountStrategy.EXACT));
+		assertNull(cache.get(key));
+	}
+
+	@Test
+	public void testPages() {
+		List<Item> second = service.queryWhere(Item.class, "id=in=(1,2,3)", 2, 1);
+		assertEquals(1, second.size());
+		assertEquals(Integer.valueOf(2), second.get(0).getId());
+		assertEquals(0, service.queryWhere(Item.class, "id=in=(1,2,3)", 3, 2).size());
+
+		PageResult<Item> page = service.queryPage(Item.class, "id=in=(1,2,3)", 1, 2);
+		assertEquals(2, page.getItems().size());
+		assertEquals(Long.valueOf(3), page.getTotal());
+		assertTrue(page.hasNext());
+		page = service.queryPage(Item.class, null, "id=in=(1,2,3)", 2, 2, false);
+		assertEquals(1, page.getItems().size());
+		assertEquals(Integer.valueOf(3), page.getItems().get(0).getId());
+		assertFalse(page.hasNext());
+		// pages are not split
+		queries.set(0);
+		service.queryWhere(Item.class, "id=in=(1,2,3)", 1, 2);
+		assertEquals(1, queries.get());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testLargePages() {
+		service.queryWhere(Item.class, "id=in=(1,2,3)", Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	@Test
+	public void testLastPage() {
+		PageResult<Item> page = service.queryPage(Item.class, null, "id=in=(1,2,3)", Integer.MAX_VALUE / 2, 2, false);
+		assertEquals(0, page.getItems().size());
+		assertFalse(page.hasNext());
+	}
+
+	private Node parse(String rsql) {
+		return RsqlOptimizer.optimize(new RSQLParser().parse(rsql));
+	}
+}
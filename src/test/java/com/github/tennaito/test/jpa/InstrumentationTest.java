@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.Query;
+
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.impl.DefaultEntityQueryService;
+import com.github.tennaito.entity.service.impl.HistogramQueryInstrumentation;
+import com.github.tennaito.entity.service.impl.LatencyHistogram;
+import com.github.tennaito.entity.service.impl.QueryInstrumentation;
+import com.github.tennaito.entity.service.impl.QueryPhase;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class InstrumentationTest extends AbstractEntityServicesTest {
+
+	private DefaultEntityQueryService<Item> service(QueryInstrumentation instrumentation) {
+		DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager());
+		service.instrumentation(instrumentation);
+		return service;
+	}
+
+	@Test
+	public void testEveryPhaseIsRecorded() {
+		HistogramQueryInstrumentation instrumentation = new HistogramQueryInstrumentation();
+		DefaultEntityQueryService<Item> service = service(instrumentation);
+		assertEquals(2, service.queryWhere(Item.class, "quantity=gt=100").size());
+		assertEquals(2, service.queryWhere(Item.class, "quantity=gt=200").size());
+		assertEquals(3, service.countWhere(Item.class, null));
+		for (QueryPhase phase : QueryPhase.values()) {
+			LatencyHistogram histogram = instrumentation.getHistogram(Item.class, "queryWhere", phase);
+			assertNotNull(phase.name(), histogram);
+			assertEquals(2, histogram.getCount());
+			assertTrue(histogram.getPercentile(50, TimeUnit.NANOSECONDS) <= histogram.getMax(TimeUnit.NANOSECONDS));
+		}
+		assertEquals(1, instrumentation.getHistogram(Item.class, "countWhere", QueryPhase.EXECUTE).getCount());
+		assertEquals(10, instrumentation.getHistograms().size());
+	}
+
+	@Test
+	public void testUnsatisfiableConditionIsOnlyParsed() {
+		HistogramQueryInstrumentation instrumentation = new HistogramQueryInstrumentation();
+		assertEquals(0, service(instrumentation).queryPage(Item.class, Arrays.asList("id"), "id==1;id==2", 1, 10, true).getItems().size());
+		assertEquals(1, instrumentation.getHistogram(Item.class, "queryPage", QueryPhase.PARSE).getCount());
+		assertNull(instrumentation.getHistogram(Item.class, "queryPage", QueryPhase.EXECUTE));
+	}
+
+	@Test
+	public void testNoneRecordsNothing() {
+		final AtomicInteger records = new AtomicInteger();
+		DefaultEntityQueryService<Item> service = service(new QueryInstrumentation() {
+			public void record(Class<?> entity, String operation, QueryPhase phase, long nanos) {
+				records.incrementAndGet();
+			}
+
+			public void created(Class<?> entity, String operation, Query query) {
+			}
+		});
+		service.existsWhere(Item.class, "id==1");
+		assertEquals(QueryPhase.values().length, records.get());
+		service.instrumentation(null);
+		service.existsWhere(Item.class, "id==1");
+		assertEquals(QueryPhase.values().length, records.get());
+	}
+
+	@Test
+	public void testHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentile(99, TimeUnit.NANOSECONDS));
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i * 1000);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(50500, histogram.getMean(TimeUnit.NANOSECONDS));
+		assertEquals(100000, histogram.getMax(TimeUnit.NANOSECONDS));
+		// upper bound of the power of two bucket
+		assertEquals(65535, histogram.getPercentile(50, TimeUnit.NANOSECONDS));
+		assertEquals(100000, histogram.getPercentile(100, TimeUnit.NANOSECONDS));
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.eclipse.persistence.jpa.JpaQuery;
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.data.KeysetPage;
+import com.github.tennaito.entity.service.impl.DefaultEntityQueryService;
+import com.github.tennaito.entity.service.impl.DefaultQueryTextResolver;
+import com.github.tennaito.entity.service.impl.QueryConfiguration;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class KeysetPaginationTest extends AbstractEntityServicesTest {
+
+	@Test
+	public void testPagesById() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+		KeysetPage<Item> page = service.queryWhere(Item.class, null, null, "id", null, 2);
+		assertEquals(2, page.getItems().size());
+		assertEquals(Integer.valueOf(1), page.getItems().get(0).getId());
+		assertEquals(Integer.valueOf(2), page.getItems().get(1).getId());
+		assertTrue(page.hasNext());
+		page = service.queryWhere(Item.class, null, null, "id", page.getContinuationToken(), 2);
+		assertEquals(1, page.getItems().size());
+		assertEquals(Integer.valueOf(3), page.getItems().get(0).getId());
+		assertFalse(page.hasNext());
+		assertNull(page.getContinuationToken());
+	}
+
+	@Test
+	public void testPagesBySortKey() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+		KeysetPage<Item> page = service.queryWhere(Item.class, null, null, "price", null, 1);
+		assertEquals("blueberry", page.getItems().get(0).getDescription());
+		page = service.queryWhere(Item.class, null, null, "price", page.getContinuationToken(), 1);
+		assertEquals("raspberry", page.getItems().get(0).getDescription());
+		page = service.queryWhere(Item.class, null, null, "price", page.getContinuationToken(), 1);
+		assertEquals("strawberry", page.getItems().get(0).getDescription());
+		assertFalse(page.hasNext());
+	}
+
+	@Test
+	public void testPagesWithWhere() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+		service.bindParameters(true);
+		KeysetPage<Item> page = service.queryWhere(Item.class, null, "quantity=gt=100", "quantity", null, 1);
+		assertEquals("raspberry", page.getItems().get(0).getDescription());
+		page = service.queryWhere(Item.class, null, "quantity=gt=100", "quantity", page.getContinuationToken(), 1);
+		assertEquals("blueberry", page.getItems().get(0).getDescription());
+		assertFalse(page.hasNext());
+	}
+
+	@Test
+	public void testPartialPages() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+		service.configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				((JpaQuery<?>)query).getDatabaseQuery().dontMaintainCache();
+			}
+		});
+		KeysetPage<Item> page = service.queryWhere(Item.class, Arrays.asList("id", "price"), null, "price", null, 2);
+		assertEquals(2, page.getItems().size());
+		assertNull(page.getItems().get(0).getDescription());
+		page = service.queryWhere(Item.class, Arrays.asList("id", "price"), null, "price", page.getContinuationToken(), 2);
+		assertEquals(Integer.valueOf(2), page.getItems().get(0).getId());
+		assertFalse(page.hasNext());
+	}
+
+	@Test
+	public void testNullSortKeysComeLast() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		manager.getTransaction().begin();
+		try {
+			for (int i = 0; i < 2; i++) {
+				Item item = new Item();
+				item.setQuantity(1);
+				manager.persist(item);
+			}
+			manager.flush();
+			DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+			List<String> descriptions = new ArrayList<String>();
+			String token = null;
+			do {
+				KeysetPage<Item> page = service.queryWhere(Item.class, null, null, "description", token, 2);
+				for (Item item : page.getItems()) {
+					descriptions.add(item.getDescription());
+				}
+				token = page.getContinuationToken();
+			} while (token != null);
+			assertEquals(Arrays.asList("blueberry", "raspberry", "strawberry", null, null), descriptions);
+		} finally {
+			manager.getTransaction().rollback();
+		}
+	}
+
+	@Test
+	public void testSeekWithoutNullsInTheOrder() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+		final List<Query> queries = new ArrayList<Query>();
+		service.configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				queries.add(query);
+			}
+		});
+		KeysetPage<Item> page = service.queryWhere(Item.class, null, null, "description", null, 2);
+		service.queryWhere(Item.class, null, null, "description", page.getContinuationToken(), 2);
+		// the last page of the non null keys goes on with the null ones
+		assertEquals(3, queries.size());
+		for (Query query : queries) {
+			String sql = new DefaultQueryTextResolver().resolve(query).toUpperCase();
+			assertFalse(sql, sql.contains("CASE"));
+			assertFalse(sql, sql.contains(" OR ") && sql.contains("IS NULL"));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testContradictionValidated() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		new DefaultEntityQueryService<Item>(manager).queryWhere(Item.class, null, "id=gt=5;id=lt=3", "price", null, null);
+	}
+
+	@Test
+	public void testMalformedTokens() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+		String token = service.queryWhere(Item.class, null, null, "id", null, 1).getContinuationToken();
+		for (String malformed : Arrays.asList(token.substring(0, token.length() - 1), "-1" + token, token.substring(0, token.length() - 2) + "7a")) {
+			try {
+				service.queryWhere(Item.class, null, null, "id", malformed, 1);
+				fail(malformed);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTokenOfAnotherSortKey() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+		KeysetPage<Item> page = service.queryWhere(Item.class, null, null, "price", null, 1);
+		service.queryWhere(Item.class, null, null, "quantity", page.getContinuationToken(), 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidToken() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		new DefaultEntityQueryService<Item>(manager).queryWhere(Item.class, null, null, "id", "zz", 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPageSize() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		new DefaultEntityQueryService<Item>(manager).queryWhere(Item.class, null, null, "id", null, 0);
+	}
+}
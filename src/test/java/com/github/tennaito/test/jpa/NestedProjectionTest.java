@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaQuery;
+
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.data.EntityState;
+import com.github.tennaito.entity.service.impl.CachingEntityQueryService;
+import com.github.tennaito.entity.service.impl.ConcurrentEntityQueryService;
+import com.github.tennaito.entity.service.impl.DefaultEntityQueryService;
+import com.github.tennaito.entity.service.impl.QueryConfiguration;
+import com.github.tennaito.entity.service.snippet.CriteriaSnippetPartialDecorator;
+import com.github.tennaito.test.jpa.entity.InvoiceList;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class NestedProjectionTest extends AbstractEntityServicesTest {
+
+	@Test
+	public void testNestedStatesFromOneQuery() {
+		final AtomicInteger queries = new AtomicInteger();
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		DefaultEntityQueryService<InvoiceList> service = new DefaultEntityQueryService<InvoiceList>(manager);
+		service.configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				queries.incrementAndGet();
+			}
+		});
+		List<EntityState> states = service.queryStates(InvoiceList.class, Arrays.asList("description", "items.description", "items.price"), null, null, null);
+		assertEquals(1, queries.get());
+		assertEquals(1, states.size());
+		EntityState invoice = states.get(0);
+		// the identifier is selected to merge the rows of the collection
+		assertEquals(Integer.valueOf(1), invoice.<Integer>get("id"));
+		assertEquals("Fruits", invoice.<String>get("description"));
+		Collection<EntityState> items = invoice.get("items");
+		assertTrue(items instanceof Set);
+		assertEquals(3, items.size());
+		Set<String> descriptions = new HashSet<String>();
+		for (EntityState item : items) {
+			assertEquals(Item.class, item.getOriginalType());
+			descriptions.add(item.<String>get("description"));
+		}
+		assertEquals(new HashSet<String>(Arrays.asList("blueberry", "strawberry", "raspberry")), descriptions);
+	}
+
+	@Test
+	public void testJoinPlannedOncePerPrefix() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		CriteriaSnippetPartialDecorator<Tuple, InvoiceList> snippet 
+			= new CriteriaSnippetPartialDecorator<Tuple, InvoiceList>(Arrays.asList("id", "items.description", "items.price", "items.quantity"), null);
+		CriteriaQuery<Tuple> criteria = manager.getCriteriaBuilder().createTupleQuery();
+		criteria = snippet.modify(criteria, Tuple.class, InvoiceList.class, manager);
+		assertEquals(1, criteria.getRoots().size());
+		assertEquals(1, criteria.getRoots().iterator().next().getJoins().size());
+		List<Tuple> rows = manager.createQuery(criteria).getResultList();
+		assertEquals(3, rows.size());
+	}
+
+	@Test
+	public void testFilteredCollection() {
+		ConcurrentEntityQueryService<InvoiceList> service = new ConcurrentEntityQueryService<InvoiceList>(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		List<EntityState> states = service.queryStates(InvoiceList.class, Arrays.asList("id", "items.description"), "description==Fruits", null, null);
+		assertEquals(1, states.size());
+		assertEquals(3, states.get(0).<Collection<EntityState>>get("items").size());
+		assertEquals(0, service.queryStates(InvoiceList.class, Arrays.asList("id", "items.description"), "description==Vegetables", null, null).size());
+	}
+
+	@Test
+	public void testEqualElementsKeptApart() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		manager.getTransaction().begin();
+		try {
+			manager.find(Item.class, 2).setPrice(0.5d);
+			manager.flush();
+			DefaultEntityQueryService<InvoiceList> service = new DefaultEntityQueryService<InvoiceList>(manager);
+			List<EntityState> states = service.queryStates(InvoiceList.class, Arrays.asList("id", "items.price"), null, null, null);
+			Collection<EntityState> items = states.get(0).get("items");
+			// the identifiers of the items are selected, so equal prices are still two items
+			assertEquals(3, items.size());
+			double total = 0;
+			for (EntityState item : items) {
+				total += item.<Double>get("price");
+			}
+			assertEquals(1.75, total);
+		} finally {
+			manager.getTransaction().rollback();
+		}
+	}
+
+	@Test
+	public void testPaginatedCollection() {
+		ConcurrentEntityQueryService<InvoiceList> service = new ConcurrentEntityQueryService<InvoiceList>(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		// the page holds entities, not the rows of their items
+		List<EntityState> states = service.queryStates(InvoiceList.class, Arrays.asList("id", "items.description"), null, 1, 2);
+		assertEquals(1, states.size());
+		assertEquals(3, states.get(0).<Collection<EntityState>>get("items").size());
+		assertEquals(3, service.queryStates(InvoiceList.class, Arrays.asList("id", "items.description"), "description==Fruits", 1, 1).get(0).<Collection<EntityState>>get("items").size());
+		assertEquals(0, service.queryStates(InvoiceList.class, Arrays.asList("id", "items.description"), null, 2, 2).size());
+	}
+
+	@Test
+	public void testCachedNestedStates() {
+		ConcurrentEntityQueryService<InvoiceList> delegate = new ConcurrentEntityQueryService<InvoiceList>(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		CachingEntityQueryService<InvoiceList> service = new CachingEntityQueryService<InvoiceList>(delegate, 10, 0, TimeUnit.SECONDS);
+		// nested projections are read as states, the decorator keeps queryWhere as the decorated service does
+		List<EntityState> invoices = service.queryStates(InvoiceList.class, Arrays.asList("id", "items.id", "items.price"), null, null, null);
+		assertEquals(1, invoices.size());
+		Collection<EntityState> items = invoices.get(0).get("items");
+		assertEquals(3, items.size());
+		double total = 0;
+		for (EntityState item : items) {
+			assertEquals(Item.class, item.getOriginalType());
+			total += item.<Double>get("price");
+		}
+		assertEquals(2.25, total);
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.data.PageResult;
+import com.github.tennaito.entity.service.impl.DefaultEntityQueryService;
+import com.github.tennaito.entity.service.impl.QueryConfiguration;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class PageResultTest extends AbstractEntityServicesTest {
+
+	private DefaultEntityQueryService<Item> createService(final AtomicInteger queries) {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+		service.configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				queries.incrementAndGet();
+			}
+		});
+		return service;
+	}
+
+	@Test
+	public void testPageWithCount() {
+		AtomicInteger queries = new AtomicInteger();
+		PageResult<Item> result = createService(queries).queryPage(Item.class, "quantity=gt=0", 1, 2);
+		assertEquals(2, result.getItems().size());
+		assertEquals(Long.valueOf(3), result.getTotal());
+		assertTrue(result.hasNext());
+		assertEquals(2, queries.get());
+	}
+
+	@Test
+	public void testLastPageSkipsCount() {
+		AtomicInteger queries = new AtomicInteger();
+		PageResult<Item> result = createService(queries).queryPage(Item.class, "quantity=gt=0", 2, 2);
+		assertEquals(1, result.getItems().size());
+		assertEquals(Long.valueOf(3), result.getTotal());
+		assertFalse(result.hasNext());
+		assertEquals(1, queries.get());
+	}
+
+	@Test
+	public void testSmallFirstPageSkipsCount() {
+		AtomicInteger queries = new AtomicInteger();
+		PageResult<Item> result = createService(queries).queryPage(Item.class, "description==straw*", 1, 10);
+		assertEquals(1, result.getItems().size());
+		assertEquals(Long.valueOf(1), result.getTotal());
+		assertEquals(1, queries.get());
+	}
+
+	@Test
+	public void testPageBeyondTheEnd() {
+		AtomicInteger queries = new AtomicInteger();
+		PageResult<Item> result = createService(queries).queryPage(Item.class, null, 5, 2);
+		assertEquals(0, result.getItems().size());
+		assertEquals(Long.valueOf(3), result.getTotal());
+		assertFalse(result.hasNext());
+		assertEquals(2, queries.get());
+	}
+
+	@Test
+	public void testHasNextOnly() {
+		AtomicInteger queries = new AtomicInteger();
+		DefaultEntityQueryService<Item> service = createService(queries);
+		PageResult<Item> result = service.queryPage(Item.class, null, null, 1, 2, false);
+		assertEquals(2, result.getItems().size());
+		assertNull(result.getTotal());
+		assertTrue(result.hasNext());
+		result = service.queryPage(Item.class, null, null, 2, 2, false);
+		assertEquals(1, result.getItems().size());
+		assertFalse(result.hasNext());
+		assertEquals(2, queries.get());
+	}
+
+	@Test
+	public void testMaxPageSize() {
+		PageResult<Item> result = createService(new AtomicInteger()).queryPage(Item.class, null, null, 1, Integer.MAX_VALUE, false);
+		assertEquals(3, result.getItems().size());
+		assertFalse(result.hasNext());
+	}
+
+	@Test
+	public void testParameterizedPage() {
+		AtomicInteger queries = new AtomicInteger();
+		DefaultEntityQueryService<Item> service = createService(queries);
+		service.bindParameters(true);
+		PageResult<Item> result = service.queryPage(Item.class, "quantity=gt=100", 1, 1);
+		assertEquals(1, result.getItems().size());
+		assertEquals(Long.valueOf(2), result.getTotal());
+		assertTrue(result.hasNext());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPageRequired() {
+		createService(new AtomicInteger()).queryPage(Item.class, null, null, 2);
+	}
+}
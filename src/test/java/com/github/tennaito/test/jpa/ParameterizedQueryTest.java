@@ -0,0 +1,141 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.eclipse.persistence.jpa.JpaQuery;
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.EntityQueryService;
+import com.github.tennaito.entity.service.impl.DefaultEntityQueryService;
+import com.github.tennaito.entity.service.impl.QueryConfiguration;
+import com.github.tennaito.test.jpa.entity.InvoiceList;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class ParameterizedQueryTest extends AbstractEntityServicesTest {
+
+	@Test
+	public void testSameShapeSameSql() {
+		final List<Query> queries = new ArrayList<Query>();
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		EntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager)
+				.configure(new QueryConfiguration() {
+					public void applyConfiguration(Query query) {
+						queries.add(query);
+					}
+				})
+				.bindParameters(true);
+		assertEquals("blueberry", service.querySingle(Item.class, "id==1").getDescription());
+		assertEquals("strawberry", service.querySingle(Item.class, "id==2").getDescription());
+		
+		String first  = ((JpaQuery<?>)queries.get(0)).getDatabaseQuery().getSQLString();
+		String second = ((JpaQuery<?>)queries.get(1)).getDatabaseQuery().getSQLString();
+		assertEquals(first, second);
+		assertTrue(first.contains("?"));
+		assertFalse(first.contains("1"));
+	}
+	
+	@Test
+	public void testOperators() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		EntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager).bindParameters(true);
+		assertEquals(2, service.countWhere(Item.class, "description==*a*"));
+		assertEquals(1, service.countWhere(Item.class, "description!=*a*"));
+		assertEquals(1, service.countWhere(Item.class, "description==strawberry;id=gt=0"));
+		assertEquals(2, service.countWhere(Item.class, "price=ge=0.75"));
+		assertEquals(1, service.countWhere(Item.class, "price=lt=0.75"));
+		assertEquals(2, service.countWhere(Item.class, "quantity=le=300"));
+		assertEquals(2, service.countWhere(Item.class, "id=in=(1,3)"));
+		assertEquals(1, service.countWhere(Item.class, "id=out=(1,3)"));
+		assertEquals(0, service.countWhere(Item.class, "description==null"));
+		assertEquals(3, service.countWhere(Item.class, "description!=null"));
+		assertEquals(3, service.countWhere(Item.class, "quantity!=1"));
+	}
+	
+	@Test
+	public void testPartialParameterized() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		EntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager)
+				.configure(new QueryConfiguration() {
+					public void applyConfiguration(Query query) {
+						((JpaQuery<?>)query).getDatabaseQuery().dontMaintainCache();
+					}
+				})
+				.bindParameters(true);
+		List<String> properties = new ArrayList<String>();
+		properties.add("description");
+		List<Item> items = service.queryWhere(Item.class, properties, "quantity=gt=100", 1, 5);
+		assertEquals(2, items.size());
+		for (Item item : items) {
+			assertTrue(item.getDescription() != null);
+			assertTrue(item.getId() == null);
+		}
+	}
+	
+	@Test
+	public void testLiteralsWithoutBindParameters() {
+		final List<Query> queries = new ArrayList<Query>();
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		EntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager)
+				.configure(new QueryConfiguration() {
+					public void applyConfiguration(Query query) {
+						queries.add(query);
+					}
+				});
+		assertEquals(1, service.queryWhere(Item.class, "description==*berry;quantity=gt=1000;id=in=(1,2)").size());
+		assertTrue(queries.get(0).getParameters().isEmpty());
+	}
+	
+	@Test
+	public void testCollectionPathsSameElement() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		for (boolean bindParameters : new boolean[] {false, true}) {
+			EntityQueryService<InvoiceList> service = new DefaultEntityQueryService<InvoiceList>(manager).bindParameters(bindParameters);
+			// the comparisons of a collection path refer to the same item
+			assertEquals(1, service.queryWhere(InvoiceList.class, "items.description==blueberry;items.quantity==2000").size());
+			assertEquals(0, service.queryWhere(InvoiceList.class, "items.description==blueberry;items.quantity==100").size());
+			assertEquals(0, service.countWhere(InvoiceList.class, "items.description==blueberry;items.quantity==100"));
+			assertEquals(0, service.queryWhere(InvoiceList.class, "items.price==0.5;items.price==1.0").size());
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownProperty() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		EntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager).bindParameters(true);
+		service.countWhere(Item.class, "unknown==1");
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+
+import javax.persistence.EntityManager;
+
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.PreparedEntityQuery;
+import com.github.tennaito.entity.service.impl.DefaultEntityQueryService;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class PreparedEntityQueryTest extends AbstractEntityServicesTest {
+
+	@Test
+	public void testExecuteManyTimes() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		PreparedEntityQuery<Item> query = new DefaultEntityQueryService<Item>(manager).prepare(Item.class, null, "id==0");
+		assertEquals("blueberry", query.querySingle("id==1").getDescription());
+		assertEquals("strawberry", query.querySingle("id==2").getDescription());
+		assertEquals("raspberry", query.querySingle("id==3").getDescription());
+	}
+	
+	@Test
+	public void testPagination() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		PreparedEntityQuery<Item> query = new DefaultEntityQueryService<Item>(manager).prepare(Item.class, null, "quantity=gt=0;description==*");
+		assertEquals(1, query.queryWhere("quantity=gt=100;description==*berry", 1, 1).size());
+		assertEquals(1, query.queryWhere("quantity=gt=100;description==*berry", 2, 1).size());
+		assertEquals(0, query.queryWhere("quantity=gt=100;description==*berry", 3, 1).size());
+		assertEquals(2, query.queryWhere("quantity=gt=100;description==*berry", null, null).size());
+		assertEquals(1, query.queryWhere("quantity=gt=0;description==straw*", null, null).size());
+	}
+	
+	@Test
+	public void testWithoutWhere() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		PreparedEntityQuery<Item> query = new DefaultEntityQueryService<Item>(manager).prepare(Item.class, null, null);
+		assertEquals(3, query.queryWhere(null, null, null).size());
+		assertEquals(2, query.queryWhere(null, 1, 2).size());
+	}
+	
+	@Test
+	public void testShapeAsWritten() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		PreparedEntityQuery<Item> query = new DefaultEntityQueryService<Item>(manager).prepare(Item.class, null, "quantity==100,quantity==300");
+		assertEquals(2, query.queryWhere("quantity==100,quantity==300", null, null).size());
+		// the optimized tree of the same values would be a single equality
+		assertEquals(1, query.queryWhere("quantity==100,quantity==100", null, null).size());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testDifferentShape() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		PreparedEntityQuery<Item> query = new DefaultEntityQueryService<Item>(manager).prepare(Item.class, null, "id==1");
+		query.queryWhere("id=in=(1,2)", null, null);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPage() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		PreparedEntityQuery<Item> query = new DefaultEntityQueryService<Item>(manager).prepare(Item.class, null, "id==1");
+		query.queryWhere("id==2", 0, 1);
+	}
+}
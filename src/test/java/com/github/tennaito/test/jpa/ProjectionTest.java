@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.eclipse.persistence.jpa.JpaQuery;
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.data.DefaultEntityStateConverter;
+import com.github.tennaito.entity.service.data.EntityState;
+import com.github.tennaito.entity.service.impl.CachingEntityQueryService;
+import com.github.tennaito.entity.service.impl.ConcurrentEntityQueryService;
+import com.github.tennaito.entity.service.impl.DefaultEntityQueryService;
+import com.github.tennaito.entity.service.impl.DefaultManagedEntityLookup;
+import com.github.tennaito.entity.service.impl.QueryConfiguration;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class ProjectionTest extends AbstractEntityServicesTest {
+
+	@Test
+	public void testProjectedStates() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+		List<EntityState> states = service.queryStates(Item.class, Arrays.asList("id", "description"), "quantity=gt=100", null, null);
+		assertEquals(2, states.size());
+		for (EntityState state : states) {
+			assertEquals(Item.class, state.getOriginalType());
+			assertTrue(state.contains("description"));
+			assertFalse(state.contains("price"));
+		}
+		// nothing was loaded into the persistence context
+		assertNull(new DefaultManagedEntityLookup().find(manager, Item.class, states.get(0).get("id")));
+	}
+
+	@Test
+	public void testAllSingularProperties() {
+		ConcurrentEntityQueryService<Item> service = new ConcurrentEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		List<EntityState> states = service.queryStates(Item.class, null, "id==2", null, null);
+		assertEquals(1, states.size());
+		assertEquals("strawberry", states.get(0).<String>get("description"));
+		assertEquals(Double.valueOf(1.0), states.get(0).<Double>get("price"));
+		assertEquals(Integer.valueOf(100), states.get(0).<Integer>get("quantity"));
+	}
+
+	@Test
+	public void testPaginationAndContradiction() {
+		ConcurrentEntityQueryService<Item> service = new ConcurrentEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		assertEquals(2, service.queryStates(Item.class, Arrays.asList("description"), null, 1, 2).size());
+		assertEquals(1, service.queryStates(Item.class, Arrays.asList("description"), null, 2, 2).size());
+		assertEquals(0, service.queryStates(Item.class, Arrays.asList("description"), "id==1;id==2", null, null).size());
+	}
+
+	@Test
+	public void testProjectedStateToEntity() {
+		ConcurrentEntityQueryService<Item> service = new ConcurrentEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		EntityState state = service.queryStates(Item.class, Arrays.asList("description"), "id==3", null, null).get(0);
+		Item item = new DefaultEntityStateConverter<Item>().createEntity(state);
+		assertEquals("raspberry", item.getDescription());
+		assertNull(item.getPrice());
+		assertNull(item.getId());
+	}
+
+	@Test
+	public void testCachedPartialQuery() {
+		ConcurrentEntityQueryService<Item> delegate = new ConcurrentEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		// partial entities must stay out of the cache of the provider, as without the decorator
+		delegate.configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				((JpaQuery<?>)query).getDatabaseQuery().dontMaintainCache();
+			}
+		});
+		CachingEntityQueryService<Item> service = new CachingEntityQueryService<Item>(delegate, 10, 0, TimeUnit.SECONDS);
+		List<Item> items = service.queryWhere(Item.class, Arrays.asList("description", "price"), "id==1", null, null);
+		assertEquals(1, items.size());
+		assertEquals("blueberry", items.get(0).getDescription());
+		assertEquals(Double.valueOf(0.5), items.get(0).getPrice());
+		assertNull(items.get(0).getQuantity());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEmptyProperties() {
+		ConcurrentEntityQueryService<Item> service = new ConcurrentEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory());
+		service.queryStates(Item.class, Arrays.<String>asList(), null, null, null);
+	}
+}
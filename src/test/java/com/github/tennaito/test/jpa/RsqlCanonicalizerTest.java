@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.EntityQueryService;
+import com.github.tennaito.entity.service.impl.CachingEntityQueryService;
+import com.github.tennaito.entity.service.impl.DefaultEntityQueryService;
+import com.github.tennaito.entity.service.impl.QueryConfiguration;
+import com.github.tennaito.entity.service.rsql.RsqlCanonicalizer;
+import com.github.tennaito.test.jpa.entity.Item;
+
+import cz.jirutka.rsql.parser.RSQLParser;
+import cz.jirutka.rsql.parser.ast.ComparisonNode;
+import cz.jirutka.rsql.parser.ast.Node;
+import cz.jirutka.rsql.parser.ast.RSQLOperators;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class RsqlCanonicalizerTest extends AbstractEntityServicesTest {
+
+	@Test
+	public void testSortOperands() {
+		Node a = canonicalize("description==straw*;quantity=gt=0");
+		Node b = canonicalize("quantity=gt=0;description==straw*");
+		assertEquals(RsqlCanonicalizer.toRsql(a), RsqlCanonicalizer.toRsql(b));
+		assertEquals(RsqlCanonicalizer.hash(a), RsqlCanonicalizer.hash(b));
+	}
+
+	@Test
+	public void testFlattenAndRemoveDuplicates() {
+		assertEquals("description==a;price==1;quantity==2", 
+				RsqlCanonicalizer.toRsql(canonicalize("quantity==2;(price==1;(description==a;quantity==2))")));
+		assertEquals("quantity==1", RsqlCanonicalizer.toRsql(canonicalize("quantity==1,quantity==1")));
+		assertEquals("quantity=in=(1,2,3)", RsqlCanonicalizer.toRsql(canonicalize("quantity=in=(3,1,2,1)")));
+	}
+
+	@Test
+	public void testKeepGroupsAndQuotes() {
+		assertEquals("(description=='b c',description==a);price==1", 
+				RsqlCanonicalizer.toRsql(canonicalize("(description=='b c',description==a);price==1")));
+		assertEquals("description==\"it's\"", RsqlCanonicalizer.toRsql(canonicalize("description==\"it's\"")));
+		assertEquals("description==''", RsqlCanonicalizer.toRsql(canonicalize("description==''")));
+		// the canonical string parses to the same tree
+		String rsql = RsqlCanonicalizer.toRsql(canonicalize("(description=='b c',price=lt=2);quantity=ge=100"));
+		assertEquals(rsql, RsqlCanonicalizer.toRsql(canonicalize(rsql)));
+	}
+
+	@Test
+	public void testEscapeBothQuotes() {
+		Node node = new ComparisonNode(RSQLOperators.EQUAL, "description", Arrays.asList("it's \"a\\b\""));
+		assertEquals("description=='it\\'s \"a\\\\b\"'", RsqlCanonicalizer.toRsql(node));
+	}
+
+	@Test
+	public void testDifferentConditions() {
+		assertFalse(RsqlCanonicalizer.hash(canonicalize("quantity==1")) == RsqlCanonicalizer.hash(canonicalize("quantity==2")));
+		assertFalse(RsqlCanonicalizer.toRsql(canonicalize("a==1;b==2")).equals(RsqlCanonicalizer.toRsql(canonicalize("a==1,b==2"))));
+	}
+
+	@Test
+	public void testShareCachedResult() {
+		final int[] executions = new int[1];
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		EntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager).bindParameters(true).configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				executions[0]++;
+			}
+		});
+		CachingEntityQueryService<Item> cached = new CachingEntityQueryService<Item>(service, 16, 0, TimeUnit.SECONDS);
+
+		assertEquals(1, cached.queryWhere(Item.class, "quantity=gt=0;price=ge=1").size());
+		assertEquals(1, cached.queryWhere(Item.class, "price=ge=1;(quantity=gt=0;price=ge=1)").size());
+		assertEquals(1, executions[0]);
+		assertTrue(cached.getCache().getHitCount() >= 1);
+	}
+
+	private Node canonicalize(String rsql) {
+		return RsqlCanonicalizer.canonicalize(new RSQLParser().parse(rsql));
+	}
+}
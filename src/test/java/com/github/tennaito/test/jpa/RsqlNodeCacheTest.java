@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+
+import javax.persistence.EntityManager;
+
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.EntityQueryService;
+import com.github.tennaito.entity.service.cache.LruCache;
+import com.github.tennaito.entity.service.impl.DefaultEntityQueryService;
+import com.github.tennaito.entity.service.snippet.AbstractCriteriaSnippetRsqlDecorator;
+import com.github.tennaito.test.jpa.entity.Item;
+
+import cz.jirutka.rsql.parser.ast.Node;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class RsqlNodeCacheTest extends AbstractEntityServicesTest {
+
+	@Test
+	public void testEvictLeastRecentlyUsed() {
+		LruCache<String, String> cache = new LruCache<String, String>(2);
+		cache.put("a", "1");
+		cache.put("b", "2");
+		// touch 'a' so 'b' becomes the eldest
+		assertEquals("1", cache.get("a"));
+		cache.put("c", "3");
+		assertNull(cache.get("b"));
+		assertEquals("1", cache.get("a"));
+		assertEquals("3", cache.get("c"));
+		assertEquals(2, cache.size());
+		assertEquals(3, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getEvictionCount());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidSize() {
+		new LruCache<String, String>(0);
+	}
+
+	@Test
+	public void testReuseParsedRsql() {
+		LruCache<String, Node> cache = AbstractCriteriaSnippetRsqlDecorator.getSharedNodeCache();
+		String rsql = "description==straw*";
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		EntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+		
+		assertEquals(1, service.queryWhere(Item.class, rsql).size());
+		String key = Item.class.getName() + '#' + rsql;
+		Node node = cache.get(key);
+		long hits = cache.getHitCount();
+		assertEquals(1, service.countWhere(Item.class, rsql));
+		assertEquals(hits + 1, cache.getHitCount());
+		assertNotNull(node);
+		assertSame(node, cache.get(key));
+	}
+}
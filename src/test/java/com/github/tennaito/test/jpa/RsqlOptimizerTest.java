@@ -0,0 +1,177 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import javax.persistence.EntityManager;
+import javax.persistence.NoResultException;
+import javax.persistence.Query;
+import javax.persistence.metamodel.Metamodel;
+
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.data.PageResult;
+import com.github.tennaito.entity.service.impl.DefaultEntityQueryService;
+import com.github.tennaito.entity.service.impl.QueryConfiguration;
+import com.github.tennaito.entity.service.rsql.RsqlCanonicalizer;
+import com.github.tennaito.entity.service.rsql.RsqlOptimizer;
+import com.github.tennaito.entity.service.rsql.RsqlSelectorTypes;
+import com.github.tennaito.test.jpa.entity.Item;
+
+import cz.jirutka.rsql.parser.RSQLParser;
+import cz.jirutka.rsql.parser.ast.Node;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class RsqlOptimizerTest extends AbstractEntityServicesTest {
+
+	@Test
+	public void testMergeEqualitiesIntoSet() {
+		assertEquals("id=in=(1,2,3)", optimize("id==1,id==2,id==3"));
+		assertEquals("id=in=(1,2,3)", optimize("id==3,id=in=(1,2)"));
+		assertEquals("id=out=(1,2)", optimize("id!=1;id!=2"));
+		// wildcards and null are not equalities
+		assertEquals("description==a*,description==b", optimize("description==a*,description==b"));
+		assertEquals("description==b,description==null", optimize("description==null,description==b"));
+		// a string equality is a case insensitive like, a set is not
+		assertEquals("description==a,description==b", optimize("description==a,description==b"));
+		assertEquals("description!=a;description!=b", optimize("description!=a;description!=b"));
+	}
+
+	@Test
+	public void testOnlyKnownTypes() {
+		// ranges and equalities of strings are not folded
+		assertFalse(RsqlOptimizer.isUnsatisfiable(parse("description=gt=10;description=lt=9")));
+		assertEquals("description==01;description==1", optimize("description==1;description==01"));
+		// without the types only the canonical form
+		Node node = RsqlOptimizer.optimize(new RSQLParser().parse("id==1,id==2"));
+		assertEquals("id==1,id==2", RsqlCanonicalizer.toRsql(node));
+		node = RsqlOptimizer.optimize(new RSQLParser().parse("id==1;id==2"));
+		assertFalse(RsqlOptimizer.isUnsatisfiable(node));
+		// unknown selectors are kept
+		assertEquals("unknown==1,unknown==2", optimize("unknown==1,unknown==2"));
+	}
+
+	@Test
+	public void testMixedCaseEqualities() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		for (boolean bindParameters : new boolean[] {false, true}) {
+			DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+			service.bindParameters(bindParameters);
+			assertEquals(2, service.queryWhere(Item.class, "description==Blueberry,description==Raspberry").size());
+			assertEquals(1, service.queryWhere(Item.class, "description!=Blueberry;description!=Raspberry").size());
+			assertEquals(2, service.countWhere(Item.class, "description==Blueberry,description==Raspberry"));
+			// a single root for every comparison
+			assertEquals(2, service.queryWhere(Item.class, "description==blueberry,quantity==100").size());
+			assertEquals(1, service.countWhere(Item.class, "quantity=gt=0;price=ge=1"));
+		}
+	}
+
+	@Test
+	public void testFoldRanges() {
+		assertEquals("quantity=gt=5", optimize("quantity=gt=3;quantity=gt=5"));
+		assertEquals("quantity=gt=5", optimize("quantity=ge=5;quantity=gt=5"));
+		assertEquals("quantity=gt=3", optimize("quantity=gt=3,quantity=gt=5"));
+		assertEquals("quantity=ge=1;quantity=lt=10", optimize("quantity=lt=20;quantity=ge=1;quantity=lt=10"));
+		assertEquals("id=in=(2,3)", optimize("id=in=(1,2,3,4);id=gt=1;id=le=3"));
+		assertEquals("id==2", optimize("id=in=(1,2);id=in=(2,3)"));
+	}
+
+	@Test
+	public void testContradictions() {
+		assertTrue(RsqlOptimizer.isUnsatisfiable(parse("quantity=gt=5;quantity=lt=3")));
+		assertTrue(RsqlOptimizer.isUnsatisfiable(parse("quantity=gt=5;quantity=le=5")));
+		assertTrue(RsqlOptimizer.isUnsatisfiable(parse("id==1;id==2")));
+		assertTrue(RsqlOptimizer.isUnsatisfiable(parse("description==a;(id==1;id==2)")));
+		assertFalse(RsqlOptimizer.isUnsatisfiable(parse("quantity=ge=5;quantity=le=5")));
+		assertEquals("description==a", optimize("description==a,(id==1;id==2)"));
+	}
+
+	@Test
+	public void testSkipDatabase() {
+		final int[] executions = new int[1];
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+		service.configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				executions[0]++;
+			}
+		});
+		String rsql = "quantity=gt=500;quantity=lt=100";
+		assertEquals(0, service.queryWhere(Item.class, rsql).size());
+		assertEquals(0, service.countWhere(Item.class, rsql));
+		PageResult<Item> page = service.queryPage(Item.class, rsql, 1, 10);
+		assertEquals(Long.valueOf(0), page.getTotal());
+		assertFalse(page.hasNext());
+		assertNull(service.queryWhere(Item.class, null, rsql, "id", null, 10).getContinuationToken());
+		try {
+			service.querySingle(Item.class, rsql);
+			assertTrue(false);
+		} catch (NoResultException e) {
+			// expected
+		}
+		assertEquals(0, executions[0]);
+		assertEquals(3, service.queryWhere(Item.class, "id==1,id==2,id==3").size());
+		assertEquals(1, executions[0]);
+	}
+
+	@Test
+	public void testSkipDatabaseValidates() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+		String rsql = "id=gt=5;id=lt=3";
+		try {
+			service.queryWhere(Item.class, null, rsql, -3, 0);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			service.queryPage(Item.class, null, rsql, 0, 10, true);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			service.queryStates(Item.class, null, rsql, 1, 0);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private Node parse(String rsql) {
+		Metamodel metamodel = EntityManagerFactoryInitializer.getEntityManagerFactory().getMetamodel();
+		return RsqlOptimizer.optimize(new RSQLParser().parse(rsql), new RsqlSelectorTypes(metamodel, Item.class));
+	}
+
+	private String optimize(String rsql) {
+		return RsqlCanonicalizer.toRsql(parse(rsql));
+	}
+}
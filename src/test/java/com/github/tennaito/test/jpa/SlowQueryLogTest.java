@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import javax.persistence.Query;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.impl.DefaultEntityQueryService;
+import com.github.tennaito.entity.service.impl.QueryInstrumentation;
+import com.github.tennaito.entity.service.impl.QueryPhase;
+import com.github.tennaito.entity.service.impl.SlowQueryLogEntityQueryService;
+import com.github.tennaito.entity.service.impl.SlowQueryRecord;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class SlowQueryLogTest extends AbstractEntityServicesTest {
+
+	private Logger logger;
+
+	private List<SlowQueryRecord> records;
+
+	@Before
+	public void setUp() {
+		records = new ArrayList<SlowQueryRecord>();
+		logger = Logger.getAnonymousLogger();
+		logger.setUseParentHandlers(false);
+		logger.addHandler(new Handler() {
+			public void publish(LogRecord record) {
+				records.add((SlowQueryRecord) record.getParameters()[0]);
+			}
+			public void flush() {
+			}
+			public void close() {
+			}
+		});
+	}
+
+	private SlowQueryLogEntityQueryService<Item> service(long threshold, TimeUnit unit) {
+		DefaultEntityQueryService<Item> delegate = new DefaultEntityQueryService<Item>(EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager());
+		return new SlowQueryLogEntityQueryService<Item>(delegate, threshold, unit).logger(logger, Level.INFO);
+	}
+
+	@Test
+	public void testSlowQueryRecord() {
+		SlowQueryLogEntityQueryService<Item> service = service(0, TimeUnit.NANOSECONDS);
+		assertEquals(2, service.queryStates(Item.class, Arrays.asList("id", "description"), "(quantity=gt=100)", 1, 10).size());
+		assertEquals(1, records.size());
+		SlowQueryRecord record = records.get(0);
+		assertEquals(Item.class, record.getEntity());
+		assertEquals("queryStates", record.getOperation());
+		assertEquals("(quantity=gt=100)", record.getRsql());
+		assertEquals("quantity=gt=100", record.getCanonicalRsql());
+		assertEquals(Arrays.asList("id", "description"), record.getProperties());
+		assertEquals(Integer.valueOf(1), record.getPage());
+		assertEquals(Integer.valueOf(10), record.getPageSize());
+		assertEquals(2, record.getRows());
+		assertEquals(QueryPhase.values().length, record.getPhases().size());
+		assertEquals(1, record.getStatements().size());
+		assertTrue(record.getStatements().get(0), record.getStatements().get(0).toUpperCase().contains("FROM ITEM"));
+		assertTrue(record.toString().contains("operation=queryStates"));
+	}
+
+	@Test
+	public void testEveryQueryOfACallIsRecorded() {
+		SlowQueryLogEntityQueryService<Item> service = service(0, TimeUnit.NANOSECONDS);
+		assertEquals(Long.valueOf(3), service.queryPage(Item.class, null, 1, 2).getTotal());
+		assertEquals(1, records.size());
+		assertEquals(2, records.get(0).getStatements().size());
+		assertEquals(2, records.get(0).getRows());
+	}
+
+	@Test
+	public void testFastQueriesAreNotLogged() {
+		SlowQueryLogEntityQueryService<Item> service = service(1, TimeUnit.HOURS);
+		service.queryAll(Item.class);
+		service.count(Item.class);
+		assertEquals(2, service.getSampledCount());
+		assertEquals(0, service.getSlowCount());
+		assertTrue(records.isEmpty());
+	}
+
+	@Test
+	public void testSampling() {
+		SlowQueryLogEntityQueryService<Item> service = service(0, TimeUnit.NANOSECONDS).sample(0);
+		service.queryAll(Item.class);
+		assertEquals(0, service.getSampledCount());
+		service.logger(logger, Level.FINEST).sample(1);
+		service.queryAll(Item.class);
+		// the logger discards the level
+		assertEquals(0, service.getSampledCount());
+		assertTrue(records.isEmpty());
+	}
+
+	@Test
+	public void testInstrumentationWrappedOnce() {
+		final List<Query> created = new ArrayList<Query>();
+		InstrumentedService delegate = new InstrumentedService();
+		delegate.instrumentation(new QueryInstrumentation() {
+			public void record(Class<?> entity, String operation, QueryPhase phase, long nanos) {
+			}
+			public void created(Class<?> entity, String operation, Query query) {
+				created.add(query);
+			}
+		});
+		SlowQueryLogEntityQueryService<Item> inner = new SlowQueryLogEntityQueryService<Item>(delegate, 0, TimeUnit.NANOSECONDS).logger(logger, Level.INFO);
+		SlowQueryLogEntityQueryService<Item> outer = new SlowQueryLogEntityQueryService<Item>(inner, 0, TimeUnit.NANOSECONDS).logger(logger, Level.INFO).capture(delegate);
+		QueryInstrumentation installed = delegate.getInstrumentation();
+		inner.sample(0);
+		outer.sample(0).queryAll(Item.class);
+		assertTrue(records.isEmpty());
+		assertEquals(1, created.size());
+		inner.sample(1);
+		outer.sample(1).queryAll(Item.class);
+		// both decorators capture the statement, the wrapped instrumentation still records it
+		assertEquals(2, records.size());
+		assertEquals(1, records.get(0).getStatements().size());
+		assertEquals(1, records.get(1).getStatements().size());
+		assertEquals(2, created.size());
+		assertSame(installed, delegate.getInstrumentation());
+	}
+
+	@Test
+	public void testFailedCallIsLogged() {
+		SlowQueryLogEntityQueryService<Item> service = service(0, TimeUnit.NANOSECONDS);
+		try {
+			service.querySingle(Item.class, "quantity=gt=0");
+		} catch (RuntimeException e) {
+			// more than one item
+		}
+		assertEquals(1, records.size());
+		assertEquals(-1, records.get(0).getRows());
+	}
+
+	private static class InstrumentedService extends DefaultEntityQueryService<Item> {
+
+		private InstrumentedService() {
+			super(EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager());
+		}
+
+		@Override
+		protected QueryInstrumentation getInstrumentation() {
+			return super.getInstrumentation();
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Antonio Rabelo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.tennaito.test.jpa;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.eclipse.persistence.jpa.JpaQuery;
+import org.junit.Test;
+
+import com.github.tennaito.entity.service.EntityIterator;
+import com.github.tennaito.entity.service.impl.DefaultEntityQueryService;
+import com.github.tennaito.entity.service.impl.QueryConfiguration;
+import com.github.tennaito.test.jpa.entity.Item;
+
+/**
+ * @author Antonio Rabelo
+ */
+public class StreamQueryTest extends AbstractEntityServicesTest {
+
+	@Test
+	public void testStreamInChunks() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		EntityIterator<Item> iterator = new DefaultEntityQueryService<Item>(manager).streamChunkSize(2).streamWhere(Item.class, null, null);
+		List<Integer> ids = new ArrayList<Integer>();
+		while (iterator.hasNext()) {
+			Item item = iterator.next();
+			assertFalse(manager.contains(item));
+			ids.add(item.getId());
+		}
+		iterator.close();
+		assertEquals(Arrays.asList(1, 2, 3), ids);
+	}
+
+	@Test
+	public void testCallerEntitiesStayManaged() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		Item loaded = manager.find(Item.class, 1);
+		loaded.setDescription("changed");
+		EntityIterator<Item> iterator = new DefaultEntityQueryService<Item>(manager).streamChunkSize(1).streamWhere(Item.class, null, null);
+		int count = 0;
+		while (iterator.hasNext()) {
+			iterator.next();
+			count++;
+		}
+		iterator.close();
+		assertEquals(3, count);
+		assertTrue(manager.contains(loaded));
+		assertEquals("changed", loaded.getDescription());
+		manager.clear();
+	}
+
+	@Test
+	public void testStreamWithWhere() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		EntityIterator<Item> iterator = new DefaultEntityQueryService<Item>(manager).streamChunkSize(1).streamWhere(Item.class, null, "quantity=gt=100");
+		assertEquals("blueberry", iterator.next().getDescription());
+		assertEquals("raspberry", iterator.next().getDescription());
+		assertFalse(iterator.hasNext());
+		iterator.close();
+	}
+
+	@Test
+	public void testStreamPartial() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		DefaultEntityQueryService<Item> service = new DefaultEntityQueryService<Item>(manager);
+		service.configure(new QueryConfiguration() {
+			public void applyConfiguration(Query query) {
+				((JpaQuery<?>)query).getDatabaseQuery().dontMaintainCache();
+			}
+		});
+		EntityIterator<Item> iterator = service.streamChunkSize(2).streamWhere(Item.class, Arrays.asList("description"), null);
+		int count = 0;
+		while (iterator.hasNext()) {
+			Item item = iterator.next();
+			assertNull(item.getPrice());
+			count++;
+		}
+		iterator.close();
+		assertEquals(3, count);
+	}
+
+	@Test
+	public void testClose() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		EntityIterator<Item> iterator = new DefaultEntityQueryService<Item>(manager).streamWhere(Item.class, null, null);
+		Item item = iterator.next();
+		iterator.close();
+		assertFalse(manager.contains(item));
+		assertFalse(iterator.hasNext());
+	}
+
+	@Test
+	public void testStream() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		Stream<Item> stream = new DefaultEntityQueryService<Item>(manager).streamChunkSize(2).streamWhere(Item.class, null, null).stream();
+		try {
+			List<String> descriptions = stream.map(Item::getDescription).collect(Collectors.toList());
+			assertEquals(Arrays.asList("blueberry", "strawberry", "raspberry"), descriptions);
+		} finally {
+			stream.close();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidChunkSize() {
+		EntityManager manager = EntityManagerFactoryInitializer.getEntityManagerFactory().createEntityManager();
+		new DefaultEntityQueryService<Item>(manager).streamChunkSize(0);
+	}
+}